@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.HandlePool;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * malloc/free and calloc/realloc cycles of the native heap allocators.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+public class AllocationBenchmark {
+
+	NativeHeapAllocator allocator;
+	NativeHeapAllocator pooled;
+	HandlePool<Order> handles;
+
+	@Setup
+	public void setup() {
+		allocator = NativeHeapAllocator.Factory.create(Order.class);
+		pooled = NativeHeapAllocator.Factory.createPooled(64, Order.class);
+		handles = allocator.handles(Order.class, 64);
+	}
+
+	@Benchmark
+	public long mallocFree() {
+		Pointer<Order> ptr = allocator.malloc(Order.class);
+		long address = ptr.address();
+		ptr.free();
+		return address;
+	}
+
+	@Benchmark
+	public long mallocFreePooled() {
+		Pointer<Order> ptr = pooled.malloc(Order.class);
+		long address = ptr.address();
+		ptr.free();
+		return address;
+	}
+
+	@Benchmark
+	public long mallocFreeHandles() {
+		Pointer<Order> ptr = handles.malloc();
+		long address = ptr.address();
+		handles.free(ptr);
+		return address;
+	}
+
+	@Benchmark
+	public long callocFree() {
+		Array<Order> array = allocator.calloc(16, Order.class);
+		long address = array.address();
+		array.free();
+		return address;
+	}
+
+	@Benchmark
+	public long callocRealloc() {
+		Array<Order> array = allocator.calloc(16, Order.class);
+		array = allocator.realloc(array, 64);
+		long address = array.address();
+		array.free();
+		return address;
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.LONG),
+		@Field(name="price", type=Type.LONG),
+		@Field(name="quantity", type=Type.INT),
+		@Field(name="side", type=Type.BYTE) })
+	public interface Order {
+		long id();
+		void id(long id);
+		long price();
+		void price(long price);
+		int quantity();
+		void quantity(int quantity);
+		byte side();
+		void side(byte side);
+	}
+
+}
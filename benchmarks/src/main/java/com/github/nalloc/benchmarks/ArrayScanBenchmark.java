@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.ArrayScanner;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Sequential, parallel and random {@link Array#get(long)} scans compared to an on-heap object array and
+ * {@link ByteBuffer}.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+public class ArrayScanBenchmark {
+
+	@Param("1048576")
+	int size;
+
+	NativeHeapAllocator allocator;
+	Array<Entry> array;
+	HeapEntry[] heap;
+	ByteBuffer buffer;
+	int[] indexes;
+
+	@Setup
+	public void setup() {
+		allocator = NativeHeapAllocator.Factory.create(Entry.class);
+		array = allocator.calloc(size, Entry.class);
+		heap = new HeapEntry[size];
+		buffer = ByteBuffer.allocateDirect(size << 3).order(ByteOrder.nativeOrder());
+		indexes = new int[size];
+		Random random = new Random(42);
+		for(int i = 0; i < size; i++) {
+			array.get(i).value(i);
+			heap[i] = new HeapEntry(i);
+			buffer.putLong(i << 3, i);
+			indexes[i] = random.nextInt(size);
+		}
+	}
+
+	@TearDown
+	public void teardown() {
+		array.free();
+	}
+
+	@Benchmark
+	public long sequential() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += array.get(i).value();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long parallel() {
+		return array.scan(new ArrayScanner<Entry, long[]>() {
+			@Override
+			public long[] accumulator() {
+				return new long[1];
+			}
+			@Override
+			public void accept(final long[] sum, final Entry entry, final long index) {
+				sum[0] += entry.value();
+			}
+			@Override
+			public long[] combine(final long[] left, final long[] right) {
+				left[0] += right[0];
+				return left;
+			}
+		})[0];
+	}
+
+	@Benchmark
+	public long random() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += array.get(indexes[i]).value();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long sequentialHeap() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += heap[i].value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long randomHeap() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += heap[indexes[i]].value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long sequentialBuffer() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += buffer.getLong(i << 3);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long randomBuffer() {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			sum += buffer.getLong(indexes[i] << 3);
+		}
+		return sum;
+	}
+
+	@Struct(@Field(name="value", type=Type.LONG))
+	public interface Entry {
+		long value();
+		void value(long value);
+	}
+
+	static final class HeapEntry {
+		final long value;
+		HeapEntry(final long value) {
+			this.value = value;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Random access latency of an anonymous mapping with regular 4KB pages compared to a mapping
+ * from {@link MmapAllocator#mmapHuge(long, Class)}. Mappings are larger than the TLB reach of
+ * regular pages, so lookups with regular pages are dominated by TLB misses.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(jvmArgsAppend="-XX:MaxDirectMemorySize=2g")
+public class HugePageBenchmark {
+
+	private static final int LOOKUPS = 1024;
+
+	@Param("67108864")
+	long size;
+
+	MmapAllocator allocator;
+	Array<Entry> regular;
+	Array<Entry> huge;
+	long seed = 42;
+
+	@Setup
+	public void setup() {
+		allocator = MmapAllocator.Factory.create(Entry.class);
+		regular = allocator.mmap(size, Entry.class);
+		huge = allocator.mmapHuge(size, Entry.class);
+		allocator.preload(regular, Runtime.getRuntime().availableProcessors());
+		allocator.preload(huge, Runtime.getRuntime().availableProcessors());
+	}
+
+	@TearDown
+	public void teardown() {
+		regular.free();
+		huge.free();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public long randomRegularPages() {
+		return lookup(regular);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LOOKUPS)
+	public long randomHugePages() {
+		return lookup(huge);
+	}
+
+	private long lookup(final Array<Entry> array) {
+		long x = seed;
+		long sum = 0;
+		for(int i = 0; i < LOOKUPS; i++) {
+			// xorshift, dependent on the previous lookup to measure latency instead of throughput
+			x ^= x << 13;
+			x ^= x >>> 7;
+			x ^= x << 17;
+			sum += array.get(((x + sum) & Long.MAX_VALUE) % size).value();
+		}
+		seed = x;
+		return sum;
+	}
+
+	@Struct(@Field(name="value", type=Type.LONG))
+	public interface Entry {
+		long value();
+		void value(long value);
+	}
+
+}
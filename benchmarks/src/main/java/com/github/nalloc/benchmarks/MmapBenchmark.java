@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Anonymous and file-backed mappings of {@link MmapAllocator}: mapping cost and sequential
+ * access to an existing mapping.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+public class MmapBenchmark {
+
+	@Param("65536")
+	int size;
+
+	MmapAllocator allocator;
+	File file;
+	Array<Entry> anonymous;
+	Array<Entry> mapped;
+
+	@Setup
+	public void setup() throws IOException {
+		allocator = MmapAllocator.Factory.create(Entry.class);
+		file = File.createTempFile(getClass().getSimpleName(), ".map");
+		anonymous = allocator.mmap(size, Entry.class);
+		mapped = allocator.mmap(file, size, Entry.class);
+	}
+
+	@TearDown
+	public void teardown() {
+		anonymous.free();
+		mapped.free();
+		file.delete();
+	}
+
+	@Benchmark
+	public long mmapAnonymous() {
+		Array<Entry> array = allocator.mmap(size, Entry.class);
+		long value = array.get(size - 1).value();
+		array.free();
+		return value;
+	}
+
+	@Benchmark
+	public long mmapFile() throws IOException {
+		Array<Entry> array = allocator.mmap(file, size, Entry.class);
+		long value = array.get(size - 1).value();
+		array.free();
+		return value;
+	}
+
+	@Benchmark
+	public long scanAnonymous() {
+		return scan(anonymous);
+	}
+
+	@Benchmark
+	public long scanFile() {
+		return scan(mapped);
+	}
+
+	private long scan(final Array<Entry> array) {
+		long sum = 0;
+		for(int i = 0; i < size; i++) {
+			Entry entry = array.get(i);
+			entry.value(entry.value() + i);
+			sum += entry.value();
+		}
+		return sum;
+	}
+
+	@Struct(@Field(name="value", type=Type.LONG))
+	public interface Entry {
+		long value();
+		void value(long value);
+	}
+
+}
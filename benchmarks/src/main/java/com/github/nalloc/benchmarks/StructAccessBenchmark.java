@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Generated field accessors for each {@link Type} compared to on-heap fields and {@link ByteBuffer},
+ * and cloning of a pointer to a struct with a nested struct.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+public class StructAccessBenchmark {
+
+	NativeHeapAllocator allocator;
+	Pointer<Fields> pointer;
+	Fields fields;
+	HeapFields heap;
+	ByteBuffer buffer;
+
+	byte b = 1;
+	char c = 'c';
+	int i = 2;
+	long l = 3;
+	short sh = 4;
+	float f = 5;
+	double d = 6;
+	boolean z = true;
+	int bits = 7;
+	String s = "benchmark";
+
+	@Setup
+	public void setup() {
+		allocator = NativeHeapAllocator.Factory.create(Fields.class, Nested.class);
+		pointer = allocator.malloc(Fields.class);
+		fields = pointer.deref();
+		fields.s(s);
+		heap = new HeapFields();
+		buffer = ByteBuffer.allocateDirect(16).order(ByteOrder.nativeOrder());
+	}
+
+	@TearDown
+	public void teardown() {
+		pointer.free();
+	}
+
+	@Benchmark
+	public byte getByte() {
+		return fields.b();
+	}
+	@Benchmark
+	public void setByte() {
+		fields.b(b);
+	}
+
+	@Benchmark
+	public char getChar() {
+		return fields.c();
+	}
+	@Benchmark
+	public void setChar() {
+		fields.c(c);
+	}
+
+	@Benchmark
+	public int getInt() {
+		return fields.i();
+	}
+	@Benchmark
+	public void setInt() {
+		fields.i(i);
+	}
+
+	@Benchmark
+	public long getLong() {
+		return fields.l();
+	}
+	@Benchmark
+	public void setLong() {
+		fields.l(l);
+	}
+
+	@Benchmark
+	public short getShort() {
+		return fields.sh();
+	}
+	@Benchmark
+	public void setShort() {
+		fields.sh(sh);
+	}
+
+	@Benchmark
+	public float getFloat() {
+		return fields.f();
+	}
+	@Benchmark
+	public void setFloat() {
+		fields.f(f);
+	}
+
+	@Benchmark
+	public double getDouble() {
+		return fields.d();
+	}
+	@Benchmark
+	public void setDouble() {
+		fields.d(d);
+	}
+
+	@Benchmark
+	public boolean getBoolean() {
+		return fields.z();
+	}
+	@Benchmark
+	public void setBoolean() {
+		fields.z(z);
+	}
+
+	@Benchmark
+	public int getBits() {
+		return fields.bits();
+	}
+	@Benchmark
+	public void setBits() {
+		fields.bits(bits);
+	}
+
+	@Benchmark
+	public String getString() {
+		return fields.s();
+	}
+	@Benchmark
+	public void setString() {
+		fields.s(s);
+	}
+
+	@Benchmark
+	public long getStruct() {
+		return fields.nested().l();
+	}
+	@Benchmark
+	public void setStruct() {
+		fields.nested().l(l);
+	}
+
+	@Benchmark
+	public int getIntHeap() {
+		return heap.i;
+	}
+	@Benchmark
+	public void setIntHeap() {
+		heap.i = i;
+	}
+	@Benchmark
+	public long getLongHeap() {
+		return heap.l;
+	}
+	@Benchmark
+	public void setLongHeap() {
+		heap.l = l;
+	}
+
+	@Benchmark
+	public int getIntBuffer() {
+		return buffer.getInt(0);
+	}
+	@Benchmark
+	public void setIntBuffer() {
+		buffer.putInt(0, i);
+	}
+	@Benchmark
+	public long getLongBuffer() {
+		return buffer.getLong(8);
+	}
+	@Benchmark
+	public void setLongBuffer() {
+		buffer.putLong(8, l);
+	}
+
+	@Benchmark
+	public Pointer<Fields> clonePointer() {
+		return pointer.clone();
+	}
+
+	@Struct({
+		@Field(name="b", type=Type.BYTE),
+		@Field(name="c", type=Type.CHAR),
+		@Field(name="i", type=Type.INT),
+		@Field(name="l", type=Type.LONG),
+		@Field(name="sh", type=Type.SHORT),
+		@Field(name="f", type=Type.FLOAT),
+		@Field(name="d", type=Type.DOUBLE),
+		@Field(name="z", type=Type.BOOLEAN),
+		@Field(name="flags", type=Type.BITS, bits=3),
+		@Field(name="bits", type=Type.BITS, bits=12),
+		@Field(name="s", type=Type.STRING, len=16),
+		@Field(name="nested", type=Type.STRUCT, struct=Nested.class) })
+	public interface Fields {
+		byte b();
+		void b(byte b);
+		char c();
+		void c(char c);
+		int i();
+		void i(int i);
+		long l();
+		void l(long l);
+		short sh();
+		void sh(short sh);
+		float f();
+		void f(float f);
+		double d();
+		void d(double d);
+		boolean z();
+		void z(boolean z);
+		int bits();
+		void bits(int bits);
+		String s();
+		void s(String s);
+		Nested nested();
+	}
+
+	@Struct(@Field(name="l", type=Type.LONG))
+	public interface Nested {
+		long l();
+		void l(long l);
+	}
+
+	static final class HeapFields {
+		int i;
+		long l;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.segment;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_CHAR_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_DOUBLE_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_LONG;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_SHORT_UNALIGNED;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+
+import com.github.nalloc.impl.PointerArithmetics;
+
+/**
+ * {@link PointerArithmetics} backend using the foreign memory API of JDK 22 instead of sun.misc.Unsafe.
+ * Addresses are offsets into a single segment spanning the address space, the bounds check against
+ * its constant size is removed by the JIT. Struct fields may be unaligned, so plain accesses use
+ * unaligned layouts. Atomic fields are aligned and are accessed through var handles.
+ * <p>
+ * Selected with <code>-Dcom.github.nalloc.access=com.github.nalloc.segment.SegmentPointerArithmetics</code>.
+ * Resizing a segment is a restricted method, run with <code>--enable-native-access=ALL-UNNAMED</code>.
+ *
+ * @author Antti Laisi
+ */
+public final class SegmentPointerArithmetics extends PointerArithmetics {
+
+	private static final MemorySegment MEMORY = MemorySegment.NULL.reinterpret(Long.MAX_VALUE);
+	private static final VarHandle INT = JAVA_INT.varHandle();
+	private static final VarHandle LONG = JAVA_LONG.varHandle();
+
+	@Override
+	public byte getByte(final long address) {
+		return MEMORY.get(JAVA_BYTE, address);
+	}
+	@Override
+	public short getShort(final long address) {
+		return MEMORY.get(JAVA_SHORT_UNALIGNED, address);
+	}
+	@Override
+	public char getChar(final long address) {
+		return MEMORY.get(JAVA_CHAR_UNALIGNED, address);
+	}
+	@Override
+	public int getInt(final long address) {
+		return MEMORY.get(JAVA_INT_UNALIGNED, address);
+	}
+	@Override
+	public long getLong(final long address) {
+		return MEMORY.get(JAVA_LONG_UNALIGNED, address);
+	}
+	@Override
+	public float getFloat(final long address) {
+		return MEMORY.get(JAVA_FLOAT_UNALIGNED, address);
+	}
+	@Override
+	public double getDouble(final long address) {
+		return MEMORY.get(JAVA_DOUBLE_UNALIGNED, address);
+	}
+	@Override
+	public void setByte(final long address, final byte value) {
+		MEMORY.set(JAVA_BYTE, address, value);
+	}
+	@Override
+	public void setShort(final long address, final short value) {
+		MEMORY.set(JAVA_SHORT_UNALIGNED, address, value);
+	}
+	@Override
+	public void setChar(final long address, final char value) {
+		MEMORY.set(JAVA_CHAR_UNALIGNED, address, value);
+	}
+	@Override
+	public void setInt(final long address, final int value) {
+		MEMORY.set(JAVA_INT_UNALIGNED, address, value);
+	}
+	@Override
+	public void setLong(final long address, final long value) {
+		MEMORY.set(JAVA_LONG_UNALIGNED, address, value);
+	}
+	@Override
+	public void setFloat(final long address, final float value) {
+		MEMORY.set(JAVA_FLOAT_UNALIGNED, address, value);
+	}
+	@Override
+	public void setDouble(final long address, final double value) {
+		MEMORY.set(JAVA_DOUBLE_UNALIGNED, address, value);
+	}
+
+	@Override
+	public int getIntVolatile(final long address) {
+		return (int) INT.getVolatile(MEMORY, address);
+	}
+	@Override
+	public long getLongVolatile(final long address) {
+		return (long) LONG.getVolatile(MEMORY, address);
+	}
+	@Override
+	public void setIntVolatile(final long address, final int value) {
+		INT.setVolatile(MEMORY, address, value);
+	}
+	@Override
+	public void setLongVolatile(final long address, final long value) {
+		LONG.setVolatile(MEMORY, address, value);
+	}
+	@Override
+	public void setIntOrdered(final long address, final int value) {
+		INT.setRelease(MEMORY, address, value);
+	}
+	@Override
+	public void setLongOrdered(final long address, final long value) {
+		LONG.setRelease(MEMORY, address, value);
+	}
+	@Override
+	public boolean compareAndSetInt(final long address, final int expect, final int update) {
+		return INT.compareAndSet(MEMORY, address, expect, update);
+	}
+	@Override
+	public boolean compareAndSetLong(final long address, final long expect, final long update) {
+		return LONG.compareAndSet(MEMORY, address, expect, update);
+	}
+
+	@Override
+	protected void read(final long address, final byte[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_BYTE, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final short[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_SHORT_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final char[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_CHAR_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final int[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_INT_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final long[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_LONG_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final float[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_FLOAT_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void read(final long address, final double[] dest, final int n) {
+		MemorySegment.copy(MEMORY, JAVA_DOUBLE_UNALIGNED, address, dest, 0, n);
+	}
+	@Override
+	protected void write(final long address, final byte[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_BYTE, address, n);
+	}
+	@Override
+	protected void write(final long address, final short[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_SHORT_UNALIGNED, address, n);
+	}
+	@Override
+	protected void write(final long address, final char[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_CHAR_UNALIGNED, address, n);
+	}
+	@Override
+	protected void write(final long address, final int[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_INT_UNALIGNED, address, n);
+	}
+	@Override
+	protected void write(final long address, final long[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_LONG_UNALIGNED, address, n);
+	}
+	@Override
+	protected void write(final long address, final float[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_FLOAT_UNALIGNED, address, n);
+	}
+	@Override
+	protected void write(final long address, final double[] src, final int n) {
+		MemorySegment.copy(src, 0, MEMORY, JAVA_DOUBLE_UNALIGNED, address, n);
+	}
+}
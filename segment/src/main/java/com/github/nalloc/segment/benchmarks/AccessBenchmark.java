@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.segment.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Struct accessors through the backend selected by the fork of a subclass, see
+ * {@link UnsafeAccessBenchmark} and {@link SegmentAccessBenchmark}.
+ *
+ * @author Antti Laisi
+ */
+@State(Scope.Thread)
+public abstract class AccessBenchmark {
+
+	NativeHeapAllocator allocator;
+	Pointer<Fields> pointer;
+	Fields fields;
+
+	int i = 2;
+	long l = 3;
+	String s = "benchmark";
+	int[] ints = new int[16];
+
+	@Setup
+	public void setup() {
+		allocator = NativeHeapAllocator.Factory.create(Fields.class);
+		pointer = allocator.malloc(Fields.class);
+		fields = pointer.deref();
+		fields.counter(0L);
+		fields.s(s);
+		fields.ints(ints);
+	}
+
+	@TearDown
+	public void teardown() {
+		pointer.free();
+	}
+
+	@Benchmark
+	public int getInt() {
+		return fields.i();
+	}
+	@Benchmark
+	public void setInt() {
+		fields.i(i);
+	}
+
+	@Benchmark
+	public long getLong() {
+		return fields.l();
+	}
+	@Benchmark
+	public void setLong() {
+		fields.l(l);
+	}
+
+	@Benchmark
+	public long getLongVolatile() {
+		return fields.counterVolatile();
+	}
+	@Benchmark
+	public long getAndAddLong() {
+		return fields.counterGetAndAdd(1L);
+	}
+
+	@Benchmark
+	public String getString() {
+		return fields.s();
+	}
+	@Benchmark
+	public void setString() {
+		fields.s(s);
+	}
+
+	@Benchmark
+	public int copyInts() {
+		return fields.intsInto(ints);
+	}
+
+	@Struct(pad=8, value={
+		@Field(name="counter", type=Type.LONG, atomic=true),
+		@Field(name="i", type=Type.INT),
+		@Field(name="l", type=Type.LONG),
+		@Field(name="s", type=Type.STRING, len=16),
+		@Field(name="ints", type=Type.INT, len=16) })
+	public interface Fields {
+		int i();
+		void i(int i);
+		long l();
+		void l(long l);
+		void counter(long counter);
+		long counterVolatile();
+		long counterGetAndAdd(long delta);
+		String s();
+		void s(String s);
+		void ints(int[] ints);
+		int intsInto(int[] dest);
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.segment;
+
+import static java.lang.foreign.ValueLayout.JAVA_INT_UNALIGNED;
+import static java.lang.foreign.ValueLayout.JAVA_LONG_UNALIGNED;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+import com.github.nalloc.StructMap;
+import com.github.nalloc.impl.PointerArithmetics;
+
+/**
+ * Unit tests for {@link SegmentPointerArithmetics}. Surefire selects it as the backend, so
+ * structs of these tests are accessed through it.
+ *
+ * @author Antti Laisi
+ */
+public class SegmentPointerArithmeticsTest {
+
+	final PointerArithmetics pointers = new SegmentPointerArithmetics();
+	final Arena arena = Arena.ofConfined();
+	final MemorySegment segment = arena.allocate(64, 8);
+	final long address = segment.address();
+
+	@After
+	public void close() {
+		arena.close();
+	}
+
+	@Test
+	public void shouldBeSelectedBySystemProperty() {
+		assertTrue(PointerArithmetics.INSTANCE instanceof SegmentPointerArithmetics);
+	}
+
+	@Test
+	public void shouldReadAndWritePrimitives() {
+		pointers.setByte(address, (byte) -1);
+		pointers.setShort(address + 2, (short) -2);
+		pointers.setChar(address + 4, 'c');
+		pointers.setInt(address + 8, 3);
+		pointers.setLong(address + 16, 4L);
+		pointers.setFloat(address + 24, 5f);
+		pointers.setDouble(address + 32, 6d);
+
+		assertEquals(-1, pointers.getByte(address));
+		assertEquals(-2, pointers.getShort(address + 2));
+		assertEquals('c', pointers.getChar(address + 4));
+		assertEquals(3, pointers.getInt(address + 8));
+		assertEquals(4L, pointers.getLong(address + 16));
+		assertEquals(5f, pointers.getFloat(address + 24), 0);
+		assertEquals(6d, pointers.getDouble(address + 32), 0);
+		assertEquals(3, segment.get(JAVA_INT_UNALIGNED, 8));
+	}
+
+	@Test
+	public void shouldAccessUnalignedFields() {
+		pointers.setInt(address + 1, 7);
+		pointers.setLong(address + 13, 8L);
+
+		assertEquals(7, pointers.getInt(address + 1));
+		assertEquals(8L, pointers.getLong(address + 13));
+		assertEquals(8L, segment.get(JAVA_LONG_UNALIGNED, 13));
+	}
+
+	@Test
+	public void shouldUpdateAtomically() {
+		pointers.setIntVolatile(address, 1);
+		pointers.setLongOrdered(address + 8, 2L);
+
+		assertTrue(pointers.compareAndSetInt(address, 1, 3));
+		assertFalse(pointers.compareAndSetInt(address, 1, 4));
+		assertTrue(pointers.compareAndSetLong(address + 8, 2L, 5L));
+		assertEquals(3, pointers.getIntVolatile(address));
+		assertEquals(5L, pointers.getLongVolatile(address + 8));
+		assertEquals(5L, pointers.getAndAddLong(address + 8, 10L));
+		assertEquals(15L, pointers.getLongVolatile(address + 8));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectMisalignedAtomicAccess() {
+		pointers.getLongVolatile(address + 4);
+	}
+
+	@Test
+	public void shouldCopyArraysAndStrings() {
+		pointers.setInts(address + 1, new int[] { 1, 2, 3 }, 3);
+		assertArrayEquals(new int[] { 1, 2, 3 }, pointers.getInts(address + 1, 3));
+
+		pointers.setString(address, "segment", 8);
+		assertEquals("segment\0", pointers.getString(address, 8));
+		char[] chars = new char[16];
+		assertEquals(7, pointers.copyString(address, 8, chars));
+	}
+
+	@Test
+	public void shouldBackStructAccessors() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Counter.class);
+		try(Pointer<Counter> pointer = allocator.malloc(Counter.class);
+				Array<Counter> array = allocator.calloc(4, Counter.class)) {
+			Counter counter = pointer.deref();
+			counter.count(0L);
+			counter.name("first");
+			counter.countGetAndAdd(2L);
+			array.get(3).count(9L);
+
+			assertTrue(counter.nameEquals("first"));
+			assertEquals(2L, counter.countVolatile());
+			assertEquals(9L, array.get(3).count());
+		}
+	}
+
+	@Test
+	public void shouldBackSortsAndMaps() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Counter.class);
+		try(Array<Counter> array = allocator.calloc(3, Counter.class)) {
+			array.get(0).count(3L);
+			array.get(1).count(-1L);
+			array.get(2).count(2L);
+			array.sort("count");
+
+			assertEquals(-1L, array.get(0).count());
+			assertEquals(3L, array.get(2).count());
+			assertEquals(1L, array.binarySearch("count", 2L));
+			assertTrue(array.compareRange(1, array, 2, 1) < 0);
+		}
+		try(StructMap<Counter> map = allocator.map(Counter.class, "count", 16)) {
+			map.put(42L).name("answer");
+			assertTrue(map.get(42L).nameEquals("answer"));
+		}
+	}
+
+	@Struct({
+		@Field(name="count", type=Type.LONG, atomic=true),
+		@Field(name="name", type=Type.STRING, len=8) })
+	public interface Counter {
+		long count();
+		void count(long value);
+		long countVolatile();
+		long countGetAndAdd(long delta);
+		boolean nameEquals(String value);
+		void name(String value);
+	}
+
+}
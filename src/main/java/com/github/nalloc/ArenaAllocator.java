@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+/**
+ * {@link NativeHeapAllocator} that allocates structs from large chunks of native heap with a bump
+ * pointer. Memory of individual pointers is not returned to the system by {@link Pointer#free()},
+ * all memory allocated by the arena is freed at once by {@link #close()}.
+ *
+ * Arena allocators are not thread safe.
+ *
+ * @author Antti Laisi
+ */
+public interface ArenaAllocator extends NativeHeapAllocator, AutoCloseable {
+
+	/**
+	 * Frees all memory allocated from this arena. Pointers allocated from the arena must not be
+	 * dereferenced after calling this method. The arena can be used again after closing.
+	 */
+	@Override
+	void close();
+
+}
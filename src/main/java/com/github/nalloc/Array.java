@@ -14,6 +14,8 @@
 
 package com.github.nalloc;
 
+import java.util.Comparator;
+
 /**
  * Pointer to a continuous memory region.
  *
@@ -45,6 +47,99 @@ public interface Array<T> extends Pointer<T> {
 	 */
 	long size();
 
+	/**
+	 * Visits all structs of the array in parallel. Each thread visits a disjoint range of indexes with
+	 * struct instances of its own, so no JVM heap is allocated per struct.
+	 *
+	 * @param scanner Callback for structs and accumulators of ranges
+	 * @return Combined accumulator of all ranges
+	 */
+	<R> R scan(final ArrayScanner<? super T, R> scanner);
+
+	/**
+	 * Sorts the array in place in ascending order of an INT or LONG field. Large arrays are sorted
+	 * in parallel with a radix sort.
+	 *
+	 * @param keyField Name of an INT or LONG field
+	 */
+	void sort(final String keyField);
+
+	/**
+	 * Sorts the array in place with a comparator. Large arrays are sorted in parallel with a quicksort.
+	 * The sort is not stable. The comparator is called with struct instances private to a sorting thread.
+	 *
+	 * @param comparator Comparator of structs
+	 */
+	void sort(final Comparator<? super T> comparator);
+
+	/**
+	 * Searches an array sorted by {@link #sort(String)} for a key.
+	 *
+	 * @param keyField Name of an INT or LONG field the array is sorted by
+	 * @param key Key to search for
+	 * @return Index of a struct with the key, or (-(insertion point) - 1) if the key is not found
+	 */
+	long binarySearch(final String keyField, final long key);
+
+	/**
+	 * Copies structs to another array or to another range of this array. The arrays may be allocated by
+	 * different allocators, struct sizes must be equal. Contiguous memory is copied with a single call.
+	 *
+	 * @param index First struct to copy
+	 * @param dest Destination array
+	 * @param destIndex First struct to overwrite in destination
+	 * @param count Amount of structs
+	 */
+	void copyRange(final long index, final Array<T> dest, final long destIndex, final long count);
+
+	/**
+	 * Copies a range of structs within this array. The ranges may overlap.
+	 *
+	 * @param from First struct to move
+	 * @param to New index of the first struct
+	 * @param count Amount of structs
+	 */
+	void move(final long from, final long to, final long count);
+
+	/**
+	 * Copies a template struct to each struct of a range.
+	 *
+	 * @param index First struct to overwrite
+	 * @param count Amount of structs
+	 * @param template Struct of the same size, eg. from {@link #get(long)} of another array
+	 */
+	void fillRange(final long index, final long count, final T template);
+
+	/**
+	 * Sets memory of a range of structs to 0.
+	 *
+	 * @param index First struct to clear
+	 * @param count Amount of structs
+	 */
+	void clearRange(final long index, final long count);
+
+	/**
+	 * Compares memory of two ranges for equality.
+	 *
+	 * @param index First struct in this array
+	 * @param other Other array, may be this array
+	 * @param otherIndex First struct in other array
+	 * @param count Amount of structs
+	 * @return True if the ranges contain the same bytes
+	 */
+	boolean rangeEquals(final long index, final Array<T> other, final long otherIndex, final long count);
+
+	/**
+	 * Compares memory of two ranges as unsigned bytes like memcmp.
+	 *
+	 * @param index First struct in this array
+	 * @param other Other array, may be this array
+	 * @param otherIndex First struct in other array
+	 * @param count Amount of structs
+	 * @return Negative, zero or positive if this range is less than, equal to or greater than the other
+	 */
+	int compareRange(final long index, final Array<T> other, final long otherIndex, final long count);
+
 	/**
 	 * Returns a shallow clone of an array. Cloning is a cheap operation, only the pointer is cloned and
 	 * not the array content.
@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+/**
+ * Callback of a parallel {@link Array#scan(ArrayScanner)}. The array is split into disjoint index
+ * ranges, each range is visited by one thread with a struct instance and accumulator of its own.
+ * Accumulators of ranges are combined into the result of the scan.
+ *
+ * @author Antti Laisi
+ */
+public interface ArrayScanner<T, R> {
+
+	/**
+	 * Creates an accumulator for a range of the array.
+	 *
+	 * @return New accumulator, may be null if the scan has no result
+	 */
+	R accumulator();
+
+	/**
+	 * Visits a struct. Calls for a range are made by a single thread in ascending index order.
+	 *
+	 * @param accumulator Accumulator of the range
+	 * @param struct Struct addressed to index, private to the calling thread
+	 * @param index Array index
+	 */
+	void accept(final R accumulator, final T struct, final long index);
+
+	/**
+	 * Combines accumulators of two adjacent ranges.
+	 *
+	 * @param left Accumulator of the lower range
+	 * @param right Accumulator of the upper range
+	 * @return Combined accumulator
+	 */
+	R combine(final R left, final R right);
+
+}
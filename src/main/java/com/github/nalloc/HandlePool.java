@@ -0,0 +1,46 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+/**
+ * Pool of reusable {@link Pointer} handles of a single struct type.
+ *
+ * Handle pools are not thread safe.
+ *
+ * @author Antti Laisi
+ */
+public interface HandlePool<T> {
+
+	/**
+	 * Allocates memory for a struct into a pooled pointer. A new pointer is created only if the pool
+	 * is empty. The memory is not initialized.
+	 *
+	 * Calling this method never allocates from JVM heap when the pool holds a free pointer.
+	 *
+	 * @return Pointer to struct instance
+	 */
+	Pointer<T> malloc();
+
+	/**
+	 * Frees memory pointed to by a pointer and returns the pointer to the pool. Pointers that don't
+	 * fit in the pool are left for GC. The pointer must not be used after calling this method.
+	 *
+	 * Calling this method never allocates from JVM heap.
+	 *
+	 * @param pointer Pointer returned by {@link #malloc()}
+	 */
+	void free(final Pointer<T> pointer);
+
+}
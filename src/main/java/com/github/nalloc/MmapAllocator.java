@@ -33,6 +33,9 @@ public interface MmapAllocator {
 	 * See <a href="http://pubs.opengroup.org/onlinepubs/009695399/functions/mmap.html">mmap</a>.
 	 *
 	 * Mmap is called with flags MAP_SHARED. The mapping length is nmemb times struct size.
+	 * Mappings larger than 2GB are split into several segments that are not contiguous in memory.
+	 * Files on a hugetlbfs mount are backed by huge pages, their mapping length is rounded up to a
+	 * multiple of huge page size.
 	 * Calling this method allocates at least 3 objects from JVM heap. At least one object is
 	 * eligible for GC. Java execution time is O(1).
 	 *
@@ -43,6 +46,26 @@ public interface MmapAllocator {
 	 */
 	<T> Array<T> mmap(final File file, final long nmemb, final Class<T> structType) throws IOException;
 
+	/**
+	 * mmap() creates a new mapping of a file with the given mode.
+	 *
+	 * See <a href="http://pubs.opengroup.org/onlinepubs/009695399/functions/mmap.html">mmap</a>.
+	 *
+	 * {@link Mode#SHARED} is equal to {@link #mmap(File, long, Class)}. {@link Mode#READ_ONLY} maps the file
+	 * with PROT_READ, the file must hold at least nmemb structs and setters of the returned structs throw
+	 * {@link java.nio.ReadOnlyBufferException}. {@link Mode#PRIVATE} maps the file with MAP_PRIVATE, writes
+	 * are copy-on-write and never reach the file, but the file must still be writable by the process.
+	 * Only shared mappings can be remapped or synced.
+	 *
+	 * @param file File to mmap
+	 * @param nmemb Amount of structs the mapping has space for
+	 * @param structType Class annotated with &#064;Struct
+	 * @param mode Mapping mode
+	 * @return Mmapped array
+	 */
+	<T> Array<T> mmap(final File file, final long nmemb, final Class<T> structType, final Mode mode)
+			throws IOException;
+
 	/**
 	 * mmap() creates a new mapping in the virtual address space of the calling process.
 	 *
@@ -64,6 +87,7 @@ public interface MmapAllocator {
 	 * See <a href="http://pubs.opengroup.org/onlinepubs/009695399/functions/mmap.html">mmap</a>.
 	 *
 	 * Mmap is called with flags MAP_PRIVATE | MAP_ANONYMOUS. The mapping length is nmemb times struct size.
+	 * Mappings larger than 2GB are split into several segments that are not contiguous in memory.
 	 * Calling this method allocates at least 3 objects from JVM heap. Java execution time is O(1).
 	 *
 	 * @param nmemb Amount of structs the mapping has space for
@@ -72,16 +96,146 @@ public interface MmapAllocator {
 	 */
 	<T> Array<T> mmap(final long nmemb, final Class<T> structType);
 
+	/**
+	 * mmap() creates a new mapping backed by huge pages.
+	 *
+	 * Java can't pass MAP_HUGETLB to mmap(), so the array is mapped with FileChannel.map from an
+	 * unlinked file on a writable hugetlbfs mount if the mount has enough free huge pages. Otherwise
+	 * it falls back to a direct buffer of regular pages whose start is aligned to huge page size, so
+	 * that transparent huge pages can back it when /sys/kernel/mm/transparent_hugepage/enabled is
+	 * "always". Arrays longer than a segment are split into segments that are aligned the same way.
+	 * Calling this method allocates at least 3 objects from JVM heap. Java execution time is O(1).
+	 *
+	 * @param nmemb Amount of structs the mapping has space for
+	 * @param structType Class annotated with &#064;Struct
+	 * @return Mmapped array
+	 */
+	<T> Array<T> mmapHuge(final long nmemb, final Class<T> structType);
+
+	/**
+	 * Creates a concurrent hash map of structs keyed by a struct field. Entries are stored in anonymous
+	 * mappings of up to 1GB, the map grows past the given capacity as needed.
+	 *
+	 * Calling this method allocates objects from JVM heap, lookups never do.
+	 *
+	 * @param structType Class annotated with &#064;Struct
+	 * @param keyField Name of an INT, LONG or STRING field used as key
+	 * @param capacity Expected amount of entries
+	 * @return New map
+	 */
+	<T> StructMap<T> map(final Class<T> structType, final String keyField, final long capacity);
+
+	/**
+	 * mremap() expands (or shrinks) an existing memory mapping.
+	 *
+	 * See <a href="http://man7.org/linux/man-pages/man2/mremap.2.html">mremap</a>.
+	 *
+	 * The backing file is extended to nmemb times struct size and the new length is mapped. Contents
+	 * of existing indices are kept without copying, they are read from the same file. Full segments of
+	 * mappings larger than 2GB are not remapped. Shrinking a mapping does not truncate the file.
+	 * Java can't extend a mapping in place, so the new length is mapped at another address. Replaced mappings
+	 * stay mapped until the returned array is freed: structs returned before the remap and clones of
+	 * the remapped array keep accessing the same file, but they see only the old length. Only arrays
+	 * mapped from a file can be remapped.
+	 *
+	 * @param structs Array mapped with {@link #mmap(File, long, Class)}
+	 * @param nmemb New size of array
+	 * @return Mmapped array of size nmemb
+	 */
+	<T> Array<T> remap(final Array<T> structs, final long nmemb) throws IOException;
+
+	/**
+	 * Grows a file-backed array to hold at least minNmemb structs. The size of the array (or 1 for
+	 * an empty array) is doubled until it is large enough, so appending to an array is amortized O(1).
+	 * Arrays that are large enough are returned as they are. See {@link #remap(Array, long)}.
+	 *
+	 * @param structs Array mapped with {@link #mmap(File, long, Class)}
+	 * @param minNmemb Minimum size of array
+	 * @return Mmapped array of size minNmemb or larger
+	 */
+	<T> Array<T> grow(final Array<T> structs, final long minNmemb) throws IOException;
+
+	/**
+	 * msync() flushes changes made to a range of a file-backed mapping back to the file.
+	 *
+	 * See <a href="http://pubs.opengroup.org/onlinepubs/009695399/functions/msync.html">msync</a>.
+	 *
+	 * Msync is called with flag MS_SYNC and this method returns after the range is written to disk.
+	 * Only pages containing the range are synced.
+	 *
+	 * @param structs Array mapped with {@link #mmap(File, long, Class)}
+	 * @param fromIndex First struct to sync, inclusive
+	 * @param toIndex Last struct to sync, exclusive
+	 */
+	void force(final Array<?> structs, final long fromIndex, final long toIndex) throws IOException;
+
+	/**
+	 * Starts a background thread that syncs ranges marked dirty with {@link MmapFlusher#dirty(long, long)}.
+	 * Dirty ranges are synced at the latest maxDelayMillis after they were marked, or as soon as
+	 * maxDirtyBytes are dirty. The flusher must be closed after use.
+	 *
+	 * @param structs Array mapped with {@link #mmap(File, long, Class)}
+	 * @param maxDelayMillis Maximum time a dirty range waits for sync
+	 * @param maxDirtyBytes Amount of dirty bytes that triggers a sync
+	 * @return Running flusher
+	 */
+	MmapFlusher flusher(final Array<?> structs, final long maxDelayMillis, final long maxDirtyBytes) throws IOException;
+
+	/**
+	 * madvise() advises the kernel about how a mapping is going to be accessed.
+	 *
+	 * See <a href="http://man7.org/linux/man-pages/man2/madvise.2.html">madvise</a>.
+	 *
+	 * Java has no access to madvise(). WILL_NEED reads a file-backed mapping to the page cache on a
+	 * shared background thread and returns immediately. NORMAL, SEQUENTIAL, RANDOM and DONT_NEED are
+	 * hints without effect, as is any advice for anonymous mappings. DONT_NEED doesn't release pages,
+	 * use {@link #force(Array, long, long)} to write them back.
+	 *
+	 * @param structs Mmapped array
+	 * @param advice Expected access pattern
+	 */
+	void advise(final Array<?> structs, final Advice advice);
+
+	/**
+	 * Faults in all pages of a mapping from several threads and returns when every page is in memory.
+	 * Use after {@link #mmap(File, long, Class)} to warm up a cold file before it is accessed.
+	 *
+	 * @param structs Mmapped array
+	 * @param threads Amount of threads touching pages, including the calling thread
+	 */
+	void preload(final Array<?> structs, final int threads);
+
 	/**
 	 * Casts the {@link Array} of structs to {@link ByteBuffer}.
 	 *
-	 * Calling this method never allocates from JVM heap.
+	 * Calling this method never allocates from JVM heap. Arrays mapped in several segments can't
+	 * be cast.
 	 *
 	 * @param structs Mmapped array
 	 * @return Array memory region as buffer
 	 */
 	ByteBuffer toBytes(final Array<?> structs);
 
+	/**
+	 * Access pattern advice for {@link MmapAllocator#advise(Array, Advice)}.
+	 */
+	public enum Advice {
+		NORMAL,
+		SEQUENTIAL,
+		RANDOM,
+		WILL_NEED,
+		DONT_NEED;
+	}
+
+	/**
+	 * File mapping mode for {@link MmapAllocator#mmap(File, long, Class, Mode)}.
+	 */
+	public enum Mode {
+		SHARED,
+		READ_ONLY,
+		PRIVATE;
+	}
+
 	public class Factory {
 		/**
 		 * Creates a new {@link MmapAllocator} that can allocate structs listed in structTypes.
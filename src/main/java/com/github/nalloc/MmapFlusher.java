@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+import java.io.IOException;
+
+/**
+ * Background flusher of a memory mapped file. Writers mark ranges of an mmapped array dirty and the
+ * flusher syncs them to disk when enough bytes are dirty or when the oldest dirty range has waited
+ * long enough, whichever comes first. This bounds the amount of data lost in a crash without
+ * syncing the whole mapping on every write.
+ *
+ * Ranges can be marked dirty by any thread.
+ *
+ * @author Antti Laisi
+ */
+public interface MmapFlusher extends AutoCloseable {
+
+	/**
+	 * Marks structs in range [fromIndex, toIndex) as modified. Adjacent and overlapping ranges are
+	 * synced with a single msync() call.
+	 *
+	 * Calling this method allocates from JVM heap only when the amount of pending ranges grows.
+	 *
+	 * @param fromIndex First modified struct, inclusive
+	 * @param toIndex Last modified struct, exclusive
+	 */
+	void dirty(final long fromIndex, final long toIndex);
+
+	/**
+	 * Syncs all ranges marked dirty before calling this method and waits for the sync to complete.
+	 *
+	 * @throws IOException If this or an earlier background sync failed
+	 */
+	void flush() throws IOException;
+
+	/**
+	 * Syncs remaining dirty ranges and stops the flusher.
+	 *
+	 * @throws IOException If this or an earlier background sync failed
+	 */
+	@Override
+	void close() throws IOException;
+
+}
@@ -14,6 +14,8 @@
 
 package com.github.nalloc;
 
+import com.github.nalloc.impl.PooledNativeHeapAllocator;
+import com.github.nalloc.impl.UnsafeArenaAllocator;
 import com.github.nalloc.impl.UnsafeNativeHeapAllocator;
 
 
@@ -37,6 +39,38 @@ public interface NativeHeapAllocator {
 	 */
 	<T> Pointer<T> malloc(final Class<T> structType);
 
+	/**
+	 * Allocates memory for a struct and points an existing pointer to it. The memory is not initialized.
+	 * Memory previously pointed to is not freed.
+	 *
+	 * Calling this method never allocates from JVM heap. Java execution time is O(1).
+	 *
+	 * @param pointer Pointer created by {@link #handle(Class)} or {@link #malloc(Class)} of this allocator
+	 * @return The given pointer
+	 */
+	<T> Pointer<T> malloc(final Pointer<T> pointer);
+
+	/**
+	 * Creates a pointer that does not point to allocated memory. The pointer can be repeatedly used
+	 * with {@link #malloc(Pointer)} and {@link Pointer#free()}.
+	 *
+	 * Calling this method allocates at least 2 objects from JVM heap.
+	 *
+	 * @param structType Class annotated with &#064;Struct
+	 * @return Pointer to address 0
+	 */
+	<T> Pointer<T> handle(final Class<T> structType);
+
+	/**
+	 * Creates a pool of reusable pointers. Pointers freed to the pool are handed out again by
+	 * {@link HandlePool#malloc()}, so steady-state malloc/free cycles never allocate from JVM heap.
+	 *
+	 * @param structType Class annotated with &#064;Struct
+	 * @param maxPooled Maximum amount of free pointers kept in the pool
+	 * @return New pointer pool
+	 */
+	<T> HandlePool<T> handles(final Class<T> structType, final int maxPooled);
+
 	/**
 	 * The calloc() function allocates memory for an array of nmemb elements of size bytes
 	 * each and returns a pointer to the allocated memory. The memory is set to zero.
@@ -60,6 +94,7 @@ public interface NativeHeapAllocator {
 	 * See <a href="http://pubs.opengroup.org/onlinepubs/009695399/functions/realloc.html">realloc</a>.
 	 *
 	 * Calling this method never allocates from JVM heap. Java execution time is O(1).
+	 * Mmapped arrays can't be reallocated, see {@link MmapAllocator#remap(Array, long)}.
 	 *
 	 * @param pointer Pointer to struct array
 	 * @param nmemb New size of array
@@ -67,6 +102,19 @@ public interface NativeHeapAllocator {
 	 */
 	<T> Array<T> realloc(final Array<T> pointer, final long nmemb);
 
+	/**
+	 * Creates a concurrent hash map of structs keyed by a struct field. Entries are allocated from native
+	 * heap in chunks, the map grows past the given capacity as needed.
+	 *
+	 * Calling this method allocates objects from JVM heap, lookups never do.
+	 *
+	 * @param structType Class annotated with &#064;Struct
+	 * @param keyField Name of an INT, LONG or STRING field used as key
+	 * @param capacity Expected amount of entries
+	 * @return New map
+	 */
+	<T> StructMap<T> map(final Class<T> structType, final String keyField, final long capacity);
+
 	public class Factory {
 		/**
 		 * Creates a new {@link NativeHeapAllocator} that can allocate structs listed in structTypes.
@@ -78,5 +126,46 @@ public interface NativeHeapAllocator {
 		public static NativeHeapAllocator create(final Class<?>... structTypes) {
 			return new UnsafeNativeHeapAllocator(structTypes);
 		}
+
+		/**
+		 * Creates a new {@link ArenaAllocator} that can allocate structs listed in structTypes.
+		 * Native heap is reserved in chunks of chunkSize bytes, larger allocations get a chunk of
+		 * their own.
+		 *
+		 * @param chunkSize Bytes reserved from native heap at a time
+		 * @param structTypes Struct classes that the returned allocator can instantiate
+		 * @return New allocator instance
+		 */
+		public static ArenaAllocator createArena(final long chunkSize, final Class<?>... structTypes) {
+			return new UnsafeArenaAllocator(chunkSize, structTypes);
+		}
+
+		/**
+		 * Creates a new {@link NativeHeapAllocator} that can allocate structs listed in structTypes.
+		 * Blocks of struct size freed with {@link Pointer#free()} are kept in per-size free lists and
+		 * reused by later allocations instead of being returned to the system.
+		 *
+		 * @param maxPooled Maximum amount of free blocks kept for each struct size
+		 * @param structTypes Struct classes that the returned allocator can instantiate
+		 * @return New allocator instance
+		 */
+		public static NativeHeapAllocator createPooled(final int maxPooled, final Class<?>... structTypes) {
+			return new PooledNativeHeapAllocator(maxPooled, structTypes);
+		}
+
+		/**
+		 * Creates a new pooling {@link NativeHeapAllocator} with thread-local caches. Each thread
+		 * allocates and frees struct sized blocks from its own cache, caches exchange blocks with the
+		 * shared free lists batchSize blocks at a time. Pointers can be freed by any thread.
+		 *
+		 * @param batchSize Amount of blocks moved between a thread cache and the shared free lists at a time
+		 * @param maxPooled Maximum amount of free blocks kept in the shared free list of each struct size
+		 * @param structTypes Struct classes that the returned allocator can instantiate
+		 * @return New allocator instance
+		 */
+		public static NativeHeapAllocator createThreadCached(final int batchSize, final int maxPooled,
+				final Class<?>... structTypes) {
+			return new PooledNativeHeapAllocator(maxPooled, batchSize, structTypes);
+		}
 	}
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+import java.util.Map;
+
+/**
+ * Native memory held by the allocators of the process, registered to the platform MBean server as
+ * {@value #OBJECT_NAME}. Accounting is off unless system property
+ * <code>com.github.nalloc.accounting</code> is <code>stats</code>, or <code>leaks</code> to also record
+ * the stack trace of every allocation until it is freed.
+ *
+ * Bytes are counted as requested from the allocators: blocks kept by pooled allocators and padding of
+ * aligned structs are not included, mmapped arrays count the mapped length. Structs mapped from a
+ * user-supplied ByteBuffer are not counted.
+ *
+ * @author Antti Laisi
+ */
+public interface NativeMemoryMXBean {
+
+	String OBJECT_NAME = "com.github.nalloc:type=NativeMemory";
+
+	/**
+	 * @return Bytes allocated and not yet freed
+	 */
+	long getLiveBytes();
+
+	/**
+	 * @return Pointers and arrays allocated and not yet freed
+	 */
+	long getLiveAllocations();
+
+	/**
+	 * @return Highest live bytes since start or {@link #resetPeak()}
+	 */
+	long getPeakBytes();
+
+	/**
+	 * @return Live bytes by struct class name
+	 */
+	Map<String, Long> getLiveBytesByStruct();
+
+	/**
+	 * @return Live allocations by struct class name
+	 */
+	Map<String, Long> getLiveAllocationsByStruct();
+
+	/**
+	 * @return Highest live bytes by struct class name
+	 */
+	Map<String, Long> getPeakBytesByStruct();
+
+	/**
+	 * @return Total calls of malloc, calloc, realloc, free, mmap, remap and unmap
+	 */
+	Map<String, Long> getOperationCounts();
+
+	/**
+	 * Calls per second of each operation since the previous call of this method, or since start on
+	 * the first call. Monitoring several clients should derive rates from {@link #getOperationCounts()}.
+	 *
+	 * @return Calls per second by operation
+	 */
+	Map<String, Double> getOperationRates();
+
+	/**
+	 * @return True if allocation sites are recorded
+	 */
+	boolean isLeakDetection();
+
+	/**
+	 * @return Struct, length, address and stack trace of each unfreed allocation, empty unless leak
+	 *         detection is on
+	 */
+	String[] getUnfreedAllocations();
+
+	/**
+	 * Sets peak bytes to the current live bytes.
+	 */
+	void resetPeak();
+
+}
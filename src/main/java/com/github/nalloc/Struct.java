@@ -21,6 +21,8 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 
+import com.github.nalloc.impl.StructLayout;
+
 /**
  * Marks an interface as struct that can be allocated off-heap. Struct annotation
  * contains list of fields in the struct. Fields have a type and length. Fields of
@@ -48,6 +50,17 @@ public @interface Struct {
 	 */
 	byte pad() default 1;
 
+	/**
+	 * Align struct size and the base address of allocated structs and arrays to a power of two,
+	 * eg. 64 or 128 to keep structs updated by different threads on separate cache lines.
+	 */
+	int align() default 1;
+
+	/**
+	 * Placement of fields, see {@link Layout}.
+	 */
+	Layout layout() default Layout.PACKED;
+
 	/**
 	 * Single field in a struct.
 	 */
@@ -65,7 +78,10 @@ public @interface Struct {
 		Type type();
 
 		/**
-		 * Length of the field.
+		 * Length of the field. STRING setters pad shorter strings with 0 chars up to the length.
+		 * The STRING getter returns all len chars including the padding, except in <code>c</code>
+		 * structs where it ends at the first 0 char. The <code>Into</code>, <code>View</code> and
+		 * <code>Equals</code> accessors always end at the first 0 char.
 		 */
 		long len() default 1;
 
@@ -73,10 +89,90 @@ public @interface Struct {
 		 * Nested struct class if type is STRUCT.
 		 */
 		Class<?> struct() default void.class;
+
+		/**
+		 * Generates atomic accessors for an INT or LONG field of length 1. For a field named
+		 * <code>count</code> the struct interface may declare:
+		 * <ul>
+		 * <li><code>countVolatile()</code> - volatile read, later reads and writes are not reordered before it</li>
+		 * <li><code>countVolatile(value)</code> - volatile write, earlier and later accesses are not reordered
+		 * across it (a full fence)</li>
+		 * <li><code>countLazy(value)</code> - ordered write, earlier writes are visible before it but it may
+		 * be delayed (a store-store fence)</li>
+		 * <li><code>countCompareAndSet(expect, update)</code> - atomic update with volatile semantics</li>
+		 * <li><code>countGetAndAdd(delta)</code> - atomic add with volatile semantics, returns the old value</li>
+		 * </ul>
+		 * Atomic operations work across processes sharing a MAP_SHARED mapping. The field offset and the
+		 * struct size must be multiples of the field size, so that the field is aligned in every element
+		 * of an array. A struct with atomic fields nested in another struct is checked the same way
+		 * against the outer struct. PACKED structs can be padded with {@link Struct#pad()}, ALIGNED
+		 * and OPTIMIZED structs align nested structs to their atomic fields.
+		 */
+		boolean atomic() default false;
+
+		/**
+		 * Width of a BITS field, 1-64. Getters of fields up to 32 bits wide return int, wider
+		 * fields long. Values are unsigned and truncated to the width on write.
+		 */
+		int bits() default 0;
+	}
+
+	/**
+	 * Field placement policy.
+	 */
+	public enum Layout {
+		/**
+		 * Fields are placed back to back in declaration order.
+		 */
+		PACKED,
+		/**
+		 * Fields are placed in declaration order, each aligned to its size like a C compiler does.
+		 * Nested structs and arrays are aligned like their elements and the struct size is rounded
+		 * up to its largest alignment. Use with <code>c=true</code> for C compatible structs.
+		 */
+		ALIGNED,
+		/**
+		 * Like ALIGNED, but fields are reordered from the largest alignment to the smallest so that
+		 * padding is only needed at the end. Runs of BITS fields are kept together.
+		 */
+		OPTIMIZED;
+	}
+
+	/**
+	 * Offsets and sizes calculated from struct definitions.
+	 */
+	public class Offsets {
+		/**
+		 * @param structType Class annotated with &#064;Struct
+		 * @param fieldName Name of a field
+		 * @return Offset of the field from the start of the struct in bytes. Fields of type BITS
+		 * return the offset of the word they are packed in.
+		 */
+		public static long offsetOf(final Class<?> structType, final String fieldName) {
+			return StructLayout.of(structType).offsetOf(fieldName);
+		}
+
+		/**
+		 * @param structType Class annotated with &#064;Struct
+		 * @return Size of the struct in bytes, including padding
+		 */
+		public static long sizeOf(final Class<?> structType) {
+			return StructLayout.of(structType).size();
+		}
+
+		/**
+		 * @param structType Class annotated with &#064;Struct
+		 * @return Alignment of the struct in bytes, 1 for PACKED structs
+		 */
+		public static int alignmentOf(final Class<?> structType) {
+			return StructLayout.of(structType).alignment();
+		}
 	}
 
 	/**
-	 * Type of struct field.
+	 * Type of struct field. BOOLEAN is stored in one byte. Consecutive BITS fields are packed into
+	 * the smallest word of 1, 2, 4 or 8 bytes that holds them, lowest bits first. Writes to a BITS
+	 * field read and write the whole word, so fields sharing a word must not be written concurrently.
 	 */
 	public enum Type {
 		BYTE,
@@ -84,6 +180,11 @@ public @interface Struct {
 		INT,
 		LONG,
 		STRING,
-		STRUCT;
+		STRUCT,
+		SHORT,
+		FLOAT,
+		DOUBLE,
+		BOOLEAN,
+		BITS;
 	}
 }
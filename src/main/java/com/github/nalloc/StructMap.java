@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc;
+
+/**
+ * Concurrent hash map of structs keyed by an INT, LONG or STRING field of the struct. Entries are
+ * stored off-heap and never move, the key index grows as entries are added.
+ *
+ * Lookups are lock-free, updates lock one of several segments. To prevent JVM heap allocations the
+ * returned struct is the same object for a map instance and calling thread, only the struct address
+ * is modified by lookups. The key field of a returned struct must not be modified. Writes to other
+ * fields are not synchronized by the map.
+ *
+ * A returned struct stays addressed to the entry of its key until the key is removed. Memory of
+ * removed entries is reused by inserts, so a struct held across a concurrent remove may show the
+ * fields of another key. Callers that remove keys while other threads use their entries must
+ * coordinate with those threads.
+ *
+ * @author Antti Laisi
+ */
+public interface StructMap<T> extends AutoCloseable {
+
+	/**
+	 * Finds the entry of an INT or LONG key. Calling this method never allocates from JVM heap.
+	 *
+	 * @param key Key to look up
+	 * @return Struct addressed to the entry or null if the key is not in the map
+	 */
+	T get(final long key);
+
+	/**
+	 * Finds the entry of a STRING key. Calling this method never allocates from JVM heap.
+	 *
+	 * @param key Key to look up
+	 * @return Struct addressed to the entry or null if the key is not in the map
+	 */
+	T get(final String key);
+
+	/**
+	 * Finds the entry of an INT or LONG key, inserting an entry set to 0 except for the key
+	 * if the key is not in the map.
+	 *
+	 * @param key Key to insert
+	 * @return Struct addressed to the entry
+	 */
+	T put(final long key);
+
+	/**
+	 * Finds the entry of a STRING key, inserting an entry set to 0 except for the key
+	 * if the key is not in the map.
+	 *
+	 * @param key Key to insert
+	 * @return Struct addressed to the entry
+	 */
+	T put(final String key);
+
+	/**
+	 * Removes the entry of an INT or LONG key. Memory of the entry is reused by later inserts.
+	 *
+	 * @param key Key to remove
+	 * @return true if the key was in the map
+	 */
+	boolean remove(final long key);
+
+	/**
+	 * Removes the entry of a STRING key. Memory of the entry is reused by later inserts.
+	 *
+	 * @param key Key to remove
+	 * @return true if the key was in the map
+	 */
+	boolean remove(final String key);
+
+	/**
+	 * @return Amount of entries in the map
+	 */
+	long size();
+
+	/**
+	 * Frees all memory of the map. Structs returned by the map must not be used after calling this method.
+	 */
+	void free();
+
+	/**
+	 * AutoCloseable support, calls free().
+	 */
+	@Override
+	void close();
+
+}
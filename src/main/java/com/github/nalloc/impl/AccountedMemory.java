@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.nalloc.impl.NativeMemoryAccounting.Account;
+import com.github.nalloc.impl.NativeMemoryAccounting.Operation;
+
+/**
+ * {@link Memory} counting the blocks of one struct type in {@link NativeMemoryAccounting}. Pointers
+ * and arrays use separate instances, so allocations are counted as malloc or calloc.
+ *
+ * @author Antti Laisi
+ */
+final class AccountedMemory implements Memory {
+
+	private final Memory memory;
+	private final Account account;
+	private final Operation allocation;
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final AtomicLong liveBlocks = new AtomicLong();
+
+	/**
+	 * @param memory Memory blocks are allocated from
+	 * @param account Account of the struct type
+	 * @param allocation MALLOC or CALLOC
+	 */
+	AccountedMemory(final Memory memory, final Account account, final Operation allocation) {
+		this.memory = memory;
+		this.account = account;
+		this.allocation = allocation;
+	}
+
+	@Override
+	public long allocate(final long bytes) {
+		long address = memory.allocate(bytes);
+		liveBytes.addAndGet(bytes);
+		liveBlocks.incrementAndGet();
+		account.allocated(allocation, address, bytes, this);
+		return address;
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		long moved = memory.reallocate(address, bytes, newBytes);
+		liveBytes.addAndGet(newBytes - bytes);
+		account.reallocated(Operation.REALLOC, address, bytes, moved, newBytes);
+		return moved;
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		account.freed(Operation.FREE, address, bytes);
+		liveBytes.addAndGet(-bytes);
+		liveBlocks.decrementAndGet();
+		memory.free(address, bytes);
+	}
+
+	/**
+	 * Removes blocks that are still allocated from the account, called when an arena frees them
+	 * all at once.
+	 */
+	void release() {
+		account.released(liveBytes.getAndSet(0), liveBlocks.getAndSet(0), this);
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+/**
+ * {@link Memory} that returns blocks aligned to a power of two. Blocks are allocated from another
+ * {@link Memory} with room for the alignment, the original address is stored in the 8 bytes
+ * preceding the aligned block.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class AlignedMemory implements Memory {
+
+	private final Memory memory;
+	private final long alignment;
+
+	/**
+	 * @param memory Memory to allocate unaligned blocks from
+	 * @param alignment Power of two
+	 */
+	AlignedMemory(final Memory memory, final long alignment) {
+		if(Long.bitCount(alignment) != 1) {
+			throw new IllegalArgumentException("alignment must be a power of two");
+		}
+		this.memory = memory;
+		this.alignment = alignment;
+	}
+
+	/**
+	 * @param bytes Length of aligned block
+	 * @param alignment Power of two
+	 * @return Length of the unaligned block holding it
+	 */
+	static long blockLength(final long bytes, final long alignment) {
+		return bytes + alignment + 7;
+	}
+
+	@Override
+	public long allocate(final long bytes) {
+		long block = memory.allocate(blockLength(bytes, alignment));
+		long address = (block + 8 + alignment - 1) & -alignment;
+		UNSAFE.putLong(address - 8, block);
+		return address;
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		// the system allocator may move the block to a different alignment
+		long moved = allocate(newBytes);
+		UNSAFE.copyMemory(address, moved, Math.min(bytes, newBytes));
+		free(address, bytes);
+		return moved;
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		memory.free(UNSAFE.getLong(address - 8), blockLength(bytes, alignment));
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.util.Arrays;
+
+/**
+ * {@link Memory} that carves blocks from large chunks with a bump pointer. Freeing a single
+ * block is a no-op (except for the most recent block), all chunks are released by {@link #release()}.
+ * Not thread safe.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class ArenaMemory implements Memory {
+
+	private static final long ALIGNMENT = 8;
+
+	private final long chunkSize;
+
+	private long[] chunks = new long[16];
+	private int nchunks;
+
+	private long next;
+	private long limit;
+	private long last;
+
+	/**
+	 * @param chunkSize Bytes reserved from the system allocator at a time
+	 */
+	ArenaMemory(final long chunkSize) {
+		if(chunkSize < ALIGNMENT) {
+			throw new IllegalArgumentException("chunkSize must be >= " + ALIGNMENT);
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public long allocate(final long bytes) {
+		long aligned = align(bytes);
+		if(aligned > limit - next) {
+			if(aligned > chunkSize) {
+				// oversized blocks get a chunk of their own, current chunk is kept for later blocks
+				return last = reserve(aligned);
+			}
+			next = reserve(chunkSize);
+			limit = next + chunkSize;
+		}
+		last = next;
+		next += aligned;
+		return last;
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		if(address == last && address + align(bytes) == next && address + align(newBytes) <= limit) {
+			next = address + align(newBytes);
+			return address;
+		}
+		long moved = allocate(newBytes);
+		UNSAFE.copyMemory(address, moved, Math.min(bytes, newBytes));
+		return moved;
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		if(address == last && address + align(bytes) == next) {
+			next = last;
+		}
+	}
+
+	/**
+	 * Frees all chunks. Blocks allocated before calling this method must not be accessed afterwards.
+	 */
+	void release() {
+		for(int i = 0; i < nchunks; i++) {
+			UNSAFE.freeMemory(chunks[i]);
+		}
+		nchunks = 0;
+		next = limit = last = 0;
+	}
+
+	private long reserve(final long bytes) {
+		if(nchunks == chunks.length) {
+			chunks = Arrays.copyOf(chunks, nchunks << 1);
+		}
+		long chunk = UNSAFE.allocateMemory(bytes);
+		chunks[nchunks++] = chunk;
+		return chunk;
+	}
+
+	private static long align(final long bytes) {
+		return (bytes + ALIGNMENT - 1) & -ALIGNMENT;
+	}
+
+}
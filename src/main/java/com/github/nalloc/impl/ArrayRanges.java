@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+
+/**
+ * Bulk operations on ranges of structs. Ranges are split at segment boundaries of segmented arrays,
+ * each contiguous part is handled by a single copyMemory or setMemory call. Comparisons read through
+ * the {@link PointerArithmetics} backend, copies and zeroing use Unsafe.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class ArrayRanges {
+
+	private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+	private static final PointerArithmetics POINTERS = PointerArithmetics.INSTANCE;
+
+	private ArrayRanges() {
+	}
+
+	/**
+	 * Copies structs between arrays or within an array. Overlapping ranges of the same memory are
+	 * copied as if through a temporary buffer.
+	 */
+	static void copy(final HeapArray<?> src, final long srcIndex, final HeapArray<?> dest, final long destIndex,
+			final long count) {
+		checkRange(src, srcIndex, count);
+		checkWritable(dest, destIndex, count);
+		checkSameSize(src, dest);
+		if(src.address() == dest.address() && destIndex > srcIndex) {
+			copyBackward(src, srcIndex, dest, destIndex, count);
+		} else {
+			copyForward(src, srcIndex, dest, destIndex, count);
+		}
+	}
+
+	/**
+	 * Copies a template struct to every struct of a range. The template is copied once, the filled
+	 * part is then doubled until the range is full.
+	 */
+	static void fill(final HeapArray<?> array, final long index, final long count, final NativeStruct template) {
+		checkWritable(array, index, count);
+		if(template.getSize() != array.msize) {
+			throw new IllegalArgumentException("Template size " + template.getSize() + " != struct size " + array.msize);
+		}
+		if(count == 0) {
+			return;
+		}
+		UNSAFE.copyMemory(template.address, array.addressOf(index), array.msize);
+		for(long filled = 1; filled < count; filled <<= 1) {
+			copyForward(array, index, array, index + filled, Math.min(filled, count - filled));
+		}
+	}
+
+	/**
+	 * Sets a range of structs to 0.
+	 */
+	static void clear(final HeapArray<?> array, long index, long count) {
+		checkWritable(array, index, count);
+		while(count > 0) {
+			long n = Math.min(count, array.contiguousFrom(index));
+			UNSAFE.setMemory(array.addressOf(index), n * array.msize, (byte) 0);
+			index += n;
+			count -= n;
+		}
+	}
+
+	/**
+	 * Compares ranges as unsigned bytes like memcmp.
+	 *
+	 * @return Negative, zero or positive when the first range is less, equal or greater
+	 */
+	static int compare(final HeapArray<?> a, long aIndex, final HeapArray<?> b, long bIndex, long count) {
+		checkRange(a, aIndex, count);
+		checkRange(b, bIndex, count);
+		checkSameSize(a, b);
+		while(count > 0) {
+			long n = Math.min(count, Math.min(a.contiguousFrom(aIndex), b.contiguousFrom(bIndex)));
+			int result = compare(a.addressOf(aIndex), b.addressOf(bIndex), n * a.msize);
+			if(result != 0) {
+				return result;
+			}
+			aIndex += n;
+			bIndex += n;
+			count -= n;
+		}
+		return 0;
+	}
+
+	private static int compare(final long a, final long b, final long length) {
+		long i = 0;
+		for(; i + 8 <= length; i += 8) {
+			long x = POINTERS.getLong(a + i);
+			long y = POINTERS.getLong(b + i);
+			if(x != y) {
+				// first differing byte in memory order
+				int bit = LITTLE_ENDIAN ? Long.numberOfTrailingZeros(x ^ y) : 63 - Long.numberOfLeadingZeros(x ^ y);
+				int shift = bit & ~7;
+				return Integer.compare((int) (x >>> shift) & 0xFF, (int) (y >>> shift) & 0xFF);
+			}
+		}
+		for(; i < length; i++) {
+			int x = POINTERS.getByte(a + i) & 0xFF;
+			int y = POINTERS.getByte(b + i) & 0xFF;
+			if(x != y) {
+				return Integer.compare(x, y);
+			}
+		}
+		return 0;
+	}
+
+	private static void copyForward(final HeapArray<?> src, long srcIndex, final HeapArray<?> dest, long destIndex,
+			long count) {
+		while(count > 0) {
+			long n = Math.min(count, Math.min(src.contiguousFrom(srcIndex), dest.contiguousFrom(destIndex)));
+			UNSAFE.copyMemory(src.addressOf(srcIndex), dest.addressOf(destIndex), n * src.msize);
+			srcIndex += n;
+			destIndex += n;
+			count -= n;
+		}
+	}
+
+	private static void copyBackward(final HeapArray<?> src, final long srcIndex, final HeapArray<?> dest,
+			final long destIndex, long count) {
+		while(count > 0) {
+			long n = Math.min(count, Math.min(src.contiguousBefore(srcIndex + count),
+					dest.contiguousBefore(destIndex + count)));
+			count -= n;
+			UNSAFE.copyMemory(src.addressOf(srcIndex + count), dest.addressOf(destIndex + count), n * src.msize);
+		}
+	}
+
+	private static void checkRange(final HeapArray<?> array, final long index, final long count) {
+		if(index < 0 || count < 0 || index + count > array.size) {
+			throw new IndexOutOfBoundsException("Range " + index + "-" + (index + count) + " of array of " + array.size);
+		}
+	}
+
+	private static void checkWritable(final HeapArray<?> array, final long index, final long count) {
+		checkRange(array, index, count);
+		if(array.struct.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+	}
+
+	private static void checkSameSize(final HeapArray<?> a, final HeapArray<?> b) {
+		if(a.msize != b.msize) {
+			throw new IllegalArgumentException("Struct sizes differ: " + a.msize + " != " + b.msize);
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.util.concurrent.RecursiveTask;
+
+import com.github.nalloc.ArrayScanner;
+
+/**
+ * Fork/join task visiting a range of an array. Ranges are halved until they are at most
+ * {@link #rangeSize(long)} structs, each leaf range is visited with a new struct instance created by
+ * the generated factory.
+ *
+ * @author Antti Laisi
+ */
+final class ArrayScan<T, R> extends RecursiveTask<R> {
+
+	private static final long serialVersionUID = 1L;
+	static final long MIN_RANGE = 1 << 12;
+
+	private final HeapArray<T> array;
+	private final ArrayScanner<? super T, R> scanner;
+	private final long from;
+	private final long to;
+	private final long rangeSize;
+
+	ArrayScan(final HeapArray<T> array, final ArrayScanner<? super T, R> scanner, final long from, final long to,
+			final long rangeSize) {
+		this.array = array;
+		this.scanner = scanner;
+		this.from = from;
+		this.to = to;
+		this.rangeSize = rangeSize;
+	}
+
+	/**
+	 * Splits an array to about 8 ranges per worker thread, but not to ranges smaller than {@link #MIN_RANGE}.
+	 *
+	 * @param size Size of array
+	 * @return Maximum amount of structs visited by a single task
+	 */
+	static long rangeSize(final long size) {
+		return Math.max(size / (Workers.POOL.getParallelism() * 8), MIN_RANGE);
+	}
+
+	@Override
+	protected R compute() {
+		if(to - from <= rangeSize) {
+			return visit();
+		}
+		long mid = (from + to) >>> 1;
+		ArrayScan<T, R> right = new ArrayScan<>(array, scanner, mid, to, rangeSize);
+		right.fork();
+		R left = new ArrayScan<>(array, scanner, from, mid, rangeSize).compute();
+		return scanner.combine(left, right.join());
+	}
+
+	@SuppressWarnings("unchecked")
+	private R visit() {
+		NativeStruct struct = array.struct.newInstance();
+		R accumulator = scanner.accumulator();
+		for(long i = from; i < to; i++) {
+			struct.address = array.addressOf(i);
+			scanner.accept(accumulator, (T) struct, i);
+		}
+		return accumulator;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * In-place sorting of struct arrays. Structs are swapped in native memory, keys are read directly
+ * from the key field offset. Ranges larger than {@link #PARALLEL_THRESHOLD} structs are sorted
+ * by separate fork/join tasks. Swaps and key reads go through the {@link PointerArithmetics} backend,
+ * the pivot buffer is allocated and copied with Unsafe.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class ArraySorter {
+
+	static final long PARALLEL_THRESHOLD = 1 << 13;
+	private static final long INSERTION_THRESHOLD = 32;
+	private static final PointerArithmetics POINTERS = PointerArithmetics.INSTANCE;
+
+	private ArraySorter() {
+	}
+
+	/**
+	 * Sorts an array with an American flag radix sort of 8 bit digits.
+	 *
+	 * @param array Array to sort
+	 * @param keyField Name of an INT or LONG field
+	 */
+	static void sort(final HeapArray<?> array, final String keyField) {
+		Key key = Key.of(array, keyField);
+		Workers.POOL.invoke(new RadixSort(array, key, 0, array.size, key.bits - 8));
+	}
+
+	/**
+	 * Sorts an array with quicksort.
+	 *
+	 * @param array Array to sort
+	 * @param comparator Comparator of structs
+	 */
+	static <T> void sort(final HeapArray<T> array, final Comparator<? super T> comparator) {
+		Workers.POOL.invoke(new QuickSort<>(array, comparator, 0, array.size));
+	}
+
+	/**
+	 * Searches an array sorted by a key field.
+	 *
+	 * @param array Sorted array
+	 * @param keyField Name of an INT or LONG field
+	 * @param value Key to search for
+	 * @return Index of key or (-(insertion point) - 1)
+	 */
+	static long binarySearch(final HeapArray<?> array, final String keyField, final long value) {
+		Key key = Key.of(array, keyField);
+		long low = 0;
+		long high = array.size - 1;
+		while(low <= high) {
+			long mid = (low + high) >>> 1;
+			long midValue = key.signed(array.addressOf(mid));
+			if(midValue < value) {
+				low = mid + 1;
+			} else if(midValue > value) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/*
+	 * Swaps two structs 8 bytes at a time.
+	 */
+	static void swap(final long a, final long b, final long size) {
+		long i = 0;
+		for(; i + 8 <= size; i += 8) {
+			long tmp = POINTERS.getLong(a + i);
+			POINTERS.setLong(a + i, POINTERS.getLong(b + i));
+			POINTERS.setLong(b + i, tmp);
+		}
+		for(; i < size; i++) {
+			byte tmp = POINTERS.getByte(a + i);
+			POINTERS.setByte(a + i, POINTERS.getByte(b + i));
+			POINTERS.setByte(b + i, tmp);
+		}
+	}
+
+	/**
+	 * INT or LONG key field of a struct.
+	 */
+	private static final class Key {
+		final long offset;
+		final int bits;
+
+		private Key(final long offset, final int bits) {
+			this.offset = offset;
+			this.bits = bits;
+		}
+
+		static Key of(final HeapArray<?> array, final String keyField) {
+			StructLayout layout = StructLayout.of(array.structType);
+			Field field = layout.field(keyField);
+			if((field.type() != Type.INT && field.type() != Type.LONG) || field.len() != 1) {
+				throw new IllegalArgumentException("Key field must be INT or LONG: " + keyField);
+			}
+			return new Key(layout.offsetOf(keyField), field.type() == Type.INT ? 32 : 64);
+		}
+
+		long signed(final long address) {
+			return bits == 32 ? POINTERS.getInt(address + offset) : POINTERS.getLong(address + offset);
+		}
+
+		/*
+		 * Key with the sign bit flipped, so that unsigned order of digits equals signed order of keys.
+		 */
+		long unsigned(final long address) {
+			return bits == 32
+					? (POINTERS.getInt(address + offset) & 0xFFFFFFFFL) ^ 0x80000000L
+					: POINTERS.getLong(address + offset) ^ Long.MIN_VALUE;
+		}
+	}
+
+	private static final class RadixSort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final HeapArray<?> array;
+		private final Key key;
+		private final long from;
+		private final long to;
+		private final int shift;
+
+		RadixSort(final HeapArray<?> array, final Key key, final long from, final long to, final int shift) {
+			this.array = array;
+			this.key = key;
+			this.from = from;
+			this.to = to;
+			this.shift = shift;
+		}
+
+		@Override
+		protected void compute() {
+			if(to - from <= INSERTION_THRESHOLD) {
+				insertionSort();
+				return;
+			}
+			long[] heads = new long[256];
+			long[] tails = new long[256];
+			for(long i = from; i < to; i++) {
+				tails[digit(i)]++;
+			}
+			long offset = from;
+			for(int b = 0; b < 256; b++) {
+				heads[b] = offset;
+				offset += tails[b];
+				tails[b] = offset;
+			}
+			long[] starts = heads.clone();
+			for(int b = 0; b < 256; b++) {
+				while(heads[b] < tails[b]) {
+					int d = digit(heads[b]);
+					if(d == b) {
+						heads[b]++;
+					} else {
+						swap(array.addressOf(heads[b]), array.addressOf(heads[d]++), array.msize);
+					}
+				}
+			}
+			if(shift == 0) {
+				return;
+			}
+			List<RadixSort> tasks = new ArrayList<>();
+			for(int b = 0; b < 256; b++) {
+				if(tails[b] - starts[b] > PARALLEL_THRESHOLD) {
+					tasks.add(new RadixSort(array, key, starts[b], tails[b], shift - 8));
+				} else if(tails[b] - starts[b] > 1) {
+					new RadixSort(array, key, starts[b], tails[b], shift - 8).compute();
+				}
+			}
+			invokeAll(tasks);
+		}
+
+		private int digit(final long index) {
+			return (int) (key.unsigned(array.addressOf(index)) >>> shift) & 0xFF;
+		}
+
+		private void insertionSort() {
+			for(long i = from + 1; i < to; i++) {
+				for(long j = i; j > from && key.signed(array.addressOf(j - 1)) > key.signed(array.addressOf(j)); j--) {
+					swap(array.addressOf(j - 1), array.addressOf(j), array.msize);
+				}
+			}
+		}
+	}
+
+	private static final class QuickSort<T> extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final HeapArray<T> array;
+		private final Comparator<? super T> comparator;
+		private final long from;
+		private final long to;
+		private NativeStruct a;
+		private NativeStruct b;
+
+		QuickSort(final HeapArray<T> array, final Comparator<? super T> comparator, final long from, final long to) {
+			this.array = array;
+			this.comparator = comparator;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			a = array.struct.clone();
+			b = array.struct.clone();
+			long pivot = UNSAFE.allocateMemory(Math.max(array.msize, 1));
+			try {
+				sort(from, to, pivot);
+			} finally {
+				UNSAFE.freeMemory(pivot);
+			}
+		}
+
+		private void sort(final long from, final long to, final long pivot) {
+			long low = from;
+			long high = to;
+			List<QuickSort<T>> tasks = new ArrayList<>();
+			while(high - low > INSERTION_THRESHOLD) {
+				long split = partition(low, high, pivot);
+				long left = split + 1 - low;
+				long right = high - split - 1;
+				// fork the larger half if it is large enough, otherwise recurse into the smaller half
+				if(left > right && left > PARALLEL_THRESHOLD) {
+					tasks.add(new QuickSort<>(array, comparator, low, split + 1));
+					low = split + 1;
+				} else if(left > right) {
+					sort(split + 1, high, pivot);
+					high = split + 1;
+				} else if(right > PARALLEL_THRESHOLD) {
+					tasks.add(new QuickSort<>(array, comparator, split + 1, high));
+					high = split + 1;
+				} else {
+					sort(low, split + 1, pivot);
+					low = split + 1;
+				}
+			}
+			insertionSort(low, high);
+			invokeAll(tasks);
+		}
+
+		/*
+		 * Hoare partition around a copy of the median of first, middle and last struct.
+		 */
+		private long partition(final long from, final long to, final long pivot) {
+			long mid = (from + to) >>> 1;
+			long median = compare(array.addressOf(from), array.addressOf(mid)) < 0
+					? (compare(array.addressOf(mid), array.addressOf(to - 1)) < 0 ? mid
+							: compare(array.addressOf(from), array.addressOf(to - 1)) < 0 ? to - 1 : from)
+					: (compare(array.addressOf(from), array.addressOf(to - 1)) < 0 ? from
+							: compare(array.addressOf(mid), array.addressOf(to - 1)) < 0 ? to - 1 : mid);
+			swap(array.addressOf(from), array.addressOf(median), array.msize);
+			UNSAFE.copyMemory(array.addressOf(from), pivot, array.msize);
+
+			long i = from - 1;
+			long j = to;
+			while(true) {
+				do {
+					i++;
+				} while(compare(array.addressOf(i), pivot) < 0);
+				do {
+					j--;
+				} while(compare(array.addressOf(j), pivot) > 0);
+				if(i >= j) {
+					return j;
+				}
+				swap(array.addressOf(i), array.addressOf(j), array.msize);
+			}
+		}
+
+		private void insertionSort(final long from, final long to) {
+			for(long i = from + 1; i < to; i++) {
+				for(long j = i; j > from && compare(array.addressOf(j - 1), array.addressOf(j)) > 0; j--) {
+					swap(array.addressOf(j - 1), array.addressOf(j), array.msize);
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private int compare(final long left, final long right) {
+			a.address = left;
+			b.address = right;
+			return comparator.compare((T) a, (T) b);
+		}
+	}
+}
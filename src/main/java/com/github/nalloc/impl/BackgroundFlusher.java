@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.github.nalloc.MmapFlusher;
+
+/**
+ * {@link MmapFlusher} running on a daemon thread. Dirty ranges are collected in a buffer that
+ * the flusher thread swaps with its own, so writers never wait for msync().
+ *
+ * @author Antti Laisi
+ */
+final class BackgroundFlusher implements MmapFlusher, Runnable {
+
+	private final FileSync sync;
+	private final long structSize;
+	private final long maxDelayNanos;
+	private final long maxDirtyBytes;
+	private final Thread thread;
+
+	// guarded by this
+	private long[] starts = new long[16];
+	private long[] ends = new long[16];
+	private int nranges;
+	private long dirtyBytes;
+	private long firstDirty;
+	private long requested;
+	private long completed;
+	private boolean closed;
+	private IOException failure;
+
+	// owned by flusher thread
+	private long[] syncStarts = new long[16];
+	private long[] syncEnds = new long[16];
+
+	private volatile long forced;
+
+	/**
+	 * @param sync Sync of the mapped file, closed by the flusher
+	 * @param structSize Length of struct in bytes
+	 * @param maxDelayMillis Maximum time a dirty range waits for sync
+	 * @param maxDirtyBytes Amount of dirty bytes that triggers a sync
+	 */
+	BackgroundFlusher(final FileSync sync, final long structSize, final long maxDelayMillis, final long maxDirtyBytes) {
+		if(maxDelayMillis < 1 || maxDirtyBytes < 1) {
+			throw new IllegalArgumentException("maxDelayMillis and maxDirtyBytes must be > 0");
+		}
+		this.sync = sync;
+		this.structSize = structSize;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+		this.maxDirtyBytes = maxDirtyBytes;
+		this.thread = new Thread(this, "nalloc-flusher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public synchronized void dirty(final long fromIndex, final long toIndex) {
+		if(closed) {
+			throw new IllegalStateException("Flusher is closed");
+		}
+		if(nranges > 0 && fromIndex <= ends[nranges - 1] && toIndex >= starts[nranges - 1]) {
+			starts[nranges - 1] = Math.min(starts[nranges - 1], fromIndex);
+			ends[nranges - 1] = Math.max(ends[nranges - 1], toIndex);
+		} else {
+			if(nranges == starts.length) {
+				starts = Arrays.copyOf(starts, nranges << 1);
+				ends = Arrays.copyOf(ends, nranges << 1);
+			}
+			starts[nranges] = fromIndex;
+			ends[nranges] = toIndex;
+			if(nranges++ == 0) {
+				firstDirty = System.nanoTime();
+				notifyAll();
+			}
+		}
+		dirtyBytes += (toIndex - fromIndex) * structSize;
+		if(dirtyBytes >= maxDirtyBytes) {
+			notifyAll();
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		synchronized(this) {
+			if(closed) {
+				throw new IllegalStateException("Flusher is closed");
+			}
+			awaitSync();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			if(closed) {
+				return;
+			}
+			closed = true;
+			awaitSync();
+		}
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		sync.close();
+	}
+
+	@Override
+	public void run() {
+		for(;;) {
+			int n;
+			long generation;
+			synchronized(this) {
+				while(!syncDue()) {
+					if(closed && requested == completed) {
+						return;
+					}
+					waitForRanges();
+				}
+				long[] tmp = starts;
+				starts = syncStarts;
+				syncStarts = tmp;
+				tmp = ends;
+				ends = syncEnds;
+				syncEnds = tmp;
+				n = nranges;
+				nranges = 0;
+				dirtyBytes = 0;
+				generation = requested;
+			}
+			IOException error = null;
+			try {
+				force(n);
+			} catch (IOException e) {
+				error = e;
+			}
+			synchronized(this) {
+				if(error != null && failure == null) {
+					failure = error;
+				}
+				completed = generation;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return Amount of merged ranges synced so far
+	 */
+	long forced() {
+		return forced;
+	}
+
+	private void awaitSync() throws IOException {
+		long generation = ++requested;
+		notifyAll();
+		boolean interrupted = false;
+		while(completed < generation) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		if(failure != null) {
+			IOException e = failure;
+			failure = null;
+			throw e;
+		}
+	}
+
+	private boolean syncDue() {
+		return requested != completed
+			|| dirtyBytes >= maxDirtyBytes
+			|| (nranges > 0 && System.nanoTime() - firstDirty >= maxDelayNanos);
+	}
+
+	private void waitForRanges() {
+		try {
+			if(nranges == 0) {
+				wait();
+			} else {
+				long remaining = maxDelayNanos - (System.nanoTime() - firstDirty);
+				TimeUnit.NANOSECONDS.timedWait(this, Math.max(remaining, 1));
+			}
+		} catch (InterruptedException e) {
+			/* flusher thread is stopped only by close() */
+		}
+	}
+
+	/*
+	 * Merges ranges and syncs them. Starts and ends are sorted separately, the union of ranges ends
+	 * wherever the next start comes after all ends so far.
+	 */
+	private void force(final int n) throws IOException {
+		Arrays.sort(syncStarts, 0, n);
+		Arrays.sort(syncEnds, 0, n);
+		for(int i = 0; i < n; i++) {
+			long start = syncStarts[i];
+			while(i + 1 < n && syncStarts[i + 1] <= syncEnds[i]) {
+				i++;
+			}
+			sync.force(start, syncEnds[i]);
+			forced++;
+		}
+	}
+
+}
@@ -29,6 +29,10 @@ import java.util.Map;
 
 import com.github.nalloc.Array;
 import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.MmapFlusher;
+import com.github.nalloc.Struct;
+import com.github.nalloc.StructMap;
+import com.github.nalloc.impl.NativeMemoryAccounting.Operation;
 
 /**
  * {@link MmapAllocator} implementation using direct {@link ByteBuffer}s.
@@ -37,22 +41,58 @@ import com.github.nalloc.MmapAllocator;
  */
 public class DirectBufferMmapAllocator implements MmapAllocator {
 
+	/**
+	 * Maximum length of a single mapped buffer.
+	 */
+	static final long MAX_SEGMENT = Integer.MAX_VALUE;
+
 	private final Map<Class<?>, Class<? extends NativeStruct>> implementations = new HashMap<>();
+	private final long maxSegment;
+	private final NativeMemoryAccounting accounting;
 
 	public DirectBufferMmapAllocator(final Class<?>... structTypes) {
-		StructClassGenerator generator = new StructClassGenerator(structTypes);
+		this(MAX_SEGMENT, structTypes);
+	}
+
+	DirectBufferMmapAllocator(final long maxSegment, final Class<?>... structTypes) {
+		this(maxSegment, NativeMemoryAccounting.INSTANCE, structTypes);
+	}
+
+	/**
+	 * @param maxSegment Maximum length of a mapped buffer
+	 * @param accounting Accounting of mappings or null
+	 * @param structTypes Struct interfaces
+	 */
+	DirectBufferMmapAllocator(final long maxSegment, final NativeMemoryAccounting accounting,
+			final Class<?>... structTypes) {
+		this.maxSegment = maxSegment;
+		this.accounting = accounting;
 		for(Class<?> struct : structTypes) {
-			implementations.put(struct, generator.generate(struct));
+			implementations.put(struct, StructClassGenerator.generate(struct));
 		}
 	}
 
 	@Override
 	public <T> Array<T> mmap(final File file, final long nmemb, final Class<T> structType) throws IOException {
-		FileChannel channel = FileChannel.open(file.toPath(), READ, WRITE, CREATE);
-		NativeStruct struct = NativeStruct.create(implementations.get(structType));
-		ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, nmemb * struct.getSize()).order(ByteOrder.nativeOrder());
-		channel.close();
-		return new MmapArray<T>(buffer, nmemb, struct);
+		return mmap(file, nmemb, structType, Mode.SHARED);
+	}
+
+	@Override
+	public <T> Array<T> mmap(final File file, final long nmemb, final Class<T> structType, final Mode mode)
+			throws IOException {
+		NativeStruct struct = NativeStruct.create(mode == Mode.READ_ONLY
+				? StructClassGenerator.generate(structType, true) : implementations.get(structType));
+		try(FileChannel channel = open(file, mode)) {
+			long length = mappingLength(file, nmemb * struct.getSize());
+			if(length <= maxSegment) {
+				ByteBuffer buffer = map(channel, mode, 0, length);
+				return accounted(new MmapArray<T>(buffer, file, mode, nmemb, struct, structType), structType);
+			}
+			int shift = SegmentedMmapArray.segmentShift(struct.getSize(), maxSegment);
+			ByteBuffer[] buffers = mapSegments(channel, mode, new ByteBuffer[0], 0, nmemb, shift, struct.getSize(),
+					HugePages.isHugeTlbFile(file));
+			return accounted(new SegmentedMmapArray<T>(buffers, file, mode, shift, nmemb, struct, structType), structType);
+		}
 	}
 
 	@Override
@@ -61,20 +101,295 @@ public class DirectBufferMmapAllocator implements MmapAllocator {
 			throw new IllegalArgumentException("Only direct buffers in native byte order can be mapped");
 		}
 		NativeStruct struct = NativeStruct.create(implementations.get(structType));
-		return new MmapArray<T>(buffer, buffer.capacity() / struct.getSize(), struct);
+		return new MmapArray<T>(buffer, null, Mode.PRIVATE, buffer.capacity() / struct.getSize(), struct,
+				structType);
 	}
 
 	@Override
 	public <T> Array<T> mmap(final long nmemb, final Class<T> structType) {
 		NativeStruct struct = NativeStruct.create(implementations.get(structType));
-		ByteBuffer buffer = ByteBuffer.allocateDirect((int)(nmemb * struct.getSize())).order(ByteOrder.nativeOrder());
-		return new MmapArray<>(buffer, nmemb, struct);
+		int alignment = structType.getAnnotation(Struct.class).align();
+		if(nmemb * struct.getSize() <= maxSegment - alignment + 1) {
+			return accounted(new MmapArray<T>(allocate(nmemb * struct.getSize(), alignment), null, Mode.PRIVATE, nmemb,
+					struct, structType), structType);
+		}
+		int shift = SegmentedMmapArray.segmentShift(struct.getSize(), maxSegment - alignment + 1);
+		ByteBuffer[] buffers = new ByteBuffer[segments(nmemb, shift)];
+		for(int i = 0; i < buffers.length; i++) {
+			buffers[i] = allocate(segmentLength(nmemb, (long) i << shift, shift) * struct.getSize(), alignment);
+		}
+		return accounted(new SegmentedMmapArray<T>(buffers, null, Mode.PRIVATE, shift, nmemb, struct, structType),
+				structType);
+	}
+
+	@Override
+	public <T> Array<T> mmapHuge(final long nmemb, final Class<T> structType) {
+		NativeStruct struct = NativeStruct.create(implementations.get(structType));
+		long maxHugeSegment = Math.min(Math.max((maxSegment - HugePages.SIZE) & -HugePages.SIZE, HugePages.SIZE),
+				HugePages.MAX_LENGTH);
+		if(nmemb * struct.getSize() <= maxHugeSegment) {
+			return accounted(new MmapArray<T>(HugePages.allocate(nmemb * struct.getSize()), null, Mode.PRIVATE, nmemb,
+					struct, structType), structType);
+		}
+		int shift = SegmentedMmapArray.segmentShift(struct.getSize(), maxHugeSegment);
+		ByteBuffer[] buffers = new ByteBuffer[segments(nmemb, shift)];
+		for(int i = 0; i < buffers.length; i++) {
+			buffers[i] = HugePages.allocate(segmentLength(nmemb, (long) i << shift, shift) * struct.getSize());
+		}
+		return accounted(new SegmentedMmapArray<T>(buffers, null, Mode.PRIVATE, shift, nmemb, struct, structType),
+				structType);
+	}
+
+	@Override
+	public <T> StructMap<T> map(final Class<T> structType, final String keyField, final long capacity) {
+		return new NativeStructMap<T>(new NativeStructMap.Chunks() {
+			@Override
+			public Array<?> allocate(final long nmemb) {
+				return mmap(nmemb, structType);
+			}
+		}, NativeStruct.create(implementations.get(structType)), structType.getAnnotation(Struct.class),
+				StructLayout.of(structType).field(keyField), StructLayout.of(structType).offsetOf(keyField), capacity);
+	}
+
+	@Override
+	public <T> Array<T> remap(final Array<T> structs, final long nmemb) throws IOException {
+		if(nmemb < 1) {
+			throw new IllegalArgumentException("nmemb must be > 0");
+		}
+		try(FileChannel channel = FileChannel.open(fileOf(structs).toPath(), READ, WRITE)) {
+			if(structs instanceof SegmentedMmapArray) {
+				SegmentedMmapArray<T> array = (SegmentedMmapArray<T>) structs;
+				array.remap(mapSegments(channel, Mode.SHARED, array.buffers, array.size, nmemb, array.shift, array.msize,
+						HugePages.isHugeTlbFile(array.file)), nmemb);
+				return array;
+			}
+			MmapArray<T> array = (MmapArray<T>) structs;
+			long length = mappingLength(array.file, nmemb * array.msize);
+			if(length <= maxSegment) {
+				array.remap(map(channel, Mode.SHARED, 0, length), nmemb);
+				return array;
+			}
+			int shift = SegmentedMmapArray.segmentShift(array.msize, maxSegment);
+			ByteBuffer[] buffers = mapSegments(channel, Mode.SHARED, new ByteBuffer[0], 0, nmemb, shift, array.msize,
+					HugePages.isHugeTlbFile(array.file));
+			SegmentedMmapArray<T> segmented = new SegmentedMmapArray<T>(buffers, array.file, Mode.SHARED, shift, nmemb,
+					array.struct, array.structType);
+			// the previous mappings are unmapped when the segmented array is freed
+			segmented.retired.add(array.buffer);
+			segmented.retired.addAll(array.retired);
+			array.retired.clear();
+			NativeMemoryAccounting.Account account = array.account;
+			long oldAddress = array.address();
+			array.account = null;
+			if(account != null) {
+				segmented.account = account;
+				account.reallocated(Operation.REMAP, oldAddress, array.size * array.msize, segmented.address(),
+						nmemb * array.msize);
+			}
+			return segmented;
+		}
+	}
+
+	/*
+	 * Counts a new mapping in the account of its struct type.
+	 */
+	private <T> Array<T> accounted(final HeapArray<T> array, final Class<?> structType) {
+		if(accounting != null) {
+			array.account = accounting.account(structType);
+			array.account.allocated(Operation.MMAP, array.address(), array.size * array.msize, null);
+		}
+		return array;
+	}
+
+	@Override
+	public <T> Array<T> grow(final Array<T> structs, final long minNmemb) throws IOException {
+		if(structs.size() >= minNmemb) {
+			return structs;
+		}
+		return remap(structs, grownSize(structs.size(), minNmemb));
+	}
+
+	/*
+	 * Doubles size, starting from 1 for empty arrays, until it is at least minNmemb. Sizes that
+	 * would overflow when doubled grow to minNmemb.
+	 */
+	static long grownSize(final long size, final long minNmemb) {
+		long nmemb = Math.max(size, 1);
+		while(nmemb < minNmemb) {
+			nmemb = nmemb > Long.MAX_VALUE >> 1 ? minNmemb : nmemb << 1;
+		}
+		return nmemb;
+	}
+
+	@Override
+	public void force(final Array<?> structs, final long fromIndex, final long toIndex) throws IOException {
+		try(FileSync sync = new FileSync(fileOf(structs), ((HeapArray<?>) structs).msize, maxSegment, true)) {
+			sync.force(fromIndex, toIndex);
+		}
+	}
+
+	@Override
+	public MmapFlusher flusher(final Array<?> structs, final long maxDelayMillis, final long maxDirtyBytes)
+			throws IOException {
+		long structSize = ((HeapArray<?>) structs).msize;
+		return new BackgroundFlusher(new FileSync(fileOf(structs), structSize, maxSegment, true),
+				structSize, maxDelayMillis, maxDirtyBytes);
+	}
+
+	@Override
+	public void advise(final Array<?> structs, final Advice advice) {
+		if(advice == Advice.WILL_NEED && mappedFile(structs) != null) {
+			Workers.LOADERS.execute(new FileLoad(mappedFile(structs), structs.size(),
+					((HeapArray<?>) structs).msize, maxSegment));
+		}
+		/* other advice has no equivalent in Java */
+	}
+
+	@Override
+	public void preload(final Array<?> structs, final int threads) {
+		new Prefaulter(buffersOf(structs)).prefault(threads);
 	}
 
 	@Override
 	public ByteBuffer toBytes(final Array<?> structs) {
+		if(structs instanceof SegmentedMmapArray) {
+			throw new IllegalArgumentException("Arrays mapped in several segments can't be cast to a single buffer");
+		}
 		MmapArray<?> array = (MmapArray<?>) structs;
 		return array.buffer;
 	}
 
+	private static ByteBuffer map(final FileChannel channel, final Mode mode, final long position, final long length)
+			throws IOException {
+		MapMode mapMode = mode == Mode.READ_ONLY ? MapMode.READ_ONLY : mode == Mode.PRIVATE ? MapMode.PRIVATE : MapMode.READ_WRITE;
+		return channel.map(mapMode, position, length).order(ByteOrder.nativeOrder());
+	}
+
+	/*
+	 * Loads a file to the page cache through its own mapping, so the array can be unmapped while
+	 * loading.
+	 */
+	private static final class FileLoad implements Runnable {
+		private final File file;
+		private final long nmemb;
+		private final long structSize;
+		private final long maxWindow;
+
+		FileLoad(final File file, final long nmemb, final long structSize, final long maxWindow) {
+			this.file = file;
+			this.nmemb = nmemb;
+			this.structSize = structSize;
+			this.maxWindow = maxWindow;
+		}
+
+		@Override
+		public void run() {
+			try(FileSync sync = new FileSync(file, structSize, maxWindow, false)) {
+				sync.load(0, nmemb);
+			} catch (IOException e) {
+				/* advice is best effort */
+			}
+		}
+	}
+
+	/*
+	 * Maps segments for nmemb structs. Segments of the old mapping whose length doesn't change are
+	 * reused as they are.
+	 */
+	private static ByteBuffer[] mapSegments(final FileChannel channel, final Mode mode, final ByteBuffer[] old,
+			final long oldNmemb, final long nmemb, final int shift, final long structSize, final boolean huge)
+			throws IOException {
+
+		ByteBuffer[] buffers = new ByteBuffer[segments(nmemb, shift)];
+		for(int i = 0; i < buffers.length; i++) {
+			long first = (long) i << shift;
+			long length = segmentLength(nmemb, first, shift);
+			if(i < old.length && segmentLength(oldNmemb, first, shift) == length) {
+				buffers[i] = old[i];
+			} else {
+				buffers[i] = map(channel, mode, first * structSize, segmentBytes(length, shift, structSize, huge));
+			}
+		}
+		return buffers;
+	}
+
+	/*
+	 * Returns the file of a shared file-backed mapping.
+	 */
+	private static File fileOf(final Array<?> structs) {
+		File file = mappedFile(structs);
+		Mode mode = structs instanceof SegmentedMmapArray
+				? ((SegmentedMmapArray<?>) structs).mode : ((MmapArray<?>) structs).mode;
+		if(file == null || mode != Mode.SHARED) {
+			throw new IllegalArgumentException("Array is not a shared mapping of a file");
+		}
+		return file;
+	}
+
+	private static File mappedFile(final Array<?> structs) {
+		if(structs instanceof SegmentedMmapArray) {
+			return ((SegmentedMmapArray<?>) structs).file;
+		}
+		return ((MmapArray<?>) structs).file;
+	}
+
+	private static FileChannel open(final File file, final Mode mode) throws IOException {
+		switch(mode) {
+		case SHARED:
+			return FileChannel.open(file.toPath(), READ, WRITE, CREATE);
+		case PRIVATE:
+			// FileChannel requires a writable channel for copy-on-write mappings
+			return FileChannel.open(file.toPath(), READ, WRITE);
+		default:
+			return FileChannel.open(file.toPath(), READ);
+		}
+	}
+
+	private static ByteBuffer[] buffersOf(final Array<?> structs) {
+		if(structs instanceof SegmentedMmapArray) {
+			return ((SegmentedMmapArray<?>) structs).buffers;
+		}
+		return new ByteBuffer[] { ((MmapArray<?>) structs).buffer };
+	}
+
+	/*
+	 * Mappings of hugetlbfs files must start and end at huge page boundaries. Full segments must be
+	 * a multiple of the huge page size, the last segment is rounded up.
+	 */
+	static long segmentBytes(final long nmemb, final int shift, final long structSize, final boolean huge) {
+		if(!huge) {
+			return nmemb * structSize;
+		}
+		if(((structSize << shift) & (HugePages.SIZE - 1)) != 0) {
+			throw new IllegalArgumentException("Segments of " + (structSize << shift) + " bytes of a hugetlbfs file"
+					+ " are not a multiple of the huge page size " + HugePages.SIZE + ", pad the struct to a power of two");
+		}
+		return HugePages.roundUp(nmemb * structSize);
+	}
+
+	private static long mappingLength(final File file, final long bytes) {
+		return HugePages.isHugeTlbFile(file) ? HugePages.roundUp(bytes) : bytes;
+	}
+
+	/*
+	 * Direct buffers are not aligned, a larger buffer is allocated and an aligned slice of it returned.
+	 * The slice keeps the buffer reachable.
+	 */
+	private static ByteBuffer allocate(final long length, final int alignment) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) length + alignment - 1);
+		long address = DirectBuffers.address(buffer);
+		int offset = (int) (((address + alignment - 1) & -alignment) - address);
+		buffer.position(offset);
+		buffer.limit(offset + (int) length);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	private static int segments(final long nmemb, final int shift) {
+		return (int) ((nmemb + (1L << shift) - 1) >>> shift);
+	}
+
+	private static long segmentLength(final long nmemb, final long first, final int shift) {
+		return Math.min(nmemb - first, 1L << shift);
+	}
+
 }
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+import sun.misc.Unsafe;
+
+/**
+ * Address and unmapping of direct buffers. sun.nio.ch.DirectBuffer is not exported from java.base
+ * since Java 9, so fields of the buffer are read with Unsafe. Buffers are freed with
+ * Unsafe.invokeCleaner where it exists and with the cleaner of the buffer on Java 8.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class DirectBuffers {
+
+	private static final long ADDRESS = offset(Buffer.class, "address");
+	private static final long ATTACHMENT = offset(ByteBuffer.allocateDirect(1).getClass(), "att");
+	private static final Method INVOKE_CLEANER = method(Unsafe.class, "invokeCleaner", ByteBuffer.class);
+	private static final long CLEANER = INVOKE_CLEANER == null
+			? offset(ByteBuffer.allocateDirect(1).getClass(), "cleaner") : -1;
+	private static final Method CLEAN = INVOKE_CLEANER == null ? method(named("sun.misc.Cleaner"), "clean") : null;
+
+	private DirectBuffers() {
+	}
+
+	/**
+	 * @param buffer Direct buffer
+	 * @return Address of the first byte of the buffer
+	 */
+	static long address(final ByteBuffer buffer) {
+		return UNSAFE.getLong(buffer, ADDRESS);
+	}
+
+	/**
+	 * Unmaps or frees a buffer. Slices of a buffer have no cleaner of their own, the buffer they were
+	 * sliced from is freed instead.
+	 *
+	 * @param buffer Direct buffer or a slice of it
+	 */
+	static void free(final ByteBuffer buffer) {
+		ByteBuffer root = buffer;
+		while(UNSAFE.getObject(root, ATTACHMENT) instanceof ByteBuffer) {
+			root = (ByteBuffer) UNSAFE.getObject(root, ATTACHMENT);
+		}
+		try {
+			if(INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, root);
+			} else {
+				Object cleaner = UNSAFE.getObject(root, CLEANER);
+				if(cleaner != null) {
+					CLEAN.invoke(cleaner);
+				}
+			}
+		} catch(IllegalAccessException | InvocationTargetException e) {
+			throw new IllegalStateException("Can't free direct buffer", e);
+		}
+	}
+
+	private static long offset(final Class<?> type, final String field) {
+		for(Class<?> c = type; c != null; c = c.getSuperclass()) {
+			try {
+				return UNSAFE.objectFieldOffset(c.getDeclaredField(field));
+			} catch(NoSuchFieldException e) {
+				/* declared by a superclass */
+			}
+		}
+		throw new IllegalStateException("No field " + field + " in " + type.getName());
+	}
+
+	private static Method method(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch(NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static Class<?> named(final String className) {
+		try {
+			return Class.forName(className);
+		} catch(ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
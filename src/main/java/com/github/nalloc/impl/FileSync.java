@@ -0,0 +1,94 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Flushes ranges of a memory mapped file to disk or loads them to memory. {@link MappedByteBuffer#force()}
+ * can only sync a whole buffer, so each range is mapped again as a short-lived window and the window
+ * is forced or loaded. Mappings of a file share the page cache, so the window covers changes made
+ * through any mapping and pages loaded through the window are in memory for all mappings.
+ *
+ * @author Antti Laisi
+ */
+final class FileSync implements Closeable {
+
+	private final FileChannel channel;
+	private final long structSize;
+	private final long maxWindow;
+
+	/**
+	 * @param file Mapped file
+	 * @param structSize Length of struct in bytes
+	 * @param maxWindow Maximum length of a single window in bytes
+	 * @param writable Open the file for writing, required by {@link #force(long, long)}
+	 */
+	FileSync(final File file, final long structSize, final long maxWindow, final boolean writable) throws IOException {
+		this.channel = writable ? FileChannel.open(file.toPath(), READ, WRITE) : FileChannel.open(file.toPath(), READ);
+		this.structSize = structSize;
+		this.maxWindow = maxWindow;
+	}
+
+	/**
+	 * Flushes structs in range [fromIndex, toIndex) to disk.
+	 *
+	 * @param fromIndex First struct, inclusive
+	 * @param toIndex Last struct, exclusive
+	 */
+	void force(final long fromIndex, final long toIndex) throws IOException {
+		long position = fromIndex * structSize;
+		long end = Math.min(toIndex * structSize, channel.size());
+		while(position < end) {
+			long length = Math.min(end - position, maxWindow);
+			MappedByteBuffer window = channel.map(MapMode.READ_WRITE, position, length);
+			window.force();
+			DirectBuffers.free(window);
+			position += length;
+		}
+	}
+
+	/**
+	 * Loads structs in range [fromIndex, toIndex) to the page cache.
+	 *
+	 * @param fromIndex First struct, inclusive
+	 * @param toIndex Last struct, exclusive
+	 */
+	void load(final long fromIndex, final long toIndex) throws IOException {
+		long position = fromIndex * structSize;
+		long end = Math.min(toIndex * structSize, channel.size());
+		while(position < end) {
+			long length = Math.min(end - position, maxWindow);
+			MappedByteBuffer window = channel.map(MapMode.READ_ONLY, position, length);
+			window.load();
+			DirectBuffers.free(window);
+			position += length;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -16,7 +16,11 @@ package com.github.nalloc.impl;
 
 import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
 
+import java.nio.ReadOnlyBufferException;
+import java.util.Comparator;
+
 import com.github.nalloc.Array;
+import com.github.nalloc.ArrayScanner;
 
 /**
  * {@link Array} containing fixed-sized structs.
@@ -27,20 +31,35 @@ import com.github.nalloc.Array;
 public class HeapArray<T> implements Array<T> {
 
 	protected final NativeStruct struct;
-	private final long msize;
+	final Class<?> structType;
+	final Memory memory;
+	final long msize;
 
 	protected long size;
 	private long address;
 
+	/**
+	 * Account of a mmapped array, null for arrays allocated from {@link Memory} or when accounting is off.
+	 */
+	NativeMemoryAccounting.Account account;
+
 	/**
 	 * @param address Pointer address
 	 * @param size Size of array
 	 * @param struct Struct instance
+	 * @param structType Class annotated with &#064;Struct
 	 */
-	public HeapArray(final long address, final long size, final NativeStruct struct) {
+	public HeapArray(final long address, final long size, final NativeStruct struct, final Class<?> structType) {
+		this(address, size, struct, structType, UnsafeMemory.INSTANCE);
+	}
+
+	HeapArray(final long address, final long size, final NativeStruct struct, final Class<?> structType,
+			final Memory memory) {
 		this.address = address;
 		this.size = size;
 		this.struct = struct;
+		this.structType = structType;
+		this.memory = memory;
 		this.msize = struct.getSize();
 	}
 
@@ -53,6 +72,9 @@ public class HeapArray<T> implements Array<T> {
 
 	@Override
 	public T clear(final long index) {
+		if(struct.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
 		UNSAFE.setMemory(address + index * msize, msize, (byte) 0);
 		return get(index);
 	}
@@ -62,6 +84,86 @@ public class HeapArray<T> implements Array<T> {
 		return size;
 	}
 
+	@Override
+	public <R> R scan(final ArrayScanner<? super T, R> scanner) {
+		return Workers.POOL.invoke(new ArrayScan<T, R>(this, scanner, 0, size, ArrayScan.rangeSize(size)));
+	}
+
+	@Override
+	public void sort(final String keyField) {
+		if(struct.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		ArraySorter.sort(this, keyField);
+	}
+
+	@Override
+	public void sort(final Comparator<? super T> comparator) {
+		if(struct.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		ArraySorter.sort(this, comparator);
+	}
+
+	@Override
+	public long binarySearch(final String keyField, final long key) {
+		return ArraySorter.binarySearch(this, keyField, key);
+	}
+
+	@Override
+	public void copyRange(final long index, final Array<T> dest, final long destIndex, final long count) {
+		ArrayRanges.copy(this, index, (HeapArray<T>) dest, destIndex, count);
+	}
+
+	@Override
+	public void move(final long from, final long to, final long count) {
+		ArrayRanges.copy(this, from, this, to, count);
+	}
+
+	@Override
+	public void fillRange(final long index, final long count, final T template) {
+		ArrayRanges.fill(this, index, count, (NativeStruct) template);
+	}
+
+	@Override
+	public void clearRange(final long index, final long count) {
+		ArrayRanges.clear(this, index, count);
+	}
+
+	@Override
+	public boolean rangeEquals(final long index, final Array<T> other, final long otherIndex, final long count) {
+		return ArrayRanges.compare(this, index, (HeapArray<T>) other, otherIndex, count) == 0;
+	}
+
+	@Override
+	public int compareRange(final long index, final Array<T> other, final long otherIndex, final long count) {
+		return ArrayRanges.compare(this, index, (HeapArray<T>) other, otherIndex, count);
+	}
+
+	/**
+	 * @param index Array index
+	 * @return Memory address of struct at index
+	 */
+	long addressOf(final long index) {
+		return address + index * msize;
+	}
+
+	/**
+	 * @param index Array index
+	 * @return Amount of structs in contiguous memory starting at index
+	 */
+	long contiguousFrom(final long index) {
+		return size - index;
+	}
+
+	/**
+	 * @param end Array index
+	 * @return Amount of structs in contiguous memory ending before end
+	 */
+	long contiguousBefore(final long end) {
+		return end;
+	}
+
 	@Override
 	public T deref() {
 		return get(0);
@@ -79,7 +181,7 @@ public class HeapArray<T> implements Array<T> {
 
 	@Override
 	public void free() {
-		UNSAFE.freeMemory(address);
+		memory.free(address, size * msize);
 	}
 
 	@Override
@@ -89,7 +191,7 @@ public class HeapArray<T> implements Array<T> {
 
 	@Override
 	public Array<T> clone() {
-		return new HeapArray<>(address, size, struct.clone());
+		return new HeapArray<>(address, size, struct.clone(), structType, memory);
 	}
 
 	@Override
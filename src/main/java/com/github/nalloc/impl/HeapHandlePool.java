@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import com.github.nalloc.HandlePool;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+
+/**
+ * {@link HandlePool} keeping free pointers in a bounded stack.
+ *
+ * @author Antti Laisi
+ */
+final class HeapHandlePool<T> implements HandlePool<T> {
+
+	private final NativeHeapAllocator allocator;
+	private final Class<T> structType;
+	private final Pointer<?>[] handles;
+	private int count;
+
+	HeapHandlePool(final NativeHeapAllocator allocator, final Class<T> structType, final int maxPooled) {
+		if(maxPooled < 0) {
+			throw new IllegalArgumentException("maxPooled must be >= 0");
+		}
+		this.allocator = allocator;
+		this.structType = structType;
+		this.handles = new Pointer<?>[maxPooled];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Pointer<T> malloc() {
+		if(count == 0) {
+			return allocator.malloc(structType);
+		}
+		Pointer<T> handle = (Pointer<T>) handles[--count];
+		handles[count] = null;
+		return allocator.malloc(handle);
+	}
+
+	@Override
+	public void free(final Pointer<T> pointer) {
+		pointer.free();
+		if(count < handles.length) {
+			handles[count++] = pointer;
+		}
+	}
+
+	/**
+	 * @return Amount of free pointers in the pool
+	 */
+	int pooled() {
+		return count;
+	}
+
+}
@@ -14,8 +14,6 @@
 
 package com.github.nalloc.impl;
 
-import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
-
 import com.github.nalloc.Pointer;
 
 /**
@@ -23,13 +21,14 @@ import com.github.nalloc.Pointer;
  *
  * @author Antti Laisi
  */
-@SuppressWarnings("restriction")
 final class HeapPointer<T> implements Pointer<T> {
 
-	private final NativeStruct struct;
+	final NativeStruct struct;
+	Memory memory;
 
-	HeapPointer(final NativeStruct struct) {
+	HeapPointer(final NativeStruct struct, final Memory memory) {
 		this.struct = struct;
+		this.memory = memory;
 	}
 
 	@Override
@@ -50,7 +49,7 @@ final class HeapPointer<T> implements Pointer<T> {
 
 	@Override
 	public final void free() {
-		UNSAFE.freeMemory(struct.address);
+		memory.free(struct.address, struct.getSize());
 	}
 
 	@Override
@@ -60,7 +59,7 @@ final class HeapPointer<T> implements Pointer<T> {
 
 	@Override
 	public final Pointer<T> clone() {
-		return new HeapPointer<>(struct.clone());
+		return new HeapPointer<>(struct.clone(), memory);
 	}
 
 	@Override
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+
+/**
+ * Allocates buffers backed by huge pages. Buffers are mapped from unlinked files on a hugetlbfs
+ * mount if one is writable and has free huge pages. Otherwise direct buffers are aligned to the
+ * huge page size, so that transparent huge pages can back them when the kernel is configured to
+ * use them.
+ *
+ * @author Antti Laisi
+ */
+final class HugePages {
+
+	/**
+	 * Length of a huge page in bytes.
+	 */
+	static final long SIZE;
+
+	/**
+	 * Writable hugetlbfs mount point or null.
+	 */
+	static final File MOUNT;
+
+	/**
+	 * Longest buffer, the fallback buffer has room to align its start.
+	 */
+	static final long MAX_LENGTH;
+
+	static {
+		String[] mount = findMount();
+		MOUNT = mount == null ? null : new File(mount[0]);
+		long size = mount == null ? -1 : parseSize(mount[1]);
+		SIZE = size > 0 ? size : defaultSize();
+		MAX_LENGTH = (Integer.MAX_VALUE - SIZE) & -SIZE;
+	}
+
+	private HugePages() {
+	}
+
+	/**
+	 * @param length Length of buffer, at most {@link #MAX_LENGTH}
+	 * @return Buffer of length bytes, aligned to huge page size
+	 */
+	static ByteBuffer allocate(final long length) {
+		if(length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Huge page buffers are limited to " + MAX_LENGTH + " bytes");
+		}
+		if(MOUNT != null) {
+			try {
+				return map(length);
+			} catch (IOException e) {
+				/* no free huge pages, fall back to an aligned buffer */
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) (length + SIZE));
+		long address = DirectBuffers.address(buffer);
+		int offset = (int) (-address & (SIZE - 1));
+		buffer.position(offset);
+		buffer.limit(offset + (int) length);
+		return buffer.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * @param bytes Length in bytes
+	 * @return Length rounded up to a multiple of huge page size
+	 */
+	static long roundUp(final long bytes) {
+		return (bytes + SIZE - 1) & -SIZE;
+	}
+
+	/**
+	 * @param file File to check
+	 * @return true if the file is on a hugetlbfs mount
+	 */
+	static boolean isHugeTlbFile(final File file) {
+		try {
+			File existing = file.getAbsoluteFile();
+			while(!existing.exists()) {
+				existing = existing.getParentFile();
+			}
+			return "hugetlbfs".equals(Files.getFileStore(existing.toPath()).type());
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	private static ByteBuffer map(final long length) throws IOException {
+		File file = File.createTempFile("nalloc", ".huge", MOUNT);
+		try(FileChannel channel = FileChannel.open(file.toPath(), READ, WRITE)) {
+			ByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, roundUp(length));
+			buffer.limit((int) length);
+			return buffer.slice().order(ByteOrder.nativeOrder());
+		} finally {
+			file.delete();
+		}
+	}
+
+	/*
+	 * Finds a writable hugetlbfs mount from /proc/mounts, eg.
+	 * "hugetlbfs /dev/hugepages hugetlbfs rw,relatime,pagesize=2M 0 0".
+	 * Returns mount point and page size option.
+	 */
+	private static String[] findMount() {
+		try(BufferedReader mounts = new BufferedReader(new FileReader("/proc/mounts"))) {
+			for(String line = mounts.readLine(); line != null; line = mounts.readLine()) {
+				String[] fields = line.split(" ");
+				if(fields.length > 3 && "hugetlbfs".equals(fields[2]) && new File(fields[1]).canWrite()) {
+					String size = null;
+					for(String option : fields[3].split(",")) {
+						if(option.startsWith("pagesize=")) {
+							size = option.substring("pagesize=".length());
+						}
+					}
+					return new String[] { fields[1], size };
+				}
+			}
+		} catch (IOException e) {
+			/* not linux */
+		}
+		return null;
+	}
+
+	/*
+	 * Reads the default huge page size from /proc/meminfo, eg. "Hugepagesize:       2048 kB".
+	 */
+	private static long defaultSize() {
+		try(BufferedReader meminfo = new BufferedReader(new FileReader("/proc/meminfo"))) {
+			for(String line = meminfo.readLine(); line != null; line = meminfo.readLine()) {
+				if(line.startsWith("Hugepagesize:")) {
+					return parseSize(line.substring("Hugepagesize:".length()).replace(" ", ""));
+				}
+			}
+		} catch (IOException e) {
+			/* not linux */
+		}
+		return 2 << 20;
+	}
+
+	/*
+	 * Parses sizes like "2M", "1G" and "2048kB".
+	 */
+	private static long parseSize(final String size) {
+		if(size == null || size.isEmpty()) {
+			return -1;
+		}
+		String digits = size.replaceAll("[^0-9]", "");
+		char unit = Character.toUpperCase(size.charAt(digits.length() < size.length() ? digits.length() : 0));
+		long value = digits.isEmpty() ? -1 : Long.parseLong(digits);
+		switch(unit) {
+		case 'K':
+			return value << 10;
+		case 'M':
+			return value << 20;
+		case 'G':
+			return value << 30;
+		default:
+			return value;
+		}
+	}
+
+}
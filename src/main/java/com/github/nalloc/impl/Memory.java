@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+/**
+ * Source of raw native memory blocks used by heap pointers and arrays.
+ *
+ * @author Antti Laisi
+ */
+interface Memory {
+
+	/**
+	 * Allocates an uninitialized block.
+	 *
+	 * @param bytes Length of block
+	 * @return Address of block
+	 */
+	long allocate(final long bytes);
+
+	/**
+	 * Resizes a block, contents up to the smaller of the two lengths are preserved.
+	 *
+	 * @param address Address of block
+	 * @param bytes Current length of block
+	 * @param newBytes New length of block
+	 * @return Address of resized block
+	 */
+	long reallocate(final long address, final long bytes, final long newBytes);
+
+	/**
+	 * Releases a block.
+	 *
+	 * @param address Address of block
+	 * @param bytes Length of block
+	 */
+	void free(final long address, final long bytes);
+
+}
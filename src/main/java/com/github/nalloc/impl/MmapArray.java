@@ -14,34 +14,81 @@
 
 package com.github.nalloc.impl;
 
+import java.io.File;
 import java.nio.ByteBuffer;
-
-import sun.nio.ch.DirectBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator.Mode;
+import com.github.nalloc.impl.NativeMemoryAccounting.Operation;
 
 /**
  * {@link Array} containing fixed-sized structs in a memory mapped buffer.
  *
  * @author Antti Laisi
  */
-@SuppressWarnings("restriction")
 final class MmapArray<T> extends HeapArray<T> {
 
-	final ByteBuffer buffer;
+	final File file;
+	final Mode mode;
+	ByteBuffer buffer;
+	/* mappings replaced by remap, structs read before the remap may still use them */
+	final List<ByteBuffer> retired = new ArrayList<>();
 
-	MmapArray(final ByteBuffer buffer, final long size, final NativeStruct struct) {
-		super(((DirectBuffer) buffer).address(), size, struct);
+	/**
+	 * @param buffer Mapped buffer
+	 * @param file Mapped file or null if the mapping is not backed by a file
+	 * @param mode Mapping mode
+	 * @param size Size of array
+	 * @param struct Struct instance
+	 * @param structType Class annotated with &#064;Struct
+	 */
+	MmapArray(final ByteBuffer buffer, final File file, final Mode mode, final long size, final NativeStruct struct,
+			final Class<?> structType) {
+		super(DirectBuffers.address(buffer), size, struct, structType);
 		this.buffer = buffer;
+		this.file = file;
+		this.mode = mode;
+	}
+
+	/**
+	 * Replaces the mapped buffer. The previous buffer stays mapped until the array is freed, so
+	 * structs and clones that still point to it access the same file.
+	 *
+	 * @param buffer New mapping
+	 * @param size New size of array
+	 */
+	void remap(final ByteBuffer buffer, final long size) {
+		long oldAddress = address();
+		long oldSize = this.size;
+		retired.add(this.buffer);
+		this.buffer = buffer;
+		this.size = size;
+		address(DirectBuffers.address(buffer));
+		struct.address = address();
+		if(account != null) {
+			account.reallocated(Operation.REMAP, oldAddress, oldSize * msize, address(), size * msize);
+		}
 	}
 
 	@Override
 	public void free() {
-		((DirectBuffer) buffer).cleaner().clean();
+		DirectBuffers.free(buffer);
+		for(ByteBuffer old : retired) {
+			DirectBuffers.free(old);
+		}
+		retired.clear();
+		if(account != null) {
+			account.freed(Operation.UNMAP, address(), size * msize);
+		}
 	}
 
 	@Override
 	public Array<T> clone() {
-		return new MmapArray<>(buffer, size, struct.clone());
+		MmapArray<T> clone = new MmapArray<>(buffer, file, mode, size, struct.clone(), structType);
+		clone.account = account;
+		return clone;
 	}
+
 }
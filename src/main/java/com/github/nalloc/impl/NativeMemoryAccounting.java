@@ -0,0 +1,295 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.github.nalloc.NativeMemoryMXBean;
+
+/**
+ * Process-wide accounting of native memory allocated by {@link UnsafeNativeHeapAllocator} and
+ * {@link DirectBufferMmapAllocator}. When accounting is off, {@link #INSTANCE} is null and allocators
+ * use their memory without wrappers.
+ *
+ * @author Antti Laisi
+ */
+public final class NativeMemoryAccounting implements NativeMemoryMXBean {
+
+	public static final String ACCOUNTING_PROPERTY = "com.github.nalloc.accounting";
+
+	/**
+	 * Accounting of the process, null unless enabled with {@value #ACCOUNTING_PROPERTY}.
+	 */
+	static final NativeMemoryAccounting INSTANCE = load(System.getProperty(ACCOUNTING_PROPERTY));
+
+	/**
+	 * Operations counted by the accounting.
+	 */
+	enum Operation {
+		MALLOC, CALLOC, REALLOC, FREE, MMAP, REMAP, UNMAP
+	}
+
+	private final boolean leakDetection;
+	private final ConcurrentMap<Class<?>, Account> accounts = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, Allocation> allocations = new ConcurrentHashMap<>();
+	private final AtomicLongArray operations = new AtomicLongArray(Operation.values().length);
+	private final AtomicLong liveBytes = new AtomicLong();
+	private final AtomicLong liveAllocations = new AtomicLong();
+	private final AtomicLong peakBytes = new AtomicLong();
+
+	private long[] sampledOperations = new long[Operation.values().length];
+	private long sampledNanos = System.nanoTime();
+
+	/**
+	 * @param leakDetection Record allocation sites of unfreed allocations
+	 */
+	NativeMemoryAccounting(final boolean leakDetection) {
+		this.leakDetection = leakDetection;
+	}
+
+	static NativeMemoryAccounting load(final String level) {
+		if(level == null || level.isEmpty() || level.equals("none")) {
+			return null;
+		}
+		if(!level.equals("stats") && !level.equals("leaks")) {
+			throw new IllegalStateException(ACCOUNTING_PROPERTY + " must be none, stats or leaks: " + level);
+		}
+		NativeMemoryAccounting accounting = new NativeMemoryAccounting(level.equals("leaks"));
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(accounting, new ObjectName(OBJECT_NAME));
+		} catch(JMException e) {
+			throw new IllegalStateException(e);
+		}
+		return accounting;
+	}
+
+	/**
+	 * @param structType Class annotated with &#064;Struct
+	 * @return Account of the struct type shared by all allocators
+	 */
+	Account account(final Class<?> structType) {
+		Account account = accounts.get(structType);
+		if(account == null) {
+			Account created = new Account(structType);
+			account = accounts.putIfAbsent(structType, created);
+			if(account == null) {
+				account = created;
+			}
+		}
+		return account;
+	}
+
+	@Override
+	public long getLiveBytes() {
+		return liveBytes.get();
+	}
+
+	@Override
+	public long getLiveAllocations() {
+		return liveAllocations.get();
+	}
+
+	@Override
+	public long getPeakBytes() {
+		return peakBytes.get();
+	}
+
+	@Override
+	public Map<String, Long> getLiveBytesByStruct() {
+		Map<String, Long> bytes = new LinkedHashMap<>();
+		for(Account account : accounts.values()) {
+			bytes.put(account.structType.getName(), account.liveBytes.get());
+		}
+		return bytes;
+	}
+
+	@Override
+	public Map<String, Long> getLiveAllocationsByStruct() {
+		Map<String, Long> count = new LinkedHashMap<>();
+		for(Account account : accounts.values()) {
+			count.put(account.structType.getName(), account.liveAllocations.get());
+		}
+		return count;
+	}
+
+	@Override
+	public Map<String, Long> getPeakBytesByStruct() {
+		Map<String, Long> bytes = new LinkedHashMap<>();
+		for(Account account : accounts.values()) {
+			bytes.put(account.structType.getName(), account.peakBytes.get());
+		}
+		return bytes;
+	}
+
+	@Override
+	public Map<String, Long> getOperationCounts() {
+		Map<String, Long> counts = new LinkedHashMap<>();
+		for(Operation operation : Operation.values()) {
+			counts.put(operation.name().toLowerCase(), operations.get(operation.ordinal()));
+		}
+		return counts;
+	}
+
+	@Override
+	public synchronized Map<String, Double> getOperationRates() {
+		long now = System.nanoTime();
+		double seconds = Math.max(now - sampledNanos, 1) / 1e9;
+		Map<String, Double> rates = new LinkedHashMap<>();
+		for(Operation operation : Operation.values()) {
+			long count = operations.get(operation.ordinal());
+			rates.put(operation.name().toLowerCase(), (count - sampledOperations[operation.ordinal()]) / seconds);
+			sampledOperations[operation.ordinal()] = count;
+		}
+		sampledNanos = now;
+		return rates;
+	}
+
+	@Override
+	public boolean isLeakDetection() {
+		return leakDetection;
+	}
+
+	@Override
+	public String[] getUnfreedAllocations() {
+		List<String> unfreed = new ArrayList<>();
+		for(Map.Entry<Long, Allocation> allocation : allocations.entrySet()) {
+			StringWriter trace = new StringWriter();
+			allocation.getValue().site.printStackTrace(new PrintWriter(trace));
+			unfreed.add(String.format("%s %d bytes at 0x%X %s", allocation.getValue().account.structType.getName(),
+					allocation.getValue().bytes, allocation.getKey(), trace));
+		}
+		return unfreed.toArray(new String[unfreed.size()]);
+	}
+
+	@Override
+	public void resetPeak() {
+		peakBytes.set(liveBytes.get());
+		for(Account account : accounts.values()) {
+			account.peakBytes.set(account.liveBytes.get());
+		}
+	}
+
+	private static void raise(final AtomicLong peak, final long live) {
+		long current = peak.get();
+		while(live > current && !peak.compareAndSet(current, live)) {
+			current = peak.get();
+		}
+	}
+
+	/**
+	 * Live bytes of a struct type. Updates the totals of the accounting and records allocation sites
+	 * when leak detection is on.
+	 */
+	final class Account {
+
+		final Class<?> structType;
+		final AtomicLong liveBytes = new AtomicLong();
+		final AtomicLong liveAllocations = new AtomicLong();
+		final AtomicLong peakBytes = new AtomicLong();
+
+		Account(final Class<?> structType) {
+			this.structType = structType;
+		}
+
+		/**
+		 * @param operation MALLOC, CALLOC or MMAP
+		 * @param address Address of the new block
+		 * @param bytes Length of the new block
+		 * @param owner Memory that can release the block without freeing it, or null
+		 */
+		void allocated(final Operation operation, final long address, final long bytes, final Object owner) {
+			operations.incrementAndGet(operation.ordinal());
+			change(bytes, 1);
+			if(leakDetection) {
+				allocations.put(address, new Allocation(this, bytes, owner, new Throwable("Allocated")));
+			}
+		}
+
+		/**
+		 * @param operation REALLOC or REMAP
+		 */
+		void reallocated(final Operation operation, final long address, final long bytes, final long newAddress,
+				final long newBytes) {
+			operations.incrementAndGet(operation.ordinal());
+			change(newBytes - bytes, 0);
+			if(leakDetection) {
+				Allocation allocation = allocations.remove(address);
+				if(allocation != null) {
+					allocations.put(newAddress, new Allocation(this, newBytes, allocation.owner, allocation.site));
+				}
+			}
+		}
+
+		/**
+		 * @param operation FREE or UNMAP
+		 */
+		void freed(final Operation operation, final long address, final long bytes) {
+			operations.incrementAndGet(operation.ordinal());
+			change(-bytes, -1);
+			if(leakDetection) {
+				allocations.remove(address);
+			}
+		}
+
+		/**
+		 * Removes blocks that were released all at once by their owner, without counting frees.
+		 */
+		void released(final long bytes, final long count, final Object owner) {
+			change(-bytes, -count);
+			if(leakDetection) {
+				for(Iterator<Allocation> i = allocations.values().iterator(); i.hasNext(); ) {
+					if(i.next().owner == owner) {
+						i.remove();
+					}
+				}
+			}
+		}
+
+		private void change(final long bytes, final long count) {
+			raise(peakBytes, liveBytes.addAndGet(bytes));
+			liveAllocations.addAndGet(count);
+			raise(NativeMemoryAccounting.this.peakBytes, NativeMemoryAccounting.this.liveBytes.addAndGet(bytes));
+			NativeMemoryAccounting.this.liveAllocations.addAndGet(count);
+		}
+	}
+
+	private static final class Allocation {
+		final Account account;
+		final long bytes;
+		final Object owner;
+		final Throwable site;
+
+		Allocation(final Account account, final long bytes, final Object owner, final Throwable site) {
+			this.account = account;
+			this.bytes = bytes;
+			this.owner = owner;
+			this.site = site;
+		}
+	}
+}
@@ -14,10 +14,6 @@
 
 package com.github.nalloc.impl;
 
-import java.lang.reflect.Field;
-
-import com.github.nalloc.Pointer;
-
 /**
  * Base class for generated structs. Instances don't hold state, only a memory address.
  *
@@ -27,13 +23,26 @@ public abstract class NativeStruct {
 
 	protected static final PointerArithmetics POINTERS = PointerArithmetics.INSTANCE;
 
-	// public only for generated classes
-	public static NativeStruct create(Class<? extends NativeStruct> structClass) {
-		try {
-			return structClass.newInstance();
-		} catch (InstantiationException | IllegalAccessException e) {
-			throw new RuntimeException(e);
+	private static final ClassValue<NativeStruct> PROTOTYPES = new ClassValue<NativeStruct>() {
+		@Override
+		protected NativeStruct computeValue(final Class<?> structClass) {
+			try {
+				return (NativeStruct) structClass.newInstance();
+			} catch (InstantiationException | IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
 		}
+	};
+
+	/**
+	 * Creates a struct with the generated factory of a prototype instance. Only the first call for
+	 * a class uses reflection.
+	 *
+	 * @param structClass Generated struct class
+	 * @return New instance
+	 */
+	public static NativeStruct create(final Class<? extends NativeStruct> structClass) {
+		return PROTOTYPES.get(structClass).newInstance();
 	}
 
 	protected long address;
@@ -43,6 +52,20 @@ public abstract class NativeStruct {
 	 */
 	protected abstract long getSize();
 
+	/**
+	 * Generated factory calling the constructor of the struct class directly.
+	 *
+	 * @return New instance with address 0
+	 */
+	protected abstract NativeStruct newInstance();
+
+	/**
+	 * @return true if setters of the struct throw {@link java.nio.ReadOnlyBufferException}
+	 */
+	protected boolean isReadOnly() {
+		return false;
+	}
+
 	/**
 	 * Sets memory address of the struct.
 	 *
@@ -58,26 +81,13 @@ public abstract class NativeStruct {
 	}
 
 	/**
-	 * Creates a deep copy of the instance.
+	 * Creates a deep copy of the instance. Nested structs of the copy are new instances created by
+	 * the generated constructor, they are addressed when accessed.
 	 */
 	@Override
 	protected NativeStruct clone() {
-		NativeStruct clone = NativeStruct.create(getClass());
+		NativeStruct clone = newInstance();
 		clone.address = this.address;
-		for(Field field : getClass().getDeclaredFields()) {
-			field.setAccessible(true);
-			try {
-				Object o = field.get(this);
-				// nested structs
-				if(o instanceof NativeStruct) {
-					field.set(clone, ((NativeStruct) o).clone());
-				} else if (o instanceof Pointer<?>) {
-					field.set(clone, ((Pointer<?>) o).clone());
-				}
-			} catch (IllegalArgumentException | IllegalAccessException e) {
-				throw new RuntimeException(e);
-			}
-		}
 		return clone;
 	}
 
@@ -0,0 +1,468 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+import com.github.nalloc.StructMap;
+
+/**
+ * {@link StructMap} split into segments by the high bits of a 64 bit key hash. Each segment has
+ * an open-addressing index of longs holding the low 32 bits of the hash and the number of an entry.
+ * Entries are kept in chunks of 2^n structs that are never moved, so only the index is rebuilt when
+ * a segment grows. Replaced indexes are freed with the map because lock-free readers may still use them.
+ *
+ * Entries of removed keys are reused by inserts. Each segment counts reused entries, and a lookup
+ * that overlaps a reuse is retried, so a lookup never returns an entry that another key took over
+ * while its key was being compared. Keys are written and compared with ordered and volatile
+ * accesses so that a reader that sees part of a new key also sees the new count.
+ *
+ * Index slots are accessed through the {@link PointerArithmetics} backend. Keys use Unsafe, key fields
+ * of packed structs may be unaligned and the backend has no volatile byte or char accesses.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class NativeStructMap<T> implements StructMap<T> {
+
+	/**
+	 * Allocates zeroed struct arrays for entry chunks.
+	 */
+	interface Chunks {
+		Array<?> allocate(final long nmemb);
+	}
+
+	static final int SEGMENTS = 16;
+	static final long MAX_CHUNK = 1L << 30;
+	static final long MAX_INDEX = 1L << 30;
+	private static final int SEGMENT_SHIFT = 64 - Integer.numberOfTrailingZeros(SEGMENTS);
+	private static final long EMPTY = 0;
+	private static final long DELETED = 1;
+	private static final PointerArithmetics POINTERS = PointerArithmetics.INSTANCE;
+
+	private final Chunks chunks;
+	private final NativeStruct prototype;
+	private final ThreadLocal<NativeStruct> flyweights;
+	private final Type keyType;
+	private final long keyOffset;
+	private final long keyChars;
+	private final long keyBytes;
+	private final boolean c;
+	private final long msize;
+	private final int chunkShift;
+	private final Segment[] segments;
+
+	/**
+	 * @param chunks Allocator of entry chunks
+	 * @param prototype Struct instance
+	 * @param keyField Key field of the struct
+	 * @param keyOffset Offset of key field in bytes
+	 * @param capacity Expected amount of entries
+	 */
+	NativeStructMap(final Chunks chunks, final NativeStruct prototype, final Struct struct, final Field keyField,
+			final long keyOffset, final long capacity) {
+		if(!(keyField.type() == Type.STRING || (keyField.type() == Type.INT || keyField.type() == Type.LONG)
+				&& keyField.len() == 1)) {
+			throw new IllegalArgumentException("Key field must be INT, LONG or STRING: " + keyField.name());
+		}
+		if(capacity < 1) {
+			throw new IllegalArgumentException("capacity must be > 0");
+		}
+		this.chunks = chunks;
+		this.prototype = prototype;
+		this.flyweights = new ThreadLocal<NativeStruct>() {
+			@Override
+			protected NativeStruct initialValue() {
+				return NativeStructMap.this.prototype.clone();
+			}
+		};
+		this.keyType = keyField.type();
+		this.keyOffset = keyOffset;
+		this.c = struct.c();
+		this.keyChars = struct.c() ? keyField.len() - 1 : keyField.len();
+		this.keyBytes = keyField.type() == Type.STRING ? (struct.c() ? keyField.len() : keyField.len() << 1)
+				: keyField.type() == Type.INT ? 4 : 8;
+		this.msize = prototype.getSize();
+
+		long perSegment = Math.max((capacity + SEGMENTS - 1) / SEGMENTS, 8);
+		long chunkSize = Math.min(Long.highestOneBit(perSegment - 1) << 1, Math.max(MAX_CHUNK / msize, 1));
+		this.chunkShift = Long.numberOfTrailingZeros(Long.highestOneBit(chunkSize));
+		long indexSize = Math.min(Long.highestOneBit(perSegment * 4 / 3) << 1, MAX_INDEX);
+		this.segments = newSegments();
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(indexSize);
+		}
+	}
+
+	@Override
+	public T get(final long key) {
+		long hash = hash(checkKey(key));
+		return flyweight(segmentOf(hash).find(hash, key, null));
+	}
+
+	@Override
+	public T get(final String key) {
+		long hash = hash(checkKey(key));
+		return flyweight(segmentOf(hash).find(hash, 0, key));
+	}
+
+	@Override
+	public T put(final long key) {
+		long hash = hash(checkKey(key));
+		return flyweight(segmentOf(hash).put(hash, key, null));
+	}
+
+	@Override
+	public T put(final String key) {
+		long hash = hash(checkKey(key));
+		return flyweight(segmentOf(hash).put(hash, 0, key));
+	}
+
+	@Override
+	public boolean remove(final long key) {
+		long hash = hash(checkKey(key));
+		return segmentOf(hash).remove(hash, key, null);
+	}
+
+	@Override
+	public boolean remove(final String key) {
+		long hash = hash(checkKey(key));
+		return segmentOf(hash).remove(hash, 0, key);
+	}
+
+	@Override
+	public long size() {
+		long size = 0;
+		for(Segment segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	@Override
+	public void free() {
+		for(Segment segment : segments) {
+			segment.free();
+		}
+	}
+
+	@Override
+	public void close() {
+		free();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Segment[] newSegments() {
+		return (Segment[]) new NativeStructMap<?>.Segment[SEGMENTS];
+	}
+
+	@SuppressWarnings("unchecked")
+	private T flyweight(final long address) {
+		if(address == 0) {
+			return null;
+		}
+		NativeStruct struct = flyweights.get();
+		struct.address = address;
+		return (T) struct;
+	}
+
+	private Segment segmentOf(final long hash) {
+		return segments[(int) (hash >>> SEGMENT_SHIFT)];
+	}
+
+	private long checkKey(final long key) {
+		if(keyType == Type.STRING) {
+			throw new IllegalArgumentException("Map is keyed by a STRING field");
+		}
+		if(keyType == Type.INT && (int) key != key) {
+			throw new IllegalArgumentException("Key out of INT range: " + key);
+		}
+		return key;
+	}
+
+	private String checkKey(final String key) {
+		if(keyType != Type.STRING) {
+			throw new IllegalArgumentException("Map is keyed by a " + keyType + " field");
+		}
+		if(key.length() > keyChars) {
+			throw new IllegalArgumentException("Key longer than " + keyChars + " chars: " + key);
+		}
+		return key;
+	}
+
+	private static long hash(final long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		return h ^ (h >>> 33);
+	}
+
+	private static long hash(final String key) {
+		long h = 0;
+		for(int i = 0; i < key.length(); i++) {
+			h = 31 * h + key.charAt(i);
+		}
+		return hash(h);
+	}
+
+	private boolean matches(final long address, final long key, final String string) {
+		long at = address + keyOffset;
+		switch(keyType) {
+		case INT:
+			return UNSAFE.getIntVolatile(null, at) == (int) key;
+		case LONG:
+			return UNSAFE.getLongVolatile(null, at) == key;
+		default:
+			for(int i = 0; i < keyChars; i++) {
+				char expected = i < string.length() ? string.charAt(i) : 0;
+				char actual;
+				if(c) {
+					// C strings hold the low byte of each char, read unsigned
+					expected &= 0xFF;
+					actual = (char) (UNSAFE.getByteVolatile(null, at + i) & 0xFF);
+				} else {
+					actual = UNSAFE.getCharVolatile(null, at + (i << 1));
+				}
+				if(actual != expected) {
+					return false;
+				}
+				if(actual == 0) {
+					return true;
+				}
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * Zeroes the entry and writes the key. Bytes of the key field are not zeroed separately,
+	 * the whole field is written after the reuse count.
+	 */
+	private void setEntry(final long address, final long key, final String string) {
+		UNSAFE.setMemory(address, keyOffset, (byte) 0);
+		UNSAFE.setMemory(address + keyOffset + keyBytes, msize - keyOffset - keyBytes, (byte) 0);
+		long at = address + keyOffset;
+		switch(keyType) {
+		case INT:
+			UNSAFE.putOrderedInt(null, at, (int) key);
+			break;
+		case LONG:
+			UNSAFE.putOrderedLong(null, at, key);
+			break;
+		default:
+			long len = c ? keyBytes : keyBytes >> 1;
+			for(int i = 0; i < len; i++) {
+				char value = i < string.length() ? string.charAt(i) : 0;
+				if(c) {
+					UNSAFE.putByteVolatile(null, at + i, (byte) value);
+				} else {
+					UNSAFE.putCharVolatile(null, at + (i << 1), value);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Open-addressing index of a segment. Slots are 0 when empty, 1 when deleted and otherwise hold
+	 * the low 32 bits of the hash with the highest bit set, followed by the entry number.
+	 */
+	private static final class Index {
+		final long address;
+		final long mask;
+
+		Index(final long capacity) {
+			this.address = UNSAFE.allocateMemory(capacity << 3);
+			this.mask = capacity - 1;
+			UNSAFE.setMemory(address, capacity << 3, (byte) 0);
+		}
+
+		long slot(final long i) {
+			return POINTERS.getLongVolatile(address + (i << 3));
+		}
+
+		void slot(final long i, final long value) {
+			POINTERS.setLongOrdered(address + (i << 3), value);
+		}
+	}
+
+	private final class Segment {
+
+		private volatile Index index;
+		private volatile long[] chunkAddresses = new long[0];
+		private Array<?>[] chunkArrays = new Array<?>[0];
+		private final List<Index> retired = new ArrayList<>();
+		private long[] freeEntries = new long[16];
+		private int freeCount;
+		private long entries;
+		private long used;
+		private volatile long reused;
+		volatile long size;
+
+		Segment(final long indexSize) {
+			this.index = new Index(indexSize);
+		}
+
+		long find(final long hash, final long key, final String string) {
+			for(;;) {
+				long reused = this.reused;
+				long address = probe(hash, key, string);
+				if(reused == this.reused) {
+					return address;
+				}
+			}
+		}
+
+		private long probe(final long hash, final long key, final String string) {
+			Index index = this.index;
+			long tag = tag(hash);
+			for(long i = hash & index.mask; ; i = (i + 1) & index.mask) {
+				long slot = index.slot(i);
+				if(slot == EMPTY) {
+					return 0;
+				}
+				if((slot & 0xFFFFFFFF00000000L) == tag) {
+					long address = entryAddress(slot & 0xFFFFFFFFL);
+					if(matches(address, key, string)) {
+						return address;
+					}
+				}
+			}
+		}
+
+		synchronized long put(final long hash, final long key, final String string) {
+			long found = find(hash, key, string);
+			if(found != 0) {
+				return found;
+			}
+			Index index = this.index;
+			if((used + 1) * 4 > (index.mask + 1) * 3) {
+				index = rehash((size + 1) * 2 > index.mask + 1 ? (index.mask + 1) << 1 : index.mask + 1);
+			}
+			long i = hash & index.mask;
+			long slot;
+			while((slot = index.slot(i)) != EMPTY && slot != DELETED) {
+				i = (i + 1) & index.mask;
+			}
+			if(slot == EMPTY) {
+				used++;
+			}
+			long entry = allocateEntry();
+			long address = entryAddress(entry);
+			setEntry(address, key, string);
+			index.slot(i, tag(hash) | entry);
+			size++;
+			return address;
+		}
+
+		synchronized boolean remove(final long hash, final long key, final String string) {
+			Index index = this.index;
+			long tag = tag(hash);
+			for(long i = hash & index.mask; ; i = (i + 1) & index.mask) {
+				long slot = index.slot(i);
+				if(slot == EMPTY) {
+					return false;
+				}
+				if((slot & 0xFFFFFFFF00000000L) == tag && matches(entryAddress(slot & 0xFFFFFFFFL), key, string)) {
+					index.slot(i, DELETED);
+					if(freeCount == freeEntries.length) {
+						freeEntries = Arrays.copyOf(freeEntries, freeCount << 1);
+					}
+					freeEntries[freeCount++] = slot & 0xFFFFFFFFL;
+					size--;
+					return true;
+				}
+			}
+		}
+
+		synchronized void free() {
+			for(Array<?> chunk : chunkArrays) {
+				chunk.free();
+			}
+			for(Index old : retired) {
+				UNSAFE.freeMemory(old.address);
+			}
+			UNSAFE.freeMemory(index.address);
+			chunkArrays = new Array<?>[0];
+			chunkAddresses = new long[0];
+			retired.clear();
+		}
+
+		private Index rehash(final long capacity) {
+			if(capacity > MAX_INDEX) {
+				throw new IllegalStateException("Map segment is full");
+			}
+			Index old = this.index;
+			Index index = new Index(capacity);
+			for(long i = 0; i <= old.mask; i++) {
+				long slot = old.slot(i);
+				if(slot != EMPTY && slot != DELETED) {
+					long j = (slot >>> 32) & index.mask;
+					while(index.slot(j) != EMPTY) {
+						j = (j + 1) & index.mask;
+					}
+					index.slot(j, slot);
+				}
+			}
+			retired.add(old);
+			used = size;
+			this.index = index;
+			return index;
+		}
+
+		private long allocateEntry() {
+			long entry;
+			if(freeCount > 0) {
+				entry = freeEntries[--freeCount];
+				reused++;
+			} else {
+				if(entries > 0xFFFFFFFFL) {
+					throw new IllegalStateException("Map segment is full");
+				}
+				entry = entries++;
+				if(entry >>> chunkShift == chunkArrays.length) {
+					addChunk();
+				}
+			}
+			return entry;
+		}
+
+		private void addChunk() {
+			Array<?> chunk = chunks.allocate(1L << chunkShift);
+			chunkArrays = Arrays.copyOf(chunkArrays, chunkArrays.length + 1);
+			chunkArrays[chunkArrays.length - 1] = chunk;
+			long[] addresses = Arrays.copyOf(chunkAddresses, chunkAddresses.length + 1);
+			addresses[addresses.length - 1] = chunk.address();
+			chunkAddresses = addresses;
+		}
+
+		private long entryAddress(final long entry) {
+			return chunkAddresses[(int) (entry >>> chunkShift)] + (entry & ((1L << chunkShift) - 1)) * msize;
+		}
+
+		private long tag(final long hash) {
+			return (hash | 0x80000000L) << 32;
+		}
+	}
+}
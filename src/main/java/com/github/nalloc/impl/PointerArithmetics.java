@@ -1,115 +1,334 @@
 package com.github.nalloc.impl;
 
-import static sun.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET;
-import static sun.misc.Unsafe.ARRAY_CHAR_BASE_OFFSET;
-import static sun.misc.Unsafe.ARRAY_INT_BASE_OFFSET;
-import static sun.misc.Unsafe.ARRAY_LONG_BASE_OFFSET;
-
 import java.lang.reflect.Field;
 
 import sun.misc.Unsafe;
 
 /**
- * Utility methods for direct memory access.
+ * Utility methods for direct memory access used by generated structs. Primitive and bulk accesses
+ * are implemented by a backend, strings, bitfields and array helpers are built on them.
+ *
+ * The backend is {@link UnsafePointerArithmetics} unless system property
+ * <code>com.github.nalloc.access</code> names another subclass with a public no-arg constructor.
+ * The backend is chosen once, so calls through {@link #INSTANCE} are inlined by the JIT.
  */
 @SuppressWarnings("restriction")
-public enum PointerArithmetics {
+public abstract class PointerArithmetics {
 
-	INSTANCE;
+	public static final String BACKEND_PROPERTY = "com.github.nalloc.access";
 
 	static final Unsafe UNSAFE;
-	private static final long STRING_VALUE_OFFSET;
 
 	static {
 		try {
 			Field theUnsafe = Unsafe.class.getDeclaredField("theUnsafe");
 			theUnsafe.setAccessible(true);
 			UNSAFE = (Unsafe) theUnsafe.get(null);
-			STRING_VALUE_OFFSET = UNSAFE.objectFieldOffset(String.class.getDeclaredField("value"))
-					+ ARRAY_CHAR_BASE_OFFSET
-					+ 12; // TODO: is this constant?
 		} catch(Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	public final long getLong(final long address) {
-		return UNSAFE.getLong(address);
-	}
-	public final int getInt(final long address) {
-		return UNSAFE.getInt(address);
-	}
-	public final char getChar(final long address) {
-		return UNSAFE.getChar(address);
+	public static final PointerArithmetics INSTANCE = load(System.getProperty(BACKEND_PROPERTY));
+
+	protected PointerArithmetics() {
 	}
-	public final byte getByte(final long address) {
-		return UNSAFE.getByte(address);
+
+	static PointerArithmetics load(final String className) {
+		if(className == null) {
+			return new UnsafePointerArithmetics();
+		}
+		try {
+			return (PointerArithmetics) Class.forName(className).newInstance();
+		} catch(ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalStateException("Invalid " + BACKEND_PROPERTY + ": " + className, e);
+		}
 	}
 
+	// backend
+
+	public abstract byte getByte(final long address);
+	public abstract short getShort(final long address);
+	public abstract char getChar(final long address);
+	public abstract int getInt(final long address);
+	public abstract long getLong(final long address);
+	public abstract float getFloat(final long address);
+	public abstract double getDouble(final long address);
+
+	public abstract void setByte(final long address, final byte value);
+	public abstract void setShort(final long address, final short value);
+	public abstract void setChar(final long address, final char value);
+	public abstract void setInt(final long address, final int value);
+	public abstract void setLong(final long address, final long value);
+	public abstract void setFloat(final long address, final float value);
+	public abstract void setDouble(final long address, final double value);
+
+	public abstract int getIntVolatile(final long address);
+	public abstract long getLongVolatile(final long address);
+	public abstract void setIntVolatile(final long address, final int value);
+	public abstract void setLongVolatile(final long address, final long value);
+	public abstract void setIntOrdered(final long address, final int value);
+	public abstract void setLongOrdered(final long address, final long value);
+	public abstract boolean compareAndSetInt(final long address, final int expect, final int update);
+	public abstract boolean compareAndSetLong(final long address, final long expect, final long update);
+
+	// bulk copies of n elements between native memory and arrays
+
+	protected abstract void read(final long address, final byte[] dest, final int n);
+	protected abstract void read(final long address, final short[] dest, final int n);
+	protected abstract void read(final long address, final char[] dest, final int n);
+	protected abstract void read(final long address, final int[] dest, final int n);
+	protected abstract void read(final long address, final long[] dest, final int n);
+	protected abstract void read(final long address, final float[] dest, final int n);
+	protected abstract void read(final long address, final double[] dest, final int n);
+
+	protected abstract void write(final long address, final byte[] src, final int n);
+	protected abstract void write(final long address, final short[] src, final int n);
+	protected abstract void write(final long address, final char[] src, final int n);
+	protected abstract void write(final long address, final int[] src, final int n);
+	protected abstract void write(final long address, final long[] src, final int n);
+	protected abstract void write(final long address, final float[] src, final int n);
+	protected abstract void write(final long address, final double[] src, final int n);
+
+	// arrays
+
 	public final byte[] getBytes(final long address, final long len) {
 		byte[] bytes = new byte[(int) len];
-		UNSAFE.copyMemory(null, address, bytes, ARRAY_BYTE_BASE_OFFSET, len);
+		read(address, bytes, bytes.length);
 		return bytes;
 	}
 	public final char[] getChars(final long address, final long len) {
 		char[] chars = new char[(int) len];
-		UNSAFE.copyMemory(null, address, chars, ARRAY_CHAR_BASE_OFFSET, len << 1);
+		read(address, chars, chars.length);
 		return chars;
 	}
+	public final short[] getShorts(final long address, final long len) {
+		short[] shorts = new short[(int) len];
+		read(address, shorts, shorts.length);
+		return shorts;
+	}
 	public final int[] getInts(final long address, final long len) {
 		int[] ints = new int[(int) len];
-		UNSAFE.copyMemory(null, address, ints, ARRAY_INT_BASE_OFFSET, len << 2);
+		read(address, ints, ints.length);
 		return ints;
 	}
 	public final long[] getLongs(final long address, final long len) {
 		long[] longs = new long[(int) len];
-		UNSAFE.copyMemory(null, address, longs, ARRAY_LONG_BASE_OFFSET, len << 3);
+		read(address, longs, longs.length);
 		return longs;
 	}
+	public final float[] getFloats(final long address, final long len) {
+		float[] floats = new float[(int) len];
+		read(address, floats, floats.length);
+		return floats;
+	}
+	public final double[] getDoubles(final long address, final long len) {
+		double[] doubles = new double[(int) len];
+		read(address, doubles, doubles.length);
+		return doubles;
+	}
 	public final String getString(final long address, final long len) {
 		char[] chars = new char[(int) len];
-		UNSAFE.copyMemory(null, address, chars, ARRAY_CHAR_BASE_OFFSET, len << 1);
+		read(address, chars, chars.length);
 		return new String(chars);
 	}
 
-	public final void setByte(final long address, final byte value) {
-		UNSAFE.putByte(address, value);
-	}
-	public final void setChar(final long address, final char value) {
-		UNSAFE.putChar(address, value);
-	}
-	public final void setInt(final long address, final int value) {
-		UNSAFE.putInt(address, value);
-	}
-	public final void setLong(final long address, final long value) {
-		UNSAFE.putLong(address, value);
-	}
-
 	public final void setBytes(final long address, final byte[] bytes, final long len) {
-		UNSAFE.copyMemory(bytes, ARRAY_BYTE_BASE_OFFSET, null, address, len);
+		write(address, bytes, (int) len);
 	}
 	public final void setChars(final long address, final char[] chars, final long len) {
-		UNSAFE.copyMemory(chars, ARRAY_CHAR_BASE_OFFSET, null, address, len << 1);
+		write(address, chars, (int) len);
+	}
+	public final void setShorts(final long address, final short[] shorts, final long len) {
+		write(address, shorts, (int) len);
 	}
 	public final void setInts(final long address, final int[] ints, final long len) {
-		UNSAFE.copyMemory(ints, ARRAY_INT_BASE_OFFSET, null, address, len << 2);
+		write(address, ints, (int) len);
 	}
 	public final void setLongs(final long address, final long[] longs, final long len) {
-		UNSAFE.copyMemory(longs, ARRAY_LONG_BASE_OFFSET, null, address, len << 3);
+		write(address, longs, (int) len);
 	}
+	public final void setFloats(final long address, final float[] floats, final long len) {
+		write(address, floats, (int) len);
+	}
+	public final void setDoubles(final long address, final double[] doubles, final long len) {
+		write(address, doubles, (int) len);
+	}
+	/*
+	 * Chars are read through charAt, which works with any internal representation of String.
+	 * Chars past the end of the string are set to 0.
+	 */
 	public final void setString(final long address, final String string, final long len) {
-		UNSAFE.copyMemory(string, STRING_VALUE_OFFSET, null, address, len << 1);
+		int n = (int) Math.min(len, string.length());
+		for(int i = 0; i < n; i++) {
+			setChar(address + ((long) i << 1), string.charAt(i));
+		}
+		for(long i = n; i < len; i++) {
+			setChar(address + (i << 1), (char) 0);
+		}
+	}
+
+	// booleans
+
+	public final boolean getBoolean(final long address) {
+		return getByte(address) != 0;
+	}
+	public final boolean[] getBooleans(final long address, final long len) {
+		boolean[] booleans = new boolean[(int) len];
+		for(int i = 0; i < len; i++) {
+			booleans[i] = getByte(address + i) != 0;
+		}
+		return booleans;
+	}
+	public final void setBoolean(final long address, final boolean value) {
+		setByte(address, value ? (byte) 1 : (byte) 0);
+	}
+	public final void setBooleans(final long address, final boolean[] booleans, final long len) {
+		for(int i = 0; i < len; i++) {
+			setByte(address + i, booleans[i] ? (byte) 1 : (byte) 0);
+		}
+	}
+
+	// copies to caller supplied arrays, return amount of elements copied
+
+	public final int copyBytes(final long address, final long len, final byte[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyChars(final long address, final long len, final char[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyShorts(final long address, final long len, final short[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyInts(final long address, final long len, final int[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyFloats(final long address, final long len, final float[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyLongs(final long address, final long len, final long[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyDoubles(final long address, final long len, final double[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int copyBooleans(final long address, final long len, final boolean[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		for(int i = 0; i < n; i++) {
+			dest[i] = getByte(address + i) != 0;
+		}
+		return n;
+	}
+
+	// strings up to the first 0 char without allocating
+
+	public final int getStringLength(final long address, final long len) {
+		int i = 0;
+		while(i < len && getChar(address + ((long) i << 1)) != 0) {
+			i++;
+		}
+		return i;
+	}
+	public final int copyString(final long address, final long len, final char[] dest) {
+		int n = Math.min(getStringLength(address, len), dest.length);
+		read(address, dest, n);
+		return n;
+	}
+	public final int appendString(final long address, final long len, final StringBuilder dest) {
+		int n = getStringLength(address, len);
+		dest.ensureCapacity(dest.length() + n);
+		for(int i = 0; i < n; i++) {
+			dest.append(getChar(address + ((long) i << 1)));
+		}
+		return n;
+	}
+	public final boolean equalsString(final long address, final long len, final String string) {
+		int n = string.length();
+		if(n > len) {
+			return false;
+		}
+		for(int i = 0; i < n; i++) {
+			if(getChar(address + ((long) i << 1)) != string.charAt(i)) {
+				return false;
+			}
+		}
+		return n == len || getChar(address + ((long) n << 1)) == 0;
+	}
+
+	// bitfields, read-modify-write of the word holding the field
+
+	public final long getBits(final long address, final int word, final int shift, final long mask) {
+		return (getWord(address, word) >>> shift) & mask;
+	}
+	public final void setBits(final long address, final int word, final int shift, final long mask, final long value) {
+		long bits = getWord(address, word) & ~(mask << shift) | (value & mask) << shift;
+		switch(word) {
+		case 1:
+			setByte(address, (byte) bits);
+			break;
+		case 2:
+			setShort(address, (short) bits);
+			break;
+		case 4:
+			setInt(address, (int) bits);
+			break;
+		default:
+			setLong(address, bits);
+		}
+	}
+	private long getWord(final long address, final int word) {
+		switch(word) {
+		case 1:
+			return getByte(address) & 0xFFL;
+		case 2:
+			return getShort(address) & 0xFFFFL;
+		case 4:
+			return getInt(address) & 0xFFFFFFFFL;
+		default:
+			return getLong(address);
+		}
+	}
+
+	// atomic
+
+	public final int getAndAddInt(final long address, final int delta) {
+		int value;
+		do {
+			value = getIntVolatile(address);
+		} while(!compareAndSetInt(address, value, value + delta));
+		return value;
+	}
+	public final long getAndAddLong(final long address, final long delta) {
+		long value;
+		do {
+			value = getLongVolatile(address);
+		} while(!compareAndSetLong(address, value, value + delta));
+		return value;
 	}
 
 	// C
 
 	public final char getAnsiCChar(final long address) {
-		return (char) UNSAFE.getByte(address);
+		return (char) (getByte(address) & 0xFF);
 	}
 	public final char[] getAnsiCChars(final long address, final long len) {
 		char[] chars = new char[(int) len];
 		for(int i = 0; i < len; i++) {
-			chars[i] = (char) UNSAFE.getByte(address + i);
+			chars[i] = (char) (getByte(address + i) & 0xFF);
 		}
 		return chars;
 	}
@@ -117,29 +336,70 @@ public enum PointerArithmetics {
 		char[] chars = new char[(int) len];
 		int i = 0;
 		for(; i < len-1; i++) {
-			byte b = UNSAFE.getByte(address + i);
+			byte b = getByte(address + i);
 			if(b == 0) {
 				break;
 			}
-			chars[i] = (char) b;
+			chars[i] = (char) (b & 0xFF);
 		}
 		return new String(chars, 0, i);
 	}
+	public final int copyAnsiCChars(final long address, final long len, final char[] dest) {
+		int n = (int) Math.min(len, dest.length);
+		for(int i = 0; i < n; i++) {
+			dest[i] = (char) (getByte(address + i) & 0xFF);
+		}
+		return n;
+	}
+	public final int getAnsiCStringLength(final long address, final long len) {
+		int i = 0;
+		while(i < len - 1 && getByte(address + i) != 0) {
+			i++;
+		}
+		return i;
+	}
+	public final int copyAnsiCString(final long address, final long len, final char[] dest) {
+		int n = Math.min(getAnsiCStringLength(address, len), dest.length);
+		for(int i = 0; i < n; i++) {
+			dest[i] = (char) (getByte(address + i) & 0xFF);
+		}
+		return n;
+	}
+	public final int appendAnsiCString(final long address, final long len, final StringBuilder dest) {
+		int n = getAnsiCStringLength(address, len);
+		dest.ensureCapacity(dest.length() + n);
+		for(int i = 0; i < n; i++) {
+			dest.append((char) (getByte(address + i) & 0xFF));
+		}
+		return n;
+	}
+	public final boolean equalsAnsiCString(final long address, final long len, final String string) {
+		int n = string.length();
+		if(n > len - 1) {
+			return false;
+		}
+		for(int i = 0; i < n; i++) {
+			if((char) (getByte(address + i) & 0xFF) != string.charAt(i)) {
+				return false;
+			}
+		}
+		return n == len - 1 || getByte(address + n) == 0;
+	}
 
 	public final void setAnsiCChar(final long address, final char value) {
-		UNSAFE.putByte(address, (byte) value);
+		setByte(address, (byte) value);
 	}
 	public final void setAnsiCChars(final long address, final char[] chars, final long len) {
 		for(int i = 0; i < len && i < chars.length; i++) {
-			UNSAFE.putByte(address + i, (byte) chars[i]);
+			setByte(address + i, (byte) chars[i]);
 		}
 	}
 	public final void setAnsiCString(final long address, final String string, final long len) {
 		int i = 0;
 		for(; i < len-1 && i < string.length(); i++) {
-			UNSAFE.putByte(address + i, (byte) string.charAt(i));
+			setByte(address + i, (byte) string.charAt(i));
 		}
-		UNSAFE.putByte(address + i, (byte) 0);
+		setByte(address + i, (byte) 0);
 	}
 
 }
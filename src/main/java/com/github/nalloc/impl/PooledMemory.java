@@ -0,0 +1,182 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.util.Arrays;
+
+/**
+ * {@link Memory} that keeps freed blocks of registered sizes in per-size free lists and hands them
+ * out again instead of calling the system allocator. Blocks of other sizes and blocks freed when the
+ * free list is full go straight to the system allocator.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class PooledMemory implements Memory {
+
+	private final int maxPooled;
+
+	private volatile long[] sizes = new long[0];
+	private volatile SizeClass[] classes = new SizeClass[0];
+
+	/**
+	 * @param maxPooled Maximum amount of free blocks kept per size
+	 */
+	PooledMemory(final int maxPooled) {
+		if(maxPooled < 0) {
+			throw new IllegalArgumentException("maxPooled must be >= 0");
+		}
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Adds a free list for blocks of given size. Must be called before the memory is shared.
+	 *
+	 * @param bytes Block length
+	 */
+	void addSizeClass(final long bytes) {
+		if(indexOf(bytes) >= 0) {
+			return;
+		}
+		SizeClass[] newClasses = Arrays.copyOf(classes, classes.length + 1);
+		newClasses[classes.length] = new SizeClass(maxPooled);
+		classes = newClasses;
+		long[] newSizes = Arrays.copyOf(sizes, sizes.length + 1);
+		newSizes[sizes.length] = bytes;
+		sizes = newSizes;
+	}
+
+	@Override
+	public long allocate(final long bytes) {
+		int index = indexOf(bytes);
+		if(index >= 0) {
+			long address = classes[index].pop();
+			if(address != 0) {
+				return address;
+			}
+		}
+		return UNSAFE.allocateMemory(bytes);
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		return UNSAFE.reallocateMemory(address, newBytes);
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		int index = indexOf(bytes);
+		if(index < 0 || !classes[index].push(address)) {
+			UNSAFE.freeMemory(address);
+		}
+	}
+
+	/**
+	 * @param bytes Block length
+	 * @return Amount of free blocks currently pooled for the size
+	 */
+	int pooled(final long bytes) {
+		int index = indexOf(bytes);
+		return index < 0 ? 0 : classes[index].count();
+	}
+
+	/**
+	 * Moves up to n free blocks of a size class to the given array.
+	 *
+	 * @param index Size class index
+	 * @param blocks Destination for block addresses, filled from index 0
+	 * @param n Maximum amount of blocks to take
+	 * @return Amount of blocks taken
+	 */
+	int take(final int index, final long[] blocks, final int n) {
+		return classes[index].take(blocks, n);
+	}
+
+	/**
+	 * Moves free blocks of a size class from the given array to the free list. Blocks that
+	 * don't fit in the free list are returned to the system allocator.
+	 *
+	 * @param index Size class index
+	 * @param blocks Source of block addresses
+	 * @param from First block in the array
+	 * @param n Amount of blocks
+	 */
+	void give(final int index, final long[] blocks, final int from, final int n) {
+		int given = classes[index].give(blocks, from, n);
+		for(int i = from + given; i < from + n; i++) {
+			UNSAFE.freeMemory(blocks[i]);
+		}
+	}
+
+	/**
+	 * @param bytes Block length
+	 * @return Size class index or -1 if blocks of the length are not pooled
+	 */
+	int indexOf(final long bytes) {
+		long[] sizes = this.sizes;
+		for(int i = 0; i < sizes.length; i++) {
+			if(sizes[i] == bytes) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Bounded stack of free block addresses.
+	 */
+	private static final class SizeClass {
+
+		private final long[] blocks;
+		private int count;
+
+		SizeClass(final int capacity) {
+			blocks = new long[capacity];
+		}
+
+		synchronized long pop() {
+			return count == 0 ? 0 : blocks[--count];
+		}
+
+		synchronized boolean push(final long address) {
+			if(count == blocks.length) {
+				return false;
+			}
+			blocks[count++] = address;
+			return true;
+		}
+
+		synchronized int take(final long[] into, final int n) {
+			int taken = Math.min(n, count);
+			count -= taken;
+			System.arraycopy(blocks, count, into, 0, taken);
+			return taken;
+		}
+
+		synchronized int give(final long[] from, final int offset, final int n) {
+			int given = Math.min(n, blocks.length - count);
+			System.arraycopy(from, offset, blocks, count, given);
+			count += given;
+			return given;
+		}
+
+		synchronized int count() {
+			return count;
+		}
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import com.github.nalloc.NativeHeapAllocator;
+
+/**
+ * {@link NativeHeapAllocator} implementation that pools freed struct sized blocks, optionally
+ * with thread-local caches in front of the shared pool.
+ *
+ * @author Antti Laisi
+ */
+public class PooledNativeHeapAllocator extends UnsafeNativeHeapAllocator {
+
+	public PooledNativeHeapAllocator(final int maxPooled, final Class<?>... structTypes) {
+		this(new PooledMemory(maxPooled), 0, structTypes);
+	}
+
+	public PooledNativeHeapAllocator(final int maxPooled, final int batchSize, final Class<?>... structTypes) {
+		this(new PooledMemory(maxPooled), batchSize, structTypes);
+	}
+
+	private PooledNativeHeapAllocator(final PooledMemory pool, final int batchSize, final Class<?>... structTypes) {
+		super(batchSize == 0 ? pool : new ThreadCachedMemory(pool, batchSize), structTypes);
+		for(Class<?> structType : implementations.keySet()) {
+			StructLayout layout = StructLayout.of(structType);
+			int alignment = layout.struct.align();
+			pool.addSizeClass(alignment > 1 ? AlignedMemory.blockLength(layout.size, alignment) : layout.size);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Faults in the pages of mapped buffers by reading a byte from each page. Work is split into
+ * chunks that threads take in order, so a slow region doesn't leave other threads idle.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class Prefaulter implements Runnable {
+
+	private static final long CHUNK = 1 << 20;
+	private static final int PAGE = UNSAFE.pageSize();
+
+	static volatile long sink;
+
+	private final long[] addresses;
+	private final long[] lengths;
+	private final long total;
+	private final AtomicLong next = new AtomicLong();
+	private final AtomicLong pages = new AtomicLong();
+
+	/**
+	 * @param buffers Mapped buffers to fault in
+	 */
+	Prefaulter(final ByteBuffer... buffers) {
+		addresses = new long[buffers.length];
+		lengths = new long[buffers.length];
+		long total = 0;
+		for(int i = 0; i < buffers.length; i++) {
+			addresses[i] = DirectBuffers.address(buffers[i]);
+			lengths[i] = buffers[i].capacity();
+			total += lengths[i];
+		}
+		this.total = total;
+	}
+
+	/**
+	 * Faults in all pages using the given amount of threads, the calling thread is one of them.
+	 * Returns when all pages are faulted in.
+	 *
+	 * @param threads Amount of threads
+	 * @return Amount of pages touched
+	 */
+	long prefault(final int threads) {
+		if(threads < 1) {
+			throw new IllegalArgumentException("threads must be > 0");
+		}
+		Thread[] helpers = new Thread[threads - 1];
+		for(int i = 0; i < helpers.length; i++) {
+			helpers[i] = new Thread(this, "nalloc-prefault-" + i);
+			helpers[i].setDaemon(true);
+			helpers[i].start();
+		}
+		run();
+		boolean interrupted = false;
+		for(Thread helper : helpers) {
+			for(;;) {
+				try {
+					helper.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return pages.get();
+	}
+
+	/**
+	 * Faults in chunks until all are taken.
+	 */
+	@Override
+	public void run() {
+		long sum = 0;
+		long touched = 0;
+		for(long chunk = next.getAndAdd(CHUNK); chunk < total; chunk = next.getAndAdd(CHUNK)) {
+			long end = Math.min(chunk + CHUNK, total);
+			long offset = 0;
+			for(int i = 0; i < addresses.length && offset < end; offset += lengths[i++]) {
+				long from = Math.max(chunk, offset);
+				long to = Math.min(end, offset + lengths[i]);
+				long limit = addresses[i] + to - offset;
+				for(long page = (addresses[i] + from - offset) & -PAGE; page < limit; page += PAGE) {
+					sum += UNSAFE.getByte(Math.max(page, addresses[i]));
+					touched++;
+				}
+			}
+		}
+		pages.addAndGet(touched);
+		sink = sum;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator.Mode;
+import com.github.nalloc.impl.NativeMemoryAccounting.Operation;
+
+/**
+ * {@link Array} containing fixed-sized structs in several memory mapped buffers. Each buffer
+ * holds the same power of two amount of structs (except the last one), so no struct spans two
+ * buffers and the buffer of an index is found with a shift.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class SegmentedMmapArray<T> extends HeapArray<T> {
+
+	final File file;
+	final Mode mode;
+	final int shift;
+	private final long mask;
+	ByteBuffer[] buffers;
+	private long[] addresses;
+	/* mappings replaced by remap, structs read before the remap may still use them */
+	final List<ByteBuffer> retired = new ArrayList<>();
+
+	/**
+	 * @param buffers Mapped segments, each except the last containing 2^shift structs
+	 * @param file Mapped file or null if the mapping is not backed by a file
+	 * @param mode Mapping mode
+	 * @param shift Log2 of structs per segment
+	 * @param size Size of array
+	 * @param struct Struct instance
+	 * @param structType Class annotated with &#064;Struct
+	 */
+	SegmentedMmapArray(final ByteBuffer[] buffers, final File file, final Mode mode, final int shift, final long size,
+			final NativeStruct struct, final Class<?> structType) {
+		super(DirectBuffers.address(buffers[0]), size, struct, structType);
+		this.file = file;
+		this.mode = mode;
+		this.shift = shift;
+		this.mask = (1L << shift) - 1;
+		this.buffers = buffers;
+		this.addresses = addresses(buffers);
+	}
+
+	/**
+	 * Replaces the mapped segments. Segments that are not part of the new mapping stay mapped until
+	 * the array is freed, so structs and clones that still point to them access the same file.
+	 *
+	 * @param buffers New segments
+	 * @param size New size of array
+	 */
+	void remap(final ByteBuffer[] buffers, final long size) {
+		long oldAddress = address();
+		long oldSize = this.size;
+		for(ByteBuffer buffer : this.buffers) {
+			if(!contains(buffers, buffer)) {
+				retired.add(buffer);
+			}
+		}
+		this.buffers = buffers;
+		this.addresses = addresses(buffers);
+		this.size = size;
+		super.address(addresses[0]);
+		struct.address = addresses[0];
+		if(account != null) {
+			account.reallocated(Operation.REMAP, oldAddress, oldSize * msize, address(), size * msize);
+		}
+	}
+
+	/**
+	 * Calculates how many structs fit in a segment.
+	 *
+	 * @param structSize Length of struct in bytes
+	 * @param maxSegment Maximum length of segment in bytes
+	 * @return Log2 of structs per segment
+	 */
+	static int segmentShift(final long structSize, final long maxSegment) {
+		if(structSize > maxSegment) {
+			throw new IllegalArgumentException("Struct does not fit in a segment of " + maxSegment + " bytes");
+		}
+		return 63 - Long.numberOfLeadingZeros(maxSegment / structSize);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(final long index) {
+		struct.address = addresses[(int) (index >>> shift)] + (index & mask) * msize;
+		return (T) struct;
+	}
+
+	@Override
+	long addressOf(final long index) {
+		return addresses[(int) (index >>> shift)] + (index & mask) * msize;
+	}
+
+	@Override
+	long contiguousFrom(final long index) {
+		return Math.min(size, ((index >>> shift) + 1) << shift) - index;
+	}
+
+	@Override
+	long contiguousBefore(final long end) {
+		return end - ((end - 1) >>> shift << shift);
+	}
+
+	@Override
+	public T clear(final long index) {
+		if(struct.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		T cleared = get(index);
+		UNSAFE.setMemory(struct.address, msize, (byte) 0);
+		return cleared;
+	}
+
+	@Override
+	public void address(final long address) {
+		throw new UnsupportedOperationException("Segmented arrays can't be moved");
+	}
+
+	@Override
+	public void free() {
+		for(ByteBuffer buffer : buffers) {
+			DirectBuffers.free(buffer);
+		}
+		for(ByteBuffer old : retired) {
+			DirectBuffers.free(old);
+		}
+		retired.clear();
+		if(account != null) {
+			account.freed(Operation.UNMAP, address(), size * msize);
+		}
+	}
+
+	@Override
+	public Array<T> clone() {
+		SegmentedMmapArray<T> clone = new SegmentedMmapArray<>(buffers, file, mode, shift, size, struct.clone(), structType);
+		clone.account = account;
+		return clone;
+	}
+
+	private static long[] addresses(final ByteBuffer[] buffers) {
+		long[] addresses = new long[buffers.length];
+		for(int i = 0; i < buffers.length; i++) {
+			addresses[i] = DirectBuffers.address(buffers[i]);
+		}
+		return addresses;
+	}
+
+	private static boolean contains(final ByteBuffer[] buffers, final ByteBuffer buffer) {
+		for(ByteBuffer b : buffers) {
+			if(b == buffer) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
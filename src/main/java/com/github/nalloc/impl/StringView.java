@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+
+/**
+ * Reusable {@link CharSequence} over a STRING field in native memory. The view reads the field on
+ * every call, it is repointed by the generated accessor and must not be stored. The string ends at
+ * the first 0 char. {@link #charAt(int)} checks the index against the field length only.
+ *
+ * @author Antti Laisi
+ */
+public final class StringView implements CharSequence {
+
+	private static final PointerArithmetics POINTERS = PointerArithmetics.INSTANCE;
+
+	private final long len;
+	private final boolean c;
+	private long address;
+
+	/**
+	 * @param len Length of the field in chars
+	 * @param c Field stores single byte chars and a null terminator
+	 */
+	public StringView(final long len, final boolean c) {
+		this.len = len;
+		this.c = c;
+	}
+
+	/**
+	 * @param address Address of the field
+	 * @return This view
+	 */
+	public CharSequence wrap(final long address) {
+		this.address = address;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return c ? POINTERS.getAnsiCStringLength(address, len) : POINTERS.getStringLength(address, len);
+	}
+
+	@Override
+	public char charAt(final int index) {
+		if(index < 0 || index >= (c ? len - 1 : len)) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return c ? POINTERS.getAnsiCChar(address + index) : POINTERS.getChar(address + ((long) index << 1));
+	}
+
+	@Override
+	public CharSequence subSequence(final int start, final int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return c ? POINTERS.getAnsiCString(address, len) : POINTERS.getString(address, length());
+	}
+}
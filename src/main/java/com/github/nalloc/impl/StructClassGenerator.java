@@ -14,364 +14,235 @@
 
 package com.github.nalloc.impl;
 
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import javassist.ByteArrayClassPath;
 import javassist.CannotCompileException;
 import javassist.ClassClassPath;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtField;
+import javassist.CtNewConstructor;
 import javassist.CtNewMethod;
 import javassist.NotFoundException;
 
-import com.github.nalloc.Array;
-import com.github.nalloc.Struct;
 import com.github.nalloc.Struct.Field;
 import com.github.nalloc.Struct.Type;
 
 /**
- * Generates implementing classes for struct interfaces.
+ * Finds implementing classes for struct interfaces. Classes generated at build time by
+ * {@link StructProcessor} are preferred, other structs are generated at runtime with Javassist.
+ * <p>
+ * Implementations are shared by all allocators of the process. Each class is generated at most once,
+ * classes of different structs can be generated concurrently.
  *
  * @author Antti Laisi
  */
 final class StructClassGenerator {
 
-	private final ClassPool classes;
+	private static final ClassValue<Implementations> IMPLEMENTATIONS = new ClassValue<Implementations>() {
+		@Override
+		protected Implementations computeValue(final Class<?> definitionClass) {
+			return new Implementations(definitionClass);
+		}
+	};
 
-	/**
-	 * Creates a new generator.
-	 *
-	 * @param definitions Struct interfaces
+	/*
+	 * Java 9+ defines classes with a private lookup into the package of the definition, ClassLoader.defineClass
+	 * used by Javassist isn't accessible there.
 	 */
-	StructClassGenerator(final Class<?>... definitions) {
-		ClassPool.doPruning = true;
-		classes = new ClassPool(false);
-		classes.appendClassPath(new ClassClassPath(definitions[0]));
+	private static final Method PRIVATE_LOOKUP_IN = method(MethodHandles.class, "privateLookupIn",
+			Class.class, MethodHandles.Lookup.class);
+	private static final Method DEFINE_CLASS = method(MethodHandles.Lookup.class, "defineClass", byte[].class);
+
+	private StructClassGenerator() {
 	}
 
 	/**
-	 * Generates a class implementing a struct interface.
+	 * Returns the class implementing a struct interface.
 	 *
 	 * @param definitionClass Interface class annotated with &#064;Struct
 	 * @return Implementing class
 	 */
-	@SuppressWarnings("unchecked")
-	final Class<? extends NativeStruct> generate(final Class<?> definitionClass) {
-		String className = definitionClass.getName() + "$GenStruct" + hashCode();
-
-		try {
-			return (Class<? extends NativeStruct>) Class.forName(className, false, definitionClass.getClassLoader());
-		} catch(ClassNotFoundException e) {
-			/* proceed with generating implementing class */
-		}
-
-		Struct struct = definitionClass.getAnnotation(Struct.class);
-		if(struct == null) {
-			throw new IllegalArgumentException("Struct interfaces must be annotated with @Struct");
-		}
-
-		try {
-			return generate(className, definitionClass, struct);
-		} catch (NotFoundException | CannotCompileException e) {
-			throw new RuntimeException(e);
-		}
-	}
-
-	@SuppressWarnings("unchecked")
-	private Class<? extends NativeStruct> generate(final String className, final Class<?> definitionClass, final Struct struct)
-			throws NotFoundException, CannotCompileException {
-
-		CtClass definition = classes.get(definitionClass.getName());
-		definition.freeze();
-
-		CtClass nativeStruct = classes.get(NativeStruct.class.getName());
-		nativeStruct.freeze();
-
-		CtClass generated = classes.makeClass(className, nativeStruct);
-		generated.addInterface(definition);
-
-		long offset = 0;
-		for(Field field : struct.value()) {
-			generateFieldAccessors(generated, struct, field, offset, definition);
-			offset += byteLength(struct, field);
-		}
-
-		generateGetSize(generated, struct, offset);
-
-		return generated.toClass(definitionClass.getClassLoader(), definitionClass.getProtectionDomain());
-	}
-
-	/*
-	 * Creates getSize() method that returns byte length of struct.
-	 *
-	 *   public class Example$GenStruct {
-	 *     public final long getSize() {
-	 *       return 123L;
-	 *     }
-	 *   }
-	 */
-	private void generateGetSize(final CtClass generated, final Struct struct, final long finalOffset)
-			throws CannotCompileException {
-
-		long size = finalOffset;
-		if(struct.pad() != 1 && finalOffset % struct.pad() != 0) {
-			size += struct.pad() - finalOffset % struct.pad();
-		}
-		generated.addMethod(CtNewMethod.make(String.format(
-				"public final long getSize(){ return %dL; }", size),
-				generated));
-	}
-
-	private void generateFieldAccessors(final CtClass generated, final Struct struct, final Field field, final long offset,
-			final CtClass definition) throws CannotCompileException, NotFoundException {
-
-		if(field.type() == Type.STRUCT && field.len() == 1) {
-			generateStructAccessor(generated, struct, field, offset);
-		} else if(field.type() == Type.STRUCT) {
-			generateStructArrayAccessor(generated, struct, field, offset);
-		} else {
-			generateSimpleFieldAccessor(generated, struct, field, offset, definition);
-		}
+	static Class<? extends NativeStruct> generate(final Class<?> definitionClass) {
+		return generate(definitionClass, false);
 	}
 
-	/*
-	 * Creates struct field and getter for a single nested struct.
+	/**
+	 * Returns the class implementing a struct interface.
 	 *
-	 *   public class Example$GenStruct {
-	 *     Nested$GenStruct _message;
-	 *     public final Nested$GenStruct message() {
-	 *       _message.setAddress(super.address + 123L);
-	 *       return _message;
-	 *     }
-	 *   }
+	 * @param definitionClass Interface class annotated with &#064;Struct
+	 * @param readOnly Generate setters that throw {@link java.nio.ReadOnlyBufferException}
+	 * @return Implementing class
 	 */
-	private void generateStructAccessor(final CtClass generated, final Struct struct, final Field field, final long offset)
-			throws CannotCompileException, NotFoundException {
-
-		Class<?> nestedStruct = generate(field.struct());
-
-		generated.addField(new CtField(classes.get(nestedStruct.getName()), "_" + field.name(), generated),
-				"new " + nestedStruct.getName() + "();");
-
-		generated.addMethod(CtNewMethod.make(String.format(
-				"public final %s %s(){ _%s.setAddress(super.address + %dL); return _%s; }",
-				field.struct().getName(), field.name(), field.name(), offset, field.name()
-			), generated));
+	static Class<? extends NativeStruct> generate(final Class<?> definitionClass, final boolean readOnly) {
+		StructLayout.of(definitionClass);
+		return IMPLEMENTATIONS.get(definitionClass).get(readOnly);
 	}
 
-	/*
-	 * Creates struct field and getter for a nested struct array.
+	/**
+	 * Finds the class generated by {@link StructProcessor} when the interface was compiled.
 	 *
-	 *   public class Example$GenStruct {
-	 *     Array _messages;
-	 *     public final Array messages() {
-	 *       _messages.address(super.address + 123L);
-	 *       return _messages;
-	 *     }
-	 *   }
+	 * @param definitionClass Interface class annotated with &#064;Struct
+	 * @param readOnly Find the read-only implementation
+	 * @return Implementing class or null if the interface was compiled without the processor
 	 */
-	private void generateStructArrayAccessor(final CtClass generated, final Struct struct, final Field field, final long offset)
-			throws CannotCompileException, NotFoundException {
-
-		Class<?> nestedStruct = generate(field.struct());
-
-		generated.addField(new CtField(classes.get(HeapArray.class.getName()), "_" + field.name(), generated),
-				String.format("new %s(0L, %dL, %s.create(%s.class))",
-						HeapArray.class.getName(), field.len(), NativeStruct.class.getName(), nestedStruct.getName()));
-
-		generated.addMethod(CtNewMethod.make(String.format(
-				"public final %s %s(){ _%s.address(super.address + %dL); return _%s; }",
-				Array.class.getName(), field.name(), field.name(), offset, field.name()),
-			generated));
+	static Class<? extends NativeStruct> compiled(final Class<?> definitionClass, final boolean readOnly) {
+		Package definitionPackage = definitionClass.getPackage();
+		String className = StructSource.compiledClassName(definitionPackage == null ? "" : definitionPackage.getName(),
+				definitionClass.getName(), readOnly);
+		try {
+			Class<?> compiled = Class.forName(className, false, definitionClass.getClassLoader());
+			if(NativeStruct.class.isAssignableFrom(compiled) && definitionClass.isAssignableFrom(compiled)) {
+				return compiled.asSubclass(NativeStruct.class);
+			}
+		} catch(ClassNotFoundException e) {
+			/* proceed with generating implementing class */
+		}
+		return null;
 	}
 
 	/*
-	 * Creates getter and setter for a primitive type or String.
-	 *
-	 *   public class Example$GenStruct {
-	 *     public final byte message() {
-	 *       return POINTERS.getByte(super.address + 123L);
-	 *     }
-	 *     public final void message(byte value) {
-	 *       return POINTERS.setByte(super.address + 123L, value);
-	 *     }
-	 *   }
+	 * Writable and read-only implementations of a struct. Locks are taken in the order structs
+	 * are nested, which can't form a cycle.
 	 */
-	private void generateSimpleFieldAccessor(final CtClass generated, final Struct struct, final Field field, final long offset,
-			final CtClass definition) throws CannotCompileException, NotFoundException {
-
-		String fieldClass = typeToClassName(field, definition);
-
-		generated.addMethod(CtNewMethod.make(String.format(
-				"public final %s %s(){ %s }",
-				fieldClass, field.name(), implementGet(struct, field, offset)
-			), generated));
-
-		generated.addMethod(CtNewMethod.make(String.format(
-				"public final void %s(%s o){ %s }",
-				field.name(), fieldClass, implementSet(struct, field, offset)
-			), generated));
-
-	}
-
-	private String implementGet(final Struct struct, final Field field, final long offset) {
-		if(field.type() == Type.BYTE) {
-			return implementGetByte(field, offset);
-		}
-		if(field.type() == Type.CHAR) {
-			return implementGetChar(struct, field, offset);
-		}
-		if(field.type() == Type.INT) {
-			return implementGetInt(field, offset);
-		}
-		if(field.type() == Type.LONG) {
-			return implementGetLong(field, offset);
-		}
-		if(field.type() == Type.STRING) {
-			return implementGetString(struct, field, offset);
-		}
-		throw new IllegalStateException();
-	}
-
-	private String implementGetByte(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.getByte(super.address + %dL);", offset);
-		}
-		return String.format("return POINTERS.getBytes(super.address + %dL, %dL);", offset, field.len());
-	}
-
-	private String implementGetChar(final Struct struct, final Field field, final long offset) {
-		if(struct.c() && field.len() == 1) {
-			return String.format("return POINTERS.getAnsiCChar(super.address + %dL);", offset);
-		}
-		if(struct.c()) {
-			return String.format("return POINTERS.getAnsiCChars(super.address + %dL, %dL);", offset, field.len());
-		}
-		if(field.len() == 1) {
-			return String.format("return POINTERS.getChar(super.address + %dL);", offset);
-		}
-		return String.format("return POINTERS.getChars(super.address + %dL, %dL);", offset, field.len());
-	}
-
-	private String implementGetInt(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.getInt(super.address + %dL);", offset);
-		}
-		return String.format("return POINTERS.getInts(super.address + %dL, %dL);", offset, field.len());
-	}
-
-	private String implementGetLong(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.getLong(super.address + %dL);", offset);
-		}
-		return String.format("return POINTERS.getLongs(super.address + %dL, %dL);", offset, field.len());
-	}
-
-	private String implementGetString(final Struct struct, final Field field, final long offset) {
-		if(struct.c()) {
-			return String.format("return POINTERS.getAnsiCString(super.address + %dL, %dL);", offset, field.len());
-		}
-		return String.format("return POINTERS.getString(super.address + %dL, %dL);", offset, field.len());
-	}
-
-	private String implementSet(final Struct struct, final Field field, final long offset) {
-		if(field.type() == Type.BYTE) {
-			return implementSetByte(field, offset);
-		}
-		if(field.type() == Type.CHAR) {
-			return implementSetChar(struct, field, offset);
-		}
-		if(field.type() == Type.INT) {
-			return implementSetInt(field, offset);
-		}
-		if(field.type() == Type.LONG) {
-			return implementSetLong(field, offset);
-		}
-		if(field.type() == Type.STRING) {
-			return implementSetString(struct, field, offset);
-		}
-		throw new IllegalStateException();
-	}
-
-	private String implementSetByte(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.setByte(super.address + %dL, $1);", offset);
-		}
-		return String.format("return POINTERS.setBytes(super.address + %dL, $1, %dL);", offset, field.len());
-	}
-
-	private String implementSetChar(final Struct struct, final Field field, final long offset) {
-		if(struct.c() && field.len() == 1) {
-			return String.format("return POINTERS.setAnsiCChar(super.address + %dL, $1);", offset);
-		}
-		if(struct.c()) {
-			return String.format("return POINTERS.setAnsiCChars(super.address + %dL, $1, %dL);", offset, field.len());
-		}
-		if(field.len() == 1) {
-			return String.format("return POINTERS.setChar(super.address + %dL, $1);", offset);
-		}
-		return String.format("return POINTERS.setChars(super.address + %dL, $1, %dL);", offset, field.len());
-	}
-
-	private String implementSetInt(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.setInt(super.address + %dL, $1);", offset);
-		}
-		return String.format("return POINTERS.setInts(super.address + %dL, $1, %dL);", offset, field.len());
-	}
-
-	private String implementSetLong(final Field field, final long offset) {
-		if(field.len() == 1) {
-			return String.format("return POINTERS.setLong(super.address + %dL, $1);", offset);
-		}
-		return String.format("return POINTERS.setLongs(super.address + %dL, $1, %dL);", offset, field.len());
-	}
-
-	private String implementSetString(final Struct struct, final Field field, final long offset) {
-		if(struct.c()) {
-			return String.format("return POINTERS.setAnsiCString(super.address + %dL, $1, %dL);", offset, field.len());
-		}
-		return String.format("return POINTERS.setString(super.address + %dL, $1, %dL);", offset, field.len());
-	}
-
-	private String typeToClassName(final Field field, final CtClass definition) {
-		Type type = field.type();
-		if(type == Type.BYTE) {
-			return "byte" + (field.len() == 1 ? "" : "[]");
-		}
-		if(type == Type.CHAR) {
-			return "char" + (field.len() == 1 ? "" : "[]");
-		}
-		if(type == Type.INT) {
-			return "int" + (field.len() == 1 ? "" : "[]");
-		}
-		if(type == Type.LONG) {
-			return "long" + (field.len() == 1 ? "" : "[]");
-		}
-		if(type == Type.STRING) {
-			return String.class.getName();
-		}
-		throw new IllegalStateException();
-	}
-
-	private long typeByteLength(final Struct struct, final Field field) {
-		switch (field.type()) {
-		case BYTE:
-			return 1;
-		case STRING:
-		case CHAR:
-			return struct.c() ? 1 : 2;
-		case INT:
-			return 4;
-		case LONG:
-			return 8;
-		case STRUCT:
-			return NativeStruct.create(generate(field.struct())).getSize();
-		default:
-			throw new IllegalStateException();
+	private static final class Implementations {
+
+		private final Class<?> definitionClass;
+		private volatile Class<? extends NativeStruct> writable;
+		private volatile Class<? extends NativeStruct> readOnly;
+		private byte[] writableBytecode;
+		private byte[] readOnlyBytecode;
+
+		Implementations(final Class<?> definitionClass) {
+			this.definitionClass = definitionClass;
+		}
+
+		Class<? extends NativeStruct> get(final boolean readOnly) {
+			Class<? extends NativeStruct> implementation = readOnly ? this.readOnly : this.writable;
+			return implementation != null ? implementation : create(readOnly);
+		}
+
+		/*
+		 * Bytecode of a class generated at runtime, needed to compile the structs it is nested in.
+		 */
+		synchronized byte[] bytecode(final boolean readOnly) {
+			return readOnly ? readOnlyBytecode : writableBytecode;
+		}
+
+		private synchronized Class<? extends NativeStruct> create(final boolean readOnly) {
+			Class<? extends NativeStruct> implementation = readOnly ? this.readOnly : this.writable;
+			if(implementation != null) {
+				return implementation;
+			}
+			implementation = compiled(definitionClass, readOnly);
+			if(implementation == null) {
+				try {
+					implementation = generate(readOnly);
+				} catch (NotFoundException | CannotCompileException | IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			if(readOnly) {
+				this.readOnly = implementation;
+			} else {
+				this.writable = implementation;
+			}
+			return implementation;
+		}
+
+		/*
+		 * The pool keeps bytecode of the classes it has loaded, so a new one is used for each class
+		 * and discarded afterwards.
+		 */
+		private Class<? extends NativeStruct> generate(final boolean readOnly)
+				throws NotFoundException, CannotCompileException, IOException {
+
+			String className = definitionClass.getName() + (readOnly ? "$GenStructRO" : "$GenStruct");
+			ClassPool.doPruning = true;
+			ClassPool classes = new ClassPool(false);
+			classes.appendClassPath(new ClassClassPath(definitionClass));
+
+			CtClass definition = classes.get(definitionClass.getName());
+			definition.freeze();
+
+			CtClass nativeStruct = classes.get(NativeStruct.class.getName());
+			nativeStruct.freeze();
+
+			CtClass generated = classes.makeClass(className, nativeStruct);
+			generated.addInterface(definition);
+
+			StructLayout layout = StructLayout.of(definitionClass);
+			StructSource source = new StructSource(layout.struct, readOnly);
+			Field[] fields = layout.struct.value();
+			for(int i = 0; i < fields.length; i++) {
+				String offset = layout.offset(i) + "L";
+				if(fields[i].type() != Type.STRUCT) {
+					source.addField(fields[i], offset, String.valueOf(layout.word(i)), String.valueOf(layout.shift(i)));
+					continue;
+				}
+				String nestedClass = nested(classes, fields[i].struct(), readOnly);
+				if(fields[i].len() == 1) {
+					source.addStructField(fields[i], offset, fields[i].struct().getName(), nestedClass);
+				} else {
+					source.addStructArrayField(fields[i], offset, fields[i].struct().getName(), nestedClass);
+				}
+			}
+			source.addCommon(className, layout.size + "L");
+
+			generated.addConstructor(CtNewConstructor.defaultConstructor(generated));
+			for(String field : source.fields) {
+				generated.addField(CtField.make(field, generated));
+			}
+			for(String method : source.methods) {
+				generated.addMethod(CtNewMethod.make(method, generated));
+			}
+
+			generated.stopPruning(true);
+			byte[] bytecode = generated.toBytecode();
+			Class<? extends NativeStruct> implementation = define(generated, bytecode).asSubclass(NativeStruct.class);
+			if(readOnly) {
+				readOnlyBytecode = bytecode;
+			} else {
+				writableBytecode = bytecode;
+			}
+			return implementation;
+		}
+
+		private Class<?> define(final CtClass generated, final byte[] bytecode) throws CannotCompileException {
+			if(DEFINE_CLASS == null) {
+				return (Class<?>) generated.toClass(definitionClass.getClassLoader(), definitionClass.getProtectionDomain());
+			}
+			try {
+				Object lookup = PRIVATE_LOOKUP_IN.invoke(null, definitionClass, MethodHandles.lookup());
+				return (Class<?>) DEFINE_CLASS.invoke(lookup, (Object) bytecode);
+			} catch(IllegalAccessException | InvocationTargetException e) {
+				throw new CannotCompileException(e);
+			}
+		}
+
+		/*
+		 * Returns the name of the class of a nested struct, making a class generated at runtime
+		 * visible to the pool.
+		 */
+		private static String nested(final ClassPool classes, final Class<?> nestedDefinition, final boolean readOnly) {
+			Class<? extends NativeStruct> nested = StructClassGenerator.generate(nestedDefinition, readOnly);
+			byte[] bytecode = IMPLEMENTATIONS.get(nestedDefinition).bytecode(readOnly);
+			if(bytecode != null) {
+				classes.insertClassPath(new ByteArrayClassPath(nested.getName(), bytecode));
+			}
+			return nested.getName();
+		}
+	}
+
+	private static Method method(final Class<?> type, final String name, final Class<?>... parameterTypes) {
+		try {
+			return type.getMethod(name, parameterTypes);
+		} catch(NoSuchMethodException e) {
+			return null;
 		}
 	}
-
-	private long byteLength(final Struct struct, final Field field) {
-		return field.len() * typeByteLength(struct, field);
-	}
-
 }
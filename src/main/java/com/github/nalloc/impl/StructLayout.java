@@ -0,0 +1,302 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Layout;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Memory layout of a struct interface, calculated from the &#064;Struct annotation according to its
+ * {@link Layout}. Consecutive BITS fields are packed into a shared word of 1, 2, 4 or 8 bytes, a new
+ * word is started when the next field doesn't fit in 64 bits.
+ *
+ * @author Antti Laisi
+ */
+public final class StructLayout {
+
+	private static final ClassValue<StructLayout> LAYOUTS = new ClassValue<StructLayout>() {
+		@Override
+		protected StructLayout computeValue(final Class<?> definitionClass) {
+			return new StructLayout(definitionClass);
+		}
+	};
+
+	final Struct struct;
+	final long size;
+	private final int alignment;
+	/* largest size of an atomic field in the struct or its nested structs, 1 if there are none */
+	private final int atomicAlignment;
+	private final Class<?> definitionClass;
+	private final long[] offsets;
+	private final int[] shifts;
+	private final int[] words;
+
+	private StructLayout(final Class<?> definitionClass) {
+		this.definitionClass = definitionClass;
+		this.struct = definitionClass.getAnnotation(Struct.class);
+		if(struct == null) {
+			throw new IllegalArgumentException("Struct interfaces must be annotated with @Struct");
+		}
+		Field[] fields = struct.value();
+		this.offsets = new long[fields.length];
+		this.shifts = new int[fields.length];
+		this.words = new int[fields.length];
+
+		List<Unit> units = units(fields);
+		if(struct.layout() == Layout.OPTIMIZED) {
+			// stable, fields of equal alignment keep their order
+			Collections.sort(units, new Comparator<Unit>() {
+				@Override
+				public int compare(final Unit a, final Unit b) {
+					return Integer.compare(b.alignment, a.alignment);
+				}
+			});
+		}
+
+		long offset = 0;
+		int maxAlignment = 1;
+		for(Unit unit : units) {
+			offset = align(offset, unit.alignment);
+			for(int i = unit.first; i < unit.end; i++) {
+				offsets[i] = offset;
+			}
+			offset += unit.length;
+			maxAlignment = Math.max(maxAlignment, unit.alignment);
+		}
+		if(Integer.bitCount(struct.align()) != 1) {
+			throw new IllegalArgumentException("align must be a power of two: " + definitionClass.getName());
+		}
+		this.alignment = Math.max(maxAlignment, struct.align());
+		this.size = align(padded(struct, align(offset, maxAlignment)), struct.align());
+		int atomicAlignment = 1;
+		for(int i = 0; i < fields.length; i++) {
+			if(fields[i].atomic()) {
+				checkAtomicType(fields[i]);
+				int fieldSize = fields[i].type() == Type.INT ? 4 : 8;
+				checkAtomic("Atomic field " + fields[i].name(), offsets[i], size, fieldSize);
+				atomicAlignment = Math.max(atomicAlignment, fieldSize);
+			} else if(fields[i].type() == Type.STRUCT && of(fields[i].struct()).atomicAlignment > 1) {
+				int nestedAlignment = of(fields[i].struct()).atomicAlignment;
+				checkAtomic("Struct field " + fields[i].name() + " with atomic fields", offsets[i], size, nestedAlignment);
+				atomicAlignment = Math.max(atomicAlignment, nestedAlignment);
+			}
+		}
+		this.atomicAlignment = atomicAlignment;
+	}
+
+	/*
+	 * Splits fields into units that are placed as a whole: single fields and runs of BITS fields
+	 * sharing a word.
+	 */
+	private List<Unit> units(final Field[] fields) {
+		boolean aligned = struct.layout() != Layout.PACKED;
+		List<Unit> units = new ArrayList<>();
+		for(int i = 0; i < fields.length; ) {
+			if(fields[i].type() != Type.BITS) {
+				int fieldAlignment = aligned ? alignmentOf(struct, fields[i]) : 1;
+				units.add(new Unit(i, i + 1, byteLength(struct, fields[i]), fieldAlignment));
+				i++;
+				continue;
+			}
+			int bits = 0;
+			int first = i;
+			while(i < fields.length && fields[i].type() == Type.BITS && bits + checkBits(fields[i]) <= 64) {
+				shifts[i] = bits;
+				bits += fields[i].bits();
+				i++;
+			}
+			int word = bits <= 8 ? 1 : bits <= 16 ? 2 : bits <= 32 ? 4 : 8;
+			for(int j = first; j < i; j++) {
+				words[j] = word;
+			}
+			units.add(new Unit(first, i, word, aligned ? word : 1));
+		}
+		return units;
+	}
+
+	/**
+	 * @param definitionClass Interface class annotated with &#064;Struct
+	 * @return Layout of the struct
+	 */
+	public static StructLayout of(final Class<?> definitionClass) {
+		return LAYOUTS.get(definitionClass);
+	}
+
+	/**
+	 * @return Size of the struct in bytes, including padding
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return Largest alignment of a field or &#064;Struct.align, 1 for PACKED structs
+	 */
+	public int alignment() {
+		return alignment;
+	}
+
+	/**
+	 * @param index Index of field in the annotation
+	 * @return Offset of the field, or of the word holding a BITS field, in bytes
+	 */
+	public long offset(final int index) {
+		return offsets[index];
+	}
+
+	/**
+	 * @param index Index of a BITS field in the annotation
+	 * @return Position of the lowest bit of the field in its word
+	 */
+	public int shift(final int index) {
+		return shifts[index];
+	}
+
+	/**
+	 * @param index Index of a BITS field in the annotation
+	 * @return Length of the word holding the field in bytes
+	 */
+	public int word(final int index) {
+		return words[index];
+	}
+
+	/**
+	 * Finds a field by name.
+	 *
+	 * @param fieldName Name of the field
+	 * @return Field definition
+	 */
+	Field field(final String fieldName) {
+		return struct.value()[indexOf(fieldName)];
+	}
+
+	/**
+	 * @param fieldName Name of the field
+	 * @return Offset of the field in bytes
+	 */
+	public long offsetOf(final String fieldName) {
+		return offsets[indexOf(fieldName)];
+	}
+
+	private int indexOf(final String fieldName) {
+		Field[] fields = struct.value();
+		for(int i = 0; i < fields.length; i++) {
+			if(fields[i].name().equals(fieldName)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No field " + fieldName + " in " + definitionClass.getName());
+	}
+
+	/**
+	 * @param field Field declared atomic
+	 * @throws IllegalArgumentException if the field is not a single INT or LONG
+	 */
+	static void checkAtomicType(final Field field) {
+		if((field.type() != Type.INT && field.type() != Type.LONG) || field.len() != 1) {
+			throw new IllegalArgumentException("Only INT and LONG fields of length 1 can be atomic: " + field.name());
+		}
+	}
+
+	/*
+	 * Atomic fields, and structs nested at any depth that hold them, must be aligned in every element
+	 * of an array, so the struct size must also be a multiple of the field size.
+	 */
+	private static void checkAtomic(final String description, final long offset, final long structSize,
+			final int size) {
+		if(offset % size != 0) {
+			throw new IllegalArgumentException(description + " is not aligned to " + size + " bytes");
+		}
+		if(structSize % size != 0) {
+			throw new IllegalArgumentException("Struct size " + structSize + " is not a multiple of " + size
+					+ " bytes, " + description + " would be unaligned in arrays");
+		}
+	}
+
+	private static int checkBits(final Field field) {
+		if(field.bits() < 1 || field.bits() > 64 || field.len() != 1) {
+			throw new IllegalArgumentException("BITS field " + field.name() + " must have 1-64 bits and length 1");
+		}
+		return field.bits();
+	}
+
+	private static long align(final long offset, final int alignment) {
+		return (offset + alignment - 1) / alignment * alignment;
+	}
+
+	private static long padded(final Struct struct, final long finalOffset) {
+		long size = finalOffset;
+		if(struct.pad() != 1 && finalOffset % struct.pad() != 0) {
+			size += struct.pad() - finalOffset % struct.pad();
+		}
+		return size;
+	}
+
+	private static long typeByteLength(final Struct struct, final Field field) {
+		switch (field.type()) {
+		case BYTE:
+		case BOOLEAN:
+			return 1;
+		case STRING:
+		case CHAR:
+			return struct.c() ? 1 : 2;
+		case SHORT:
+			return 2;
+		case INT:
+		case FLOAT:
+			return 4;
+		case LONG:
+		case DOUBLE:
+			return 8;
+		case STRUCT:
+			return of(field.struct()).size;
+		default:
+			throw new IllegalStateException();
+		}
+	}
+
+	private static int alignmentOf(final Struct struct, final Field field) {
+		if(field.type() == Type.STRUCT) {
+			StructLayout nested = of(field.struct());
+			return Math.max(nested.alignment, nested.atomicAlignment);
+		}
+		return (int) typeByteLength(struct, field);
+	}
+
+	private static long byteLength(final Struct struct, final Field field) {
+		return field.len() * typeByteLength(struct, field);
+	}
+
+	private static final class Unit {
+		final int first;
+		final int end;
+		final long length;
+		final int alignment;
+
+		Unit(final int first, final int end, final long length, final int alignment) {
+			this.first = first;
+			this.end = end;
+			this.length = length;
+			this.alignment = alignment;
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic.Kind;
+
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Annotation processor generating the implementing classes of &#064;Struct interfaces at build time, so
+ * allocators don't need to generate them at runtime. Runs automatically when nalloc is on the compile
+ * classpath. A class <code>NativeStruct_Outer_Entry</code> and its read-only variant are generated to
+ * the package of <code>Outer.Entry</code>. Offsets are read from {@link StructLayout} when the class is
+ * initialized.
+ * <p>
+ * Interfaces that can't be implemented with the generated accessors are skipped with a warning, their
+ * classes are generated at runtime as before.
+ *
+ * @author Antti Laisi
+ */
+@SupportedAnnotationTypes("com.github.nalloc.Struct")
+public final class StructProcessor extends AbstractProcessor {
+
+	private static final Pattern SIGNATURE = Pattern.compile("^\\w+ final (\\S+) (\\w+)\\(([^)]*)\\)");
+
+	private final Map<String, Boolean> processed = new HashMap<>();
+	private Set<? extends Element> annotated;
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(final Set<? extends TypeElement> annotations, final RoundEnvironment round) {
+		annotated = round.getElementsAnnotatedWith(Struct.class);
+		for(Element element : annotated) {
+			if(element.getKind() == ElementKind.INTERFACE) {
+				process((TypeElement) element);
+			} else {
+				warn("@Struct is only generated for interfaces", element);
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Generates writable and read-only classes of a struct and the structs nested in it.
+	 * Returns false if the struct is left to be generated at runtime.
+	 */
+	private boolean process(final TypeElement definition) {
+		String name = definition.getQualifiedName().toString();
+		Boolean done = processed.get(name);
+		if(done != null) {
+			return done;
+		}
+		if(!annotated.contains(definition)) {
+			// struct of a library compiled earlier
+			boolean compiled = processingEnv.getElementUtils().getTypeElement(compiledClassName(definition, false)) != null;
+			processed.put(name, compiled);
+			return compiled;
+		}
+		processed.put(name, false);
+
+		try {
+			String writable = source(definition, false);
+			if(writable == null) {
+				return false;
+			}
+			String readOnly = source(definition, true);
+			write(compiledClassName(definition, false), writable, definition);
+			write(compiledClassName(definition, true), readOnly, definition);
+		} catch(IllegalArgumentException e) {
+			warn(e.getMessage(), definition);
+			return false;
+		} catch(IOException e) {
+			processingEnv.getMessager().printMessage(Kind.ERROR, e.toString(), definition);
+			return false;
+		}
+		processed.put(name, true);
+		return true;
+	}
+
+	private String source(final TypeElement definition, final boolean readOnly) {
+		for(Element element = definition; element instanceof TypeElement; element = element.getEnclosingElement()) {
+			if(element.getModifiers().contains(Modifier.PRIVATE)) {
+				warn("Private struct interfaces are generated at runtime", definition);
+				return null;
+			}
+		}
+
+		Struct struct = definition.getAnnotation(Struct.class);
+		String className = compiledClassName(definition, readOnly);
+		String simpleName = className.substring(className.lastIndexOf('.') + 1);
+
+		StringBuilder constants = new StringBuilder();
+		StructSource source = new StructSource(struct, readOnly);
+		Field[] fields = struct.value();
+		for(int i = 0; i < fields.length; i++) {
+			constants.append(String.format("\tprivate static final long OFFSET_%d = LAYOUT.offset(%d);%n", i, i));
+			if(fields[i].type() == Type.BITS) {
+				constants.append(String.format("\tprivate static final int WORD_%d = LAYOUT.word(%d);%n", i, i));
+				constants.append(String.format("\tprivate static final int SHIFT_%d = LAYOUT.shift(%d);%n", i, i));
+			}
+			if(fields[i].type() != Type.STRUCT) {
+				source.addField(fields[i], "OFFSET_" + i, "WORD_" + i, "SHIFT_" + i);
+				continue;
+			}
+			TypeElement nested = nestedStruct(fields[i]);
+			if(nested == null || !process(nested)) {
+				warn("Nested struct " + fields[i].name() + " has no generated class", definition);
+				return null;
+			}
+			String nestedClass = compiledClassName(nested, readOnly);
+			if(fields[i].len() == 1) {
+				source.addStructField(fields[i], "OFFSET_" + i, nested.getQualifiedName().toString(), nestedClass);
+			} else {
+				source.addStructArrayField(fields[i], "OFFSET_" + i, nested.getQualifiedName().toString(),
+						nestedClass);
+			}
+		}
+		source.addCommon(simpleName, "SIZE");
+
+		String missing = unimplementedMethod(definition, source);
+		if(missing != null) {
+			warn("No generated accessor matches " + missing, definition);
+			return null;
+		}
+
+		StringBuilder java = new StringBuilder();
+		String packageName = packageOf(definition);
+		if(!packageName.isEmpty()) {
+			java.append(String.format("package %s;%n%n", packageName));
+		}
+		java.append(String.format("/**%n * Generated by %s from %s.%n */%n", StructProcessor.class.getSimpleName(),
+				definition.getQualifiedName()));
+		java.append(String.format("@SuppressWarnings({\"unchecked\", \"rawtypes\"})%n"));
+		java.append(String.format("public final class %s extends %s implements %s {%n%n", simpleName,
+				NativeStruct.class.getName(), definition.getQualifiedName()));
+		java.append(String.format("\tprivate static final %s LAYOUT = %s.of(%s.class);%n", StructLayout.class.getName(),
+				StructLayout.class.getName(), definition.getQualifiedName()));
+		java.append(String.format("\tprivate static final long SIZE = LAYOUT.size();%n"));
+		java.append(constants);
+		if(!source.fields.isEmpty()) {
+			java.append(String.format("%n"));
+		}
+		for(String field : source.fields) {
+			java.append('\t').append(field).append(String.format("%n"));
+		}
+		java.append(String.format("%n\tpublic %s() {%n\t}%n", simpleName));
+		for(String method : source.methods) {
+			java.append(String.format("%n\t%s%n", method));
+		}
+		java.append(String.format("}%n"));
+		return java.toString();
+	}
+
+	/*
+	 * Returns the first abstract method of the interface that the generated class doesn't
+	 * implement, or null if all are implemented.
+	 */
+	private String unimplementedMethod(final TypeElement definition, final StructSource source) {
+		Map<String, String> generated = new HashMap<>();
+		for(String method : source.methods) {
+			Matcher signature = SIGNATURE.matcher(method);
+			if(signature.find()) {
+				StringBuilder parameters = new StringBuilder();
+				for(String parameter : signature.group(3).split(",")) {
+					if(!parameter.trim().isEmpty()) {
+						String declaration = parameter.trim();
+						parameters.append(parameters.length() == 0 ? "" : ",")
+								.append(declaration.substring(0, declaration.lastIndexOf(' ')));
+					}
+				}
+				generated.put(signature.group(2) + "(" + parameters + ")", signature.group(1));
+			}
+		}
+
+		Set<String> checked = new HashSet<>();
+		for(Element member : processingEnv.getElementUtils().getAllMembers(definition)) {
+			if(member.getKind() != ElementKind.METHOD || !member.getModifiers().contains(Modifier.ABSTRACT)
+					|| member.getEnclosingElement().getKind() != ElementKind.INTERFACE) {
+				continue;
+			}
+			ExecutableElement method = (ExecutableElement) member;
+			StringBuilder parameters = new StringBuilder();
+			for(VariableElement parameter : method.getParameters()) {
+				parameters.append(parameters.length() == 0 ? "" : ",").append(erasure(parameter.asType()));
+			}
+			String key = method.getSimpleName() + "(" + parameters + ")";
+			if(checked.add(key) && !erasure(method.getReturnType()).equals(generated.get(key))) {
+				return key;
+			}
+		}
+		return null;
+	}
+
+	private TypeElement nestedStruct(final Field field) {
+		TypeMirror type;
+		try {
+			return processingEnv.getElementUtils().getTypeElement(field.struct().getCanonicalName());
+		} catch(MirroredTypeException e) {
+			type = e.getTypeMirror();
+		}
+		return type instanceof DeclaredType ? (TypeElement) ((DeclaredType) type).asElement() : null;
+	}
+
+	private void write(final String className, final String java, final TypeElement definition) throws IOException {
+		try(Writer writer = processingEnv.getFiler().createSourceFile(className, definition).openWriter()) {
+			writer.write(java);
+		}
+	}
+
+	private String compiledClassName(final TypeElement definition, final boolean readOnly) {
+		return StructSource.compiledClassName(packageOf(definition),
+				processingEnv.getElementUtils().getBinaryName(definition).toString(), readOnly);
+	}
+
+	private String packageOf(final TypeElement definition) {
+		return processingEnv.getElementUtils().getPackageOf(definition).getQualifiedName().toString();
+	}
+
+	private String erasure(final TypeMirror type) {
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private void warn(final String message, final Element element) {
+		processingEnv.getMessager().printMessage(Kind.WARNING, message, element);
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Java source of the members of a generated struct class. The same source is compiled by Javassist at
+ * runtime and written to files by {@link StructProcessor} at build time. Offsets, bit positions and
+ * nested struct classes are given as expressions, so the sources don't depend on how the layout is
+ * calculated.
+ *
+ * @author Antti Laisi
+ */
+final class StructSource {
+
+	private static final String READ_ONLY = "throw new java.nio.ReadOnlyBufferException();";
+
+	final List<String> fields = new ArrayList<>();
+	final List<String> methods = new ArrayList<>();
+
+	private final Struct struct;
+	private final boolean readOnly;
+
+	/**
+	 * @param struct Struct definition
+	 * @param readOnly Generate setters that throw {@link java.nio.ReadOnlyBufferException}
+	 */
+	StructSource(final Struct struct, final boolean readOnly) {
+		this.struct = struct;
+		this.readOnly = readOnly;
+	}
+
+	/*
+	 * Adds the factory called by NativeStruct.create() and getSize().
+	 *
+	 *   protected final NativeStruct newInstance() {
+	 *     return new Example$GenStruct();
+	 *   }
+	 *   public final long getSize() {
+	 *     return 123L;
+	 *   }
+	 */
+	void addCommon(final String className, final String size) {
+		methods.add(String.format("protected final %s newInstance(){ return new %s(); }",
+				NativeStruct.class.getName(), className));
+		methods.add(String.format("public final long getSize(){ return %s; }", size));
+		if(readOnly) {
+			methods.add("protected final boolean isReadOnly(){ return true; }");
+		}
+	}
+
+	/**
+	 * Adds accessors of a field that is not a nested struct.
+	 *
+	 * @param field Field definition
+	 * @param offset Expression of the field offset
+	 * @param word Expression of the word length of a BITS field
+	 * @param shift Expression of the lowest bit of a BITS field
+	 */
+	void addField(final Field field, final String offset, final String word, final String shift) {
+		String address = "super.address + " + offset;
+		if(field.type() == Type.BITS) {
+			addBitsAccessor(field, address, word, shift);
+			return;
+		}
+		addSimpleFieldAccessor(field, address);
+		if(field.atomic()) {
+			addAtomicAccessors(field, address);
+		}
+	}
+
+	/*
+	 * Adds struct field and getter for a nested struct.
+	 *
+	 *   Nested$GenStruct _message = new Nested$GenStruct();
+	 *   public final Nested message() {
+	 *     _message.setAddress(super.address + 123L);
+	 *     return _message;
+	 *   }
+	 */
+	void addStructField(final Field field, final String offset, final String nestedType, final String nestedClass) {
+		fields.add(String.format("private final %s _%s = new %s();", nestedClass, field.name(), nestedClass));
+		methods.add(String.format("public final %s %s(){ _%s.setAddress(super.address + %s); return _%s; }",
+				nestedType, field.name(), field.name(), offset, field.name()));
+	}
+
+	/*
+	 * Adds struct field and getter for a nested struct array.
+	 *
+	 *   HeapArray _messages = new HeapArray(0L, 10L, new Nested$GenStruct(), Nested.class);
+	 *   public final Array messages() {
+	 *     _messages.address(super.address + 123L);
+	 *     return _messages;
+	 *   }
+	 */
+	void addStructArrayField(final Field field, final String offset, final String nestedType, final String nestedClass) {
+		fields.add(String.format("private final %s _%s = new %s(0L, %dL, new %s(), %s.class);",
+				HeapArray.class.getName(), field.name(), HeapArray.class.getName(), field.len(), nestedClass, nestedType));
+		methods.add(String.format("public final %s %s(){ _%s.address(super.address + %s); return _%s; }",
+				Array.class.getName(), field.name(), field.name(), offset, field.name()));
+	}
+
+	/*
+	 * Adds volatile, ordered, compare-and-set and get-and-add accessors for an INT or LONG field.
+	 *
+	 *   public final int countVolatile() {
+	 *     return POINTERS.getIntVolatile(super.address + 8L);
+	 *   }
+	 *   public final boolean countCompareAndSet(int expect, int update) {
+	 *     return POINTERS.compareAndSetInt(super.address + 8L, expect, update);
+	 *   }
+	 *   ...
+	 */
+	private void addAtomicAccessors(final Field field, final String address) {
+		StructLayout.checkAtomicType(field);
+		String type = field.type() == Type.INT ? "int" : "long";
+		String suffix = field.type() == Type.INT ? "Int" : "Long";
+
+		methods.add(String.format("public final %s %sVolatile(){ return POINTERS.get%sVolatile(%s); }",
+				type, field.name(), suffix, address));
+		methods.add(String.format("public final void %sVolatile(%s o){ %s }", field.name(), type,
+				readOnly ? READ_ONLY : String.format("POINTERS.set%sVolatile(%s, o);", suffix, address)));
+		methods.add(String.format("public final void %sLazy(%s o){ %s }", field.name(), type,
+				readOnly ? READ_ONLY : String.format("POINTERS.set%sOrdered(%s, o);", suffix, address)));
+		methods.add(String.format("public final boolean %sCompareAndSet(%s expect, %s update){ %s }",
+				field.name(), type, type,
+				readOnly ? READ_ONLY : String.format("return POINTERS.compareAndSet%s(%s, expect, update);", suffix, address)));
+		methods.add(String.format("public final %s %sGetAndAdd(%s delta){ %s }", type, field.name(), type,
+				readOnly ? READ_ONLY : String.format("return POINTERS.getAndAdd%s(%s, delta);", suffix, address)));
+	}
+
+	/*
+	 * Adds getter and setter for a field packed in a word of bits. Fields up to 32 bits are
+	 * accessed as int, wider fields as long.
+	 *
+	 *   public final int flags() {
+	 *     return (int) POINTERS.getBits(super.address + 8L, 2, 3, 31L);
+	 *   }
+	 *   public final void flags(int o) {
+	 *     POINTERS.setBits(super.address + 8L, 2, 3, 31L, (long) o);
+	 *   }
+	 */
+	private void addBitsAccessor(final Field field, final String address, final String word, final String shift) {
+		String type = field.bits() <= 32 ? "int" : "long";
+		long mask = field.bits() == 64 ? -1L : (1L << field.bits()) - 1;
+
+		methods.add(String.format("public final %s %s(){ return (%s) POINTERS.getBits(%s, %s, %s, %dL); }",
+				type, field.name(), type, address, word, shift, mask));
+		methods.add(String.format("public final void %s(%s o){ %s }", field.name(), type, readOnly ? READ_ONLY
+				: String.format("POINTERS.setBits(%s, %s, %s, %dL, (long) o);", address, word, shift, mask)));
+	}
+
+	/*
+	 * Adds getter and setter for a primitive type or String, and copying accessors for arrays and Strings.
+	 *
+	 *   public final byte message() {
+	 *     return POINTERS.getByte(super.address + 123L);
+	 *   }
+	 *   public final void message(byte o) {
+	 *     POINTERS.setByte(super.address + 123L, o);
+	 *   }
+	 */
+	private void addSimpleFieldAccessor(final Field field, final String address) {
+		String fieldClass = typeToClassName(field);
+
+		methods.add(String.format("public final %s %s(){ return %s; }", fieldClass, field.name(), implementGet(field, address)));
+		methods.add(String.format("public final void %s(%s o){ %s }", field.name(), fieldClass,
+				readOnly ? READ_ONLY : implementSet(field, address) + ";"));
+
+		if(field.type() == Type.STRING) {
+			addStringAccessors(field, address);
+		} else if(field.len() > 1) {
+			methods.add(String.format("public final int %sInto(%s dest){ return POINTERS.copy%s(%s, %dL, dest); }",
+					field.name(), fieldClass, copySuffix(field), address, field.len()));
+		}
+	}
+
+	/*
+	 * Adds accessors of a STRING field that don't allocate from JVM heap. Strings end at the first 0 char.
+	 *
+	 *   StringView _nameView = new StringView(10L, false);
+	 *   public final int nameInto(char[] dest) {
+	 *     return POINTERS.copyString(super.address + 8L, 10L, dest);
+	 *   }
+	 *   public final int nameInto(StringBuilder dest) {
+	 *     return POINTERS.appendString(super.address + 8L, 10L, dest);
+	 *   }
+	 *   public final CharSequence nameView() {
+	 *     return _nameView.wrap(super.address + 8L);
+	 *   }
+	 *   public final boolean nameEquals(String value) {
+	 *     return POINTERS.equalsString(super.address + 8L, 10L, value);
+	 *   }
+	 */
+	private void addStringAccessors(final Field field, final String address) {
+		String suffix = struct.c() ? "AnsiCString" : "String";
+		methods.add(String.format("public final int %sInto(char[] dest){ return POINTERS.copy%s(%s, %dL, dest); }",
+				field.name(), suffix, address, field.len()));
+		methods.add(String.format(
+				"public final int %sInto(java.lang.StringBuilder dest){ return POINTERS.append%s(%s, %dL, dest); }",
+				field.name(), suffix, address, field.len()));
+		methods.add(String.format(
+				"public final boolean %sEquals(java.lang.String value){ return POINTERS.equals%s(%s, %dL, value); }",
+				field.name(), suffix, address, field.len()));
+
+		fields.add(String.format("private final %s _%sView = new %s(%dL, %b);",
+				StringView.class.getName(), field.name(), StringView.class.getName(), field.len(), struct.c()));
+		methods.add(String.format("public final java.lang.CharSequence %sView(){ return _%sView.wrap(%s); }",
+				field.name(), field.name(), address));
+	}
+
+	private String implementGet(final Field field, final String address) {
+		switch(field.type()) {
+		case CHAR:
+			if(struct.c()) {
+				return field.len() == 1
+						? String.format("POINTERS.getAnsiCChar(%s)", address)
+						: String.format("POINTERS.getAnsiCChars(%s, %dL)", address, field.len());
+			}
+			break;
+		case STRING:
+			return String.format("POINTERS.get%s(%s, %dL)", struct.c() ? "AnsiCString" : "String", address, field.len());
+		default:
+			break;
+		}
+		if(field.len() == 1) {
+			return String.format("POINTERS.get%s(%s)", methodSuffix(field), address);
+		}
+		return String.format("POINTERS.get%ss(%s, %dL)", methodSuffix(field), address, field.len());
+	}
+
+	private String implementSet(final Field field, final String address) {
+		switch(field.type()) {
+		case CHAR:
+			if(struct.c()) {
+				return field.len() == 1
+						? String.format("POINTERS.setAnsiCChar(%s, o)", address)
+						: String.format("POINTERS.setAnsiCChars(%s, o, %dL)", address, field.len());
+			}
+			break;
+		case STRING:
+			return String.format("POINTERS.set%s(%s, o, %dL)", struct.c() ? "AnsiCString" : "String", address, field.len());
+		default:
+			break;
+		}
+		if(field.len() == 1) {
+			return String.format("POINTERS.set%s(%s, o)", methodSuffix(field), address);
+		}
+		return String.format("POINTERS.set%ss(%s, o, %dL)", methodSuffix(field), address, field.len());
+	}
+
+	private String copySuffix(final Field field) {
+		if(field.type() == Type.CHAR && struct.c()) {
+			return "AnsiCChars";
+		}
+		return methodSuffix(field) + "s";
+	}
+
+	/*
+	 * BYTE -> Byte, BOOLEAN -> Boolean etc.
+	 */
+	private static String methodSuffix(final Field field) {
+		String name = field.type().name();
+		return name.charAt(0) + name.substring(1).toLowerCase();
+	}
+
+	/**
+	 * Name of the class generated by {@link StructProcessor}, e.g. <code>pkg.Outer$Entry</code> is
+	 * implemented by <code>pkg.NativeStruct_Outer_Entry</code>.
+	 *
+	 * @param packageName Package of the struct interface
+	 * @param binaryName Binary name of the struct interface
+	 * @param readOnly Name of the read-only implementation
+	 * @return Binary name of the implementing class
+	 */
+	static String compiledClassName(final String packageName, final String binaryName, final boolean readOnly) {
+		String prefix = packageName.isEmpty() ? "" : packageName + ".";
+		return prefix + "NativeStruct_" + binaryName.substring(prefix.length()).replace('$', '_')
+				+ (readOnly ? "_ReadOnly" : "");
+	}
+
+	/**
+	 * @param field Field that is not a nested struct
+	 * @return Java type of the field
+	 */
+	static String typeToClassName(final Field field) {
+		switch(field.type()) {
+		case STRING:
+			return String.class.getName();
+		case BITS:
+			return field.bits() <= 32 ? "int" : "long";
+		case STRUCT:
+			throw new IllegalStateException();
+		default:
+			return field.type().name().toLowerCase() + (field.len() == 1 ? "" : "[]");
+		}
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * {@link Memory} that serves pooled block sizes from thread-local caches. Caches are refilled from
+ * and drained to a shared {@link PooledMemory} in batches, so the shared free list lock is taken
+ * once per batch instead of once per block. A block may be freed by any thread, it is then cached
+ * by the freeing thread. Blocks cached by a thread that terminates are returned to the shared pool
+ * when the next thread creates its cache, so replacing threads of an executor doesn't leak them.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class ThreadCachedMemory implements Memory {
+
+	private final PooledMemory shared;
+	private final int batchSize;
+
+	private final ThreadLocal<Cache> caches = new ThreadLocal<Cache>() {
+		@Override
+		protected Cache initialValue() {
+			Cache cache = new Cache(Thread.currentThread());
+			synchronized(registered) {
+				reclaim();
+				registered.add(cache);
+			}
+			return cache;
+		}
+	};
+	private final List<Cache> registered = new ArrayList<>();
+
+	/**
+	 * @param shared Pool shared by all threads
+	 * @param batchSize Amount of blocks moved between a thread cache and the shared pool at a time
+	 */
+	ThreadCachedMemory(final PooledMemory shared, final int batchSize) {
+		if(batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be > 0");
+		}
+		this.shared = shared;
+		this.batchSize = batchSize;
+	}
+
+	@Override
+	public long allocate(final long bytes) {
+		int index = shared.indexOf(bytes);
+		if(index < 0) {
+			return UNSAFE.allocateMemory(bytes);
+		}
+		Cache cache = caches.get().ensure(index);
+		if(cache.counts[index] == 0) {
+			cache.counts[index] = shared.take(index, cache.blocks[index], batchSize);
+			if(cache.counts[index] == 0) {
+				return UNSAFE.allocateMemory(bytes);
+			}
+		}
+		return cache.blocks[index][--cache.counts[index]];
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		return UNSAFE.reallocateMemory(address, newBytes);
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		int index = shared.indexOf(bytes);
+		if(index < 0) {
+			UNSAFE.freeMemory(address);
+			return;
+		}
+		Cache cache = caches.get().ensure(index);
+		long[] blocks = cache.blocks[index];
+		if(cache.counts[index] == blocks.length) {
+			cache.counts[index] -= batchSize;
+			shared.give(index, blocks, cache.counts[index], batchSize);
+		}
+		blocks[cache.counts[index]++] = address;
+	}
+
+	/**
+	 * @param bytes Block length
+	 * @return Amount of blocks cached by the calling thread
+	 */
+	int cached(final long bytes) {
+		int index = shared.indexOf(bytes);
+		return index < 0 ? 0 : caches.get().ensure(index).counts[index];
+	}
+
+	/**
+	 * Returns blocks cached by terminated threads to the shared pool. A thread terminating
+	 * happens-before isAlive() returns false, so its last updates to the cache are visible.
+	 */
+	void reclaim() {
+		synchronized(registered) {
+			for(Iterator<Cache> i = registered.iterator(); i.hasNext(); ) {
+				Cache cache = i.next();
+				Thread owner = cache.owner.get();
+				if(owner == null || !owner.isAlive()) {
+					for(int index = 0; index < cache.blocks.length; index++) {
+						shared.give(index, cache.blocks[index], 0, cache.counts[index]);
+						cache.counts[index] = 0;
+					}
+					i.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Per-thread stacks of free blocks, one for each size class.
+	 */
+	private final class Cache {
+
+		final WeakReference<Thread> owner;
+		long[][] blocks = new long[0][];
+		int[] counts = new int[0];
+
+		Cache(final Thread owner) {
+			this.owner = new WeakReference<>(owner);
+		}
+
+		Cache ensure(final int index) {
+			if(index >= blocks.length) {
+				int from = blocks.length;
+				blocks = Arrays.copyOf(blocks, index + 1);
+				counts = Arrays.copyOf(counts, index + 1);
+				for(int i = from; i <= index; i++) {
+					blocks[i] = new long[batchSize << 1];
+				}
+			}
+			return this;
+		}
+	}
+
+}
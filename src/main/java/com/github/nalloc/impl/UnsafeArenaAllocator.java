@@ -0,0 +1,48 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import com.github.nalloc.ArenaAllocator;
+
+/**
+ * {@link ArenaAllocator} implementation using sun.misc.Unsafe.
+ *
+ * @author Antti Laisi
+ */
+public class UnsafeArenaAllocator extends UnsafeNativeHeapAllocator implements ArenaAllocator {
+
+	private final ArenaMemory arena;
+
+	public UnsafeArenaAllocator(final long chunkSize, final Class<?>... structTypes) {
+		this(chunkSize, NativeMemoryAccounting.INSTANCE, structTypes);
+	}
+
+	UnsafeArenaAllocator(final long chunkSize, final NativeMemoryAccounting accounting, final Class<?>... structTypes) {
+		this(new ArenaMemory(chunkSize), accounting, structTypes);
+	}
+
+	private UnsafeArenaAllocator(final ArenaMemory arena, final NativeMemoryAccounting accounting,
+			final Class<?>... structTypes) {
+		super(arena, accounting, structTypes);
+		this.arena = arena;
+	}
+
+	@Override
+	public void close() {
+		arena.release();
+		releaseAccounted();
+	}
+
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+
+/**
+ * {@link Memory} that calls the system allocator for every block.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+enum UnsafeMemory implements Memory {
+
+	INSTANCE;
+
+	@Override
+	public long allocate(final long bytes) {
+		return UNSAFE.allocateMemory(bytes);
+	}
+
+	@Override
+	public long reallocate(final long address, final long bytes, final long newBytes) {
+		return UNSAFE.reallocateMemory(address, newBytes);
+	}
+
+	@Override
+	public void free(final long address, final long bytes) {
+		UNSAFE.freeMemory(address);
+	}
+
+}
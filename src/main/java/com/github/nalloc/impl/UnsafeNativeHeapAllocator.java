@@ -20,8 +20,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.github.nalloc.Array;
+import com.github.nalloc.HandlePool;
 import com.github.nalloc.NativeHeapAllocator;
 import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.StructMap;
+import com.github.nalloc.impl.NativeMemoryAccounting.Operation;
 
 /**
  * {@link NativeHeapAllocator} implementation using sun.misc.Unsafe.
@@ -31,20 +35,64 @@ import com.github.nalloc.Pointer;
 @SuppressWarnings("restriction")
 public class UnsafeNativeHeapAllocator implements NativeHeapAllocator {
 
-	private final Map<Class<?>, Class<? extends NativeStruct>> implementations = new HashMap<>();
+	final Map<Class<?>, Class<? extends NativeStruct>> implementations = new HashMap<>();
+	private final Map<Class<?>, Memory> memories = new HashMap<>();
+	private final Map<Class<?>, Memory> arrayMemories = new HashMap<>();
+	private final Memory memory;
 
 	public UnsafeNativeHeapAllocator(final Class<?>... structTypes) {
-		StructClassGenerator generator = new StructClassGenerator(structTypes);
+		this(UnsafeMemory.INSTANCE, structTypes);
+	}
+
+	UnsafeNativeHeapAllocator(final Memory memory, final Class<?>... structTypes) {
+		this(memory, NativeMemoryAccounting.INSTANCE, structTypes);
+	}
+
+	/**
+	 * @param memory Memory blocks are allocated from
+	 * @param accounting Accounting of allocations or null
+	 * @param structTypes Struct interfaces
+	 */
+	UnsafeNativeHeapAllocator(final Memory memory, final NativeMemoryAccounting accounting, final Class<?>... structTypes) {
+		this.memory = memory;
 		for(Class<?> struct : structTypes) {
-			implementations.put(struct, generator.generate(struct));
+			Class<? extends NativeStruct> implementation = StructClassGenerator.generate(struct);
+			implementations.put(struct, implementation);
+			int alignment = struct.getAnnotation(Struct.class).align();
+			Memory structMemory = alignment > 1 ? new AlignedMemory(memory, alignment) : memory;
+			if(accounting == null) {
+				memories.put(implementation, structMemory);
+				arrayMemories.put(implementation, structMemory);
+			} else {
+				NativeMemoryAccounting.Account account = accounting.account(struct);
+				memories.put(implementation, new AccountedMemory(structMemory, account, Operation.MALLOC));
+				arrayMemories.put(implementation, new AccountedMemory(structMemory, account, Operation.CALLOC));
+			}
 		}
 	}
 
 	@Override
 	public <T> Pointer<T> malloc(final Class<T> structType) {
+		return malloc(handle(structType));
+	}
+
+	@Override
+	public <T> Pointer<T> malloc(final Pointer<T> pointer) {
+		HeapPointer<T> heapPointer = (HeapPointer<T>) pointer;
+		heapPointer.memory = memoryOf(heapPointer.struct);
+		heapPointer.struct.address = heapPointer.memory.allocate(heapPointer.struct.getSize());
+		return pointer;
+	}
+
+	@Override
+	public <T> Pointer<T> handle(final Class<T> structType) {
 		NativeStruct struct = NativeStruct.create(implementations.get(structType));
-		struct.address = UNSAFE.allocateMemory(struct.getSize());
-		return new HeapPointer<T>(struct);
+		return new HeapPointer<T>(struct, memoryOf(struct));
+	}
+
+	@Override
+	public <T> HandlePool<T> handles(final Class<T> structType, final int maxPooled) {
+		return new HeapHandlePool<T>(this, structType, maxPooled);
 	}
 
 	@Override
@@ -53,19 +101,64 @@ public class UnsafeNativeHeapAllocator implements NativeHeapAllocator {
 			throw new IllegalArgumentException("nmemb must be > 0");
 		}
 		NativeStruct struct = NativeStruct.create(implementations.get(structType));
-		long address = UNSAFE.allocateMemory(nmemb * struct.getSize());
+		Memory memory = arrayMemoryOf(struct);
+		long address = memory.allocate(nmemb * struct.getSize());
 		UNSAFE.setMemory(address, nmemb * struct.getSize(), (byte) 0);
-		return new HeapArray<T>(address, nmemb, struct);
+		return new HeapArray<T>(address, nmemb, struct, structType, memory);
 	}
 
 	@Override
 	public <T> Array<T> realloc(final Array<T> pointer, final long nmemb) {
+		if(pointer instanceof MmapArray || pointer instanceof SegmentedMmapArray) {
+			throw new IllegalArgumentException("Mmapped arrays must be resized with MmapAllocator.remap");
+		}
 		NativeStruct struct = (NativeStruct) pointer.deref();
 		HeapArray<T> array = (HeapArray<T>) pointer;
-		array.address(UNSAFE.reallocateMemory(struct.address, nmemb * struct.getSize()));
+		array.address(array.memory.reallocate(array.address(), array.size * struct.getSize(), nmemb * struct.getSize()));
 		array.size = nmemb;
 		struct.address = array.address();
 		return pointer;
 	}
 
+	/*
+	 * Memory aligning blocks to @Struct.align, handles of other allocators use the default memory.
+	 */
+	private Memory memoryOf(final NativeStruct struct) {
+		Memory aligned = memories.get(struct.getClass());
+		return aligned != null ? aligned : memory;
+	}
+
+	private Memory arrayMemoryOf(final NativeStruct struct) {
+		Memory aligned = arrayMemories.get(struct.getClass());
+		return aligned != null ? aligned : memory;
+	}
+
+	/**
+	 * Removes blocks that are still allocated from the accounting, called when they are freed
+	 * without calling free.
+	 */
+	void releaseAccounted() {
+		for(Memory structMemory : memories.values()) {
+			if(structMemory instanceof AccountedMemory) {
+				((AccountedMemory) structMemory).release();
+			}
+		}
+		for(Memory structMemory : arrayMemories.values()) {
+			if(structMemory instanceof AccountedMemory) {
+				((AccountedMemory) structMemory).release();
+			}
+		}
+	}
+
+	@Override
+	public <T> StructMap<T> map(final Class<T> structType, final String keyField, final long capacity) {
+		return new NativeStructMap<T>(new NativeStructMap.Chunks() {
+			@Override
+			public Array<?> allocate(final long nmemb) {
+				return calloc(nmemb, structType);
+			}
+		}, NativeStruct.create(implementations.get(structType)), structType.getAnnotation(Struct.class),
+				StructLayout.of(structType).field(keyField), StructLayout.of(structType).offsetOf(keyField), capacity);
+	}
+
 }
@@ -0,0 +1,180 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static sun.misc.Unsafe.ARRAY_BYTE_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_CHAR_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_DOUBLE_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_FLOAT_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_INT_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_LONG_BASE_OFFSET;
+import static sun.misc.Unsafe.ARRAY_SHORT_BASE_OFFSET;
+
+/**
+ * {@link PointerArithmetics} backend using sun.misc.Unsafe. Accesses compile to single machine
+ * instructions, bulk copies to arrays to memcpy.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+final class UnsafePointerArithmetics extends PointerArithmetics {
+
+	@Override
+	public byte getByte(final long address) {
+		return UNSAFE.getByte(address);
+	}
+	@Override
+	public short getShort(final long address) {
+		return UNSAFE.getShort(address);
+	}
+	@Override
+	public char getChar(final long address) {
+		return UNSAFE.getChar(address);
+	}
+	@Override
+	public int getInt(final long address) {
+		return UNSAFE.getInt(address);
+	}
+	@Override
+	public long getLong(final long address) {
+		return UNSAFE.getLong(address);
+	}
+	@Override
+	public float getFloat(final long address) {
+		return UNSAFE.getFloat(address);
+	}
+	@Override
+	public double getDouble(final long address) {
+		return UNSAFE.getDouble(address);
+	}
+	@Override
+	public void setByte(final long address, final byte value) {
+		UNSAFE.putByte(address, value);
+	}
+	@Override
+	public void setShort(final long address, final short value) {
+		UNSAFE.putShort(address, value);
+	}
+	@Override
+	public void setChar(final long address, final char value) {
+		UNSAFE.putChar(address, value);
+	}
+	@Override
+	public void setInt(final long address, final int value) {
+		UNSAFE.putInt(address, value);
+	}
+	@Override
+	public void setLong(final long address, final long value) {
+		UNSAFE.putLong(address, value);
+	}
+	@Override
+	public void setFloat(final long address, final float value) {
+		UNSAFE.putFloat(address, value);
+	}
+	@Override
+	public void setDouble(final long address, final double value) {
+		UNSAFE.putDouble(address, value);
+	}
+
+	@Override
+	public int getIntVolatile(final long address) {
+		return UNSAFE.getIntVolatile(null, address);
+	}
+	@Override
+	public long getLongVolatile(final long address) {
+		return UNSAFE.getLongVolatile(null, address);
+	}
+	@Override
+	public void setIntVolatile(final long address, final int value) {
+		UNSAFE.putIntVolatile(null, address, value);
+	}
+	@Override
+	public void setLongVolatile(final long address, final long value) {
+		UNSAFE.putLongVolatile(null, address, value);
+	}
+	@Override
+	public void setIntOrdered(final long address, final int value) {
+		UNSAFE.putOrderedInt(null, address, value);
+	}
+	@Override
+	public void setLongOrdered(final long address, final long value) {
+		UNSAFE.putOrderedLong(null, address, value);
+	}
+	@Override
+	public boolean compareAndSetInt(final long address, final int expect, final int update) {
+		return UNSAFE.compareAndSwapInt(null, address, expect, update);
+	}
+	@Override
+	public boolean compareAndSetLong(final long address, final long expect, final long update) {
+		return UNSAFE.compareAndSwapLong(null, address, expect, update);
+	}
+
+	@Override
+	protected void read(final long address, final byte[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_BYTE_BASE_OFFSET, n);
+	}
+	@Override
+	protected void read(final long address, final short[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_SHORT_BASE_OFFSET, (long) n << 1);
+	}
+	@Override
+	protected void read(final long address, final char[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_CHAR_BASE_OFFSET, (long) n << 1);
+	}
+	@Override
+	protected void read(final long address, final int[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_INT_BASE_OFFSET, (long) n << 2);
+	}
+	@Override
+	protected void read(final long address, final long[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_LONG_BASE_OFFSET, (long) n << 3);
+	}
+	@Override
+	protected void read(final long address, final float[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_FLOAT_BASE_OFFSET, (long) n << 2);
+	}
+	@Override
+	protected void read(final long address, final double[] dest, final int n) {
+		UNSAFE.copyMemory(null, address, dest, ARRAY_DOUBLE_BASE_OFFSET, (long) n << 3);
+	}
+	@Override
+	protected void write(final long address, final byte[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_BYTE_BASE_OFFSET, null, address, n);
+	}
+	@Override
+	protected void write(final long address, final short[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_SHORT_BASE_OFFSET, null, address, (long) n << 1);
+	}
+	@Override
+	protected void write(final long address, final char[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_CHAR_BASE_OFFSET, null, address, (long) n << 1);
+	}
+	@Override
+	protected void write(final long address, final int[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_INT_BASE_OFFSET, null, address, (long) n << 2);
+	}
+	@Override
+	protected void write(final long address, final long[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_LONG_BASE_OFFSET, null, address, (long) n << 3);
+	}
+	@Override
+	protected void write(final long address, final float[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_FLOAT_BASE_OFFSET, null, address, (long) n << 2);
+	}
+	@Override
+	protected void write(final long address, final double[] src, final int n) {
+		UNSAFE.copyMemory(src, ARRAY_DOUBLE_BASE_OFFSET, null, address, (long) n << 3);
+	}
+}
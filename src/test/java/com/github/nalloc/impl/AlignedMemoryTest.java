@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.ArenaAllocator;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link AlignedMemory} and &#064;Struct.align.
+ *
+ * @author Antti Laisi
+ */
+public class AlignedMemoryTest {
+
+	@Test
+	public void shouldRoundSizeToAlignment() {
+		assertEquals(64, Struct.Offsets.sizeOf(Counter.class));
+		assertEquals(128, Struct.Offsets.sizeOf(Wide.class));
+		assertEquals(128, Struct.Offsets.alignmentOf(Wide.class));
+	}
+
+	@Test
+	public void shouldAlignMallocAndCalloc() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Counter.class, Wide.class);
+		for(int i = 0; i < 100; i++) {
+			try(Pointer<Counter> ptr = allocator.malloc(Counter.class);
+					Array<Wide> array = allocator.calloc(i + 1, Wide.class)) {
+				assertAligned(ptr.address(), 64);
+				assertAligned(array.address(), 128);
+				ptr.deref().count(i);
+				array.get(i).count(i);
+				assertEquals(i, ptr.deref().count());
+				assertEquals(i, array.get(i).count());
+			}
+		}
+	}
+
+	@Test
+	public void shouldKeepContentsOnRealloc() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Counter.class);
+		Array<Counter> array = allocator.calloc(2, Counter.class);
+		array.get(1).count(7);
+		array = allocator.realloc(array, 1000);
+
+		assertAligned(array.address(), 64);
+		assertEquals(7, array.get(1).count());
+		array.free();
+	}
+
+	@Test
+	public void shouldAlignPooledAndArenaBlocks() {
+		NativeHeapAllocator pooled = NativeHeapAllocator.Factory.createThreadCached(4, 16, Counter.class);
+		for(int i = 0; i < 100; i++) {
+			try(Pointer<Counter> ptr = pooled.malloc(Counter.class)) {
+				assertAligned(ptr.address(), 64);
+			}
+		}
+		try(ArenaAllocator arena = NativeHeapAllocator.Factory.createArena(4096, Counter.class)) {
+			for(int i = 0; i < 100; i++) {
+				assertAligned(arena.malloc(Counter.class).address(), 64);
+			}
+		}
+	}
+
+	@Test
+	public void shouldAlignAnonymousMappings() {
+		MmapAllocator mmap = new DirectBufferMmapAllocator(4096, Wide.class);
+		try(Array<Wide> array = mmap.mmap(3, Wide.class)) {
+			assertAligned(array.address(), 128);
+		}
+		// segmented, 31 structs per segment
+		try(Array<Wide> array = mmap.mmap(100, Wide.class)) {
+			for(long i = 0; i < array.size(); i++) {
+				array.get(i).count((int) i);
+			}
+			for(long i = 0; i < array.size(); i++) {
+				assertEquals(i, array.get(i).count());
+			}
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectAlignmentNotPowerOfTwo() {
+		Struct.Offsets.sizeOf(Invalid.class);
+	}
+
+	private static void assertAligned(final long address, final long alignment) {
+		assertEquals("address " + address, 0, address % alignment);
+	}
+
+	@Struct(align=64, value={
+		@Field(name="count", type=Type.LONG) })
+	static interface Counter {
+		long count();
+		void count(long value);
+	}
+
+	@Struct(align=128, value={
+		@Field(name="count", type=Type.INT),
+		@Field(name="payload", type=Type.BYTE, len=100) })
+	static interface Wide {
+		int count();
+		void count(int value);
+	}
+
+	@Struct(align=48, value={
+		@Field(name="count", type=Type.LONG) })
+	static interface Invalid {
+	}
+}
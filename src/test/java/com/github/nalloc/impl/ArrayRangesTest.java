@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link ArrayRanges}.
+ *
+ * @author Antti Laisi
+ */
+public class ArrayRangesTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Record.class);
+	// 64 structs of 12 bytes per segment
+	final MmapAllocator mmap = new DirectBufferMmapAllocator(1024, Record.class);
+
+	@Test
+	public void shouldCopyBetweenHeapAndSegmentedArrays() {
+		try(Array<Record> heap = numbered(allocator.calloc(300, Record.class));
+				Array<Record> segmented = mmap.mmap(300, Record.class)) {
+			heap.copyRange(10, segmented, 50, 200);
+
+			assertEquals(0, segmented.get(49).id());
+			for(int i = 50; i < 250; i++) {
+				assertEquals(i - 40, segmented.get(i).id());
+			}
+			assertEquals(0, segmented.get(250).id());
+			assertTrue(heap.rangeEquals(10, segmented, 50, 200));
+		}
+	}
+
+	@Test
+	public void shouldMoveOverlappingRangesInBothDirections() {
+		try(Array<Record> heap = numbered(allocator.calloc(300, Record.class));
+				Array<Record> segmented = numbered(mmap.mmap(300, Record.class))) {
+			assertMovesOverlappingRanges(heap);
+			assertMovesOverlappingRanges(segmented);
+		}
+	}
+
+	private static void assertMovesOverlappingRanges(final Array<Record> array) {
+		array.move(10, 30, 200);
+		for(int i = 30; i < 230; i++) {
+			assertEquals(i - 20, array.get(i).id());
+		}
+		array.move(30, 0, 200);
+		for(int i = 0; i < 200; i++) {
+			assertEquals(i + 10, array.get(i).id());
+		}
+	}
+
+	@Test
+	public void shouldFillWithTemplate() {
+		try(Pointer<Record> template = allocator.malloc(Record.class);
+				Array<Record> segmented = mmap.mmap(300, Record.class)) {
+			template.deref().id(42);
+			template.deref().value(-1);
+			segmented.fillRange(5, 290, template.deref());
+
+			assertEquals(0, segmented.get(4).id());
+			for(int i = 5; i < 295; i++) {
+				assertEquals(42, segmented.get(i).id());
+				assertEquals(-1, segmented.get(i).value());
+			}
+			assertEquals(0, segmented.get(295).id());
+		}
+	}
+
+	@Test
+	public void shouldClearRange() {
+		try(Array<Record> segmented = numbered(mmap.mmap(300, Record.class))) {
+			segmented.clearRange(60, 100);
+
+			assertEquals(59, segmented.get(59).id());
+			for(int i = 60; i < 160; i++) {
+				assertEquals(0, segmented.get(i).id());
+				assertEquals(0, segmented.get(i).value());
+			}
+			assertEquals(160, segmented.get(160).id());
+		}
+	}
+
+	@Test
+	public void shouldCompareAsUnsignedBytes() {
+		try(Array<Record> a = numbered(allocator.calloc(100, Record.class));
+				Array<Record> b = numbered(mmap.mmap(100, Record.class))) {
+			assertEquals(0, a.compareRange(0, b, 0, 100));
+
+			// only the most significant byte of id differs, 0x80 vs 0x00
+			b.get(70).id(70 | 0x8000000000000000L);
+			assertTrue(a.compareRange(0, b, 0, 100) < 0);
+			assertTrue(b.compareRange(0, a, 0, 100) > 0);
+			assertEquals(0, a.compareRange(0, b, 0, 70));
+			assertFalse(a.rangeEquals(0, b, 0, 100));
+
+			b.get(70).id(70);
+			b.get(99).value(b.get(99).value() + 1);
+			assertTrue(a.compareRange(0, b, 0, 100) < 0);
+		}
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void shouldRejectRangeOutOfBounds() {
+		try(Array<Record> a = allocator.calloc(10, Record.class); Array<Record> b = allocator.calloc(20, Record.class)) {
+			b.copyRange(5, a, 0, 11);
+		}
+	}
+
+	private static Array<Record> numbered(final Array<Record> array) {
+		for(int i = 0; i < array.size(); i++) {
+			array.get(i).id(i);
+			array.get(i).value(i * 3);
+		}
+		return array;
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.LONG),
+		@Field(name="value", type=Type.INT) })
+	static interface Record {
+		long id();
+		void id(final long value);
+		int value();
+		void value(final int value);
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.ArrayScanner;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+
+/**
+ * Unit tests for {@link ArrayScan}.
+ *
+ * @author Antti Laisi
+ */
+public class ArrayScanTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Val.class);
+
+	@Test
+	public void shouldVisitEveryIndexOnce() {
+		try(Array<Val> array = allocator.calloc(1000000, Val.class)) {
+			for(int i = 0; i < array.size(); i++) {
+				array.get(i).val(i);
+			}
+
+			long[] result = array.scan(new Sum());
+
+			assertArrayEquals(new long[] { 1000000, 499999500000L, 499999500000L }, result);
+		}
+	}
+
+	@Test
+	public void shouldScanSmallArrayInOneRange() {
+		try(Array<Val> array = allocator.calloc(3, Val.class)) {
+			array.get(1).val(5);
+
+			assertArrayEquals(new long[] { 3, 5, 3 }, array.scan(new Sum()));
+		}
+	}
+
+	@Test
+	public void shouldScanSegmentedArray() {
+		// 8 structs of 4 bytes per segment
+		MmapAllocator mmap = new DirectBufferMmapAllocator(32, Val.class);
+		try(Array<Val> array = mmap.mmap(100000, Val.class)) {
+			for(int i = 0; i < array.size(); i++) {
+				array.get(i).val(1);
+			}
+
+			assertArrayEquals(new long[] { 100000, 100000, 4999950000L }, array.scan(new Sum()));
+		}
+	}
+
+	@Test
+	public void shouldUseStructInstancePerRange() {
+		try(final Array<Val> array = allocator.calloc(1000000, Val.class)) {
+			final Set<Val> structs = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Val, Boolean>()));
+			array.scan(new ArrayScanner<Val, Void>() {
+				@Override
+				public Void accumulator() {
+					return null;
+				}
+				@Override
+				public void accept(final Void accumulator, final Val struct, final long index) {
+					structs.add(struct);
+				}
+				@Override
+				public Void combine(final Void left, final Void right) {
+					return null;
+				}
+			});
+
+			assertEquals(1000000 / ArrayScan.rangeSize(1000000), structs.size(), 1);
+			assertNotSame(array.get(0), structs.iterator().next());
+		}
+	}
+
+	/*
+	 * Counts structs and sums values and indexes.
+	 */
+	static final class Sum implements ArrayScanner<Val, long[]> {
+		@Override
+		public long[] accumulator() {
+			return new long[3];
+		}
+		@Override
+		public void accept(final long[] sum, final Val struct, final long index) {
+			sum[0]++;
+			sum[1] += struct.val();
+			sum[2] += index;
+		}
+		@Override
+		public long[] combine(final long[] left, final long[] right) {
+			for(int i = 0; i < left.length; i++) {
+				left[i] += right[i];
+			}
+			return left;
+		}
+	}
+}
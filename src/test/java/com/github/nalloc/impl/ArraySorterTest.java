@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link ArraySorter}.
+ *
+ * @author Antti Laisi
+ */
+public class ArraySorterTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Record.class);
+
+	@Test
+	public void shouldSortByLongKey() {
+		try(Array<Record> array = random(200000)) {
+			array.sort("id");
+
+			assertSorted(array);
+		}
+	}
+
+	@Test
+	public void shouldSortByIntKey() {
+		try(Array<Record> array = random(100000)) {
+			array.sort("value");
+
+			for(long i = 1; i < array.size(); i++) {
+				int previous = array.get(i - 1).value();
+				assertTrue(previous <= array.get(i).value());
+			}
+		}
+	}
+
+	@Test
+	public void shouldSortSmallArrayOfMixedSignLongKeys() {
+		try(Array<Record> array = allocator.calloc(4, Record.class)) {
+			long[] ids = { 5, -1, 3, -7 };
+			for(int i = 0; i < ids.length; i++) {
+				array.get(i).id(ids[i]);
+			}
+			array.sort("id");
+
+			assertEquals(-7, array.get(0).id());
+			assertEquals(-1, array.get(1).id());
+			assertEquals(3, array.get(2).id());
+			assertEquals(5, array.get(3).id());
+			assertEquals(1, array.binarySearch("id", -1));
+			assertEquals(3, array.binarySearch("id", 5));
+		}
+	}
+
+	@Test
+	public void shouldSortSmallArrayOfExtremeLongKeys() {
+		try(Array<Record> array = allocator.calloc(5, Record.class)) {
+			long[] ids = { Long.MAX_VALUE, 0, Long.MIN_VALUE, -1, 1 };
+			for(int i = 0; i < ids.length; i++) {
+				array.get(i).id(ids[i]);
+			}
+			array.sort("id");
+
+			assertSorted(array);
+			assertEquals(Long.MIN_VALUE, array.get(0).id());
+			assertEquals(Long.MAX_VALUE, array.get(4).id());
+		}
+	}
+
+	@Test
+	public void shouldSortSmallArrayOfMixedSignIntKeys() {
+		try(Array<Record> array = allocator.calloc(4, Record.class)) {
+			int[] values = { 5, -1, 3, -7 };
+			for(int i = 0; i < values.length; i++) {
+				array.get(i).value(values[i]);
+			}
+			array.sort("value");
+
+			assertEquals(-7, array.get(0).value());
+			assertEquals(-1, array.get(1).value());
+			assertEquals(3, array.get(2).value());
+			assertEquals(5, array.get(3).value());
+		}
+	}
+
+	@Test
+	public void shouldKeepRecordsIntactWhenSorting() {
+		try(Array<Record> array = random(50000)) {
+			array.sort("id");
+
+			for(long i = 0; i < array.size(); i++) {
+				Record record = array.get(i);
+				assertEquals((int) (record.id() * 31), record.value());
+			}
+		}
+	}
+
+	@Test
+	public void shouldSortWithComparator() {
+		try(Array<Record> array = random(100000)) {
+			array.sort(new Comparator<Record>() {
+				@Override
+				public int compare(final Record a, final Record b) {
+					return Long.compare(b.id(), a.id());
+				}
+			});
+
+			for(long i = 1; i < array.size(); i++) {
+				long previous = array.get(i - 1).id();
+				assertTrue(previous >= array.get(i).id());
+			}
+		}
+	}
+
+	@Test
+	public void shouldSortSegmentedArray() {
+		// 64 structs of 13 bytes per segment
+		MmapAllocator mmap = new DirectBufferMmapAllocator(1024, Record.class);
+		try(Array<Record> array = mmap.mmap(10000, Record.class)) {
+			fill(array, new Random(1));
+			array.sort("id");
+
+			assertSorted(array);
+		}
+	}
+
+	@Test
+	public void shouldFindKeysInSortedArray() {
+		try(Array<Record> array = allocator.calloc(100, Record.class)) {
+			for(int i = 0; i < 100; i++) {
+				array.get(i).id(i * 2 - 100);
+			}
+
+			assertEquals(50, array.binarySearch("id", 0));
+			assertEquals(0, array.binarySearch("id", -100));
+			assertEquals(99, array.binarySearch("id", 98));
+			assertEquals(-51 - 1, array.binarySearch("id", 1));
+			assertEquals(-1, array.binarySearch("id", -101));
+			assertEquals(-101, array.binarySearch("id", 99));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectNonIntegerKey() {
+		try(Array<Record> array = allocator.calloc(10, Record.class)) {
+			array.sort("name");
+		}
+	}
+
+	@Test
+	public void shouldSortNestedStructArray() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Batch.class);
+		try(Pointer<Batch> batch = allocator.malloc(Batch.class)) {
+			Array<Keyed> keys = batch.deref().keys();
+			for(long i = 0; i < keys.size(); i++) {
+				keys.get(i).key(keys.size() - i);
+			}
+			keys.sort("key");
+
+			for(long i = 0; i < keys.size(); i++) {
+				assertEquals(i + 1, keys.get(i).key());
+			}
+			assertEquals(4, keys.binarySearch("key", 5));
+		}
+	}
+
+	private Array<Record> random(final int size) {
+		Array<Record> array = allocator.calloc(size, Record.class);
+		fill(array, new Random(size));
+		return array;
+	}
+
+	private static void fill(final Array<Record> array, final Random random) {
+		for(long i = 0; i < array.size(); i++) {
+			Record record = array.get(i);
+			record.id(random.nextLong());
+			record.value((int) (record.id() * 31));
+		}
+	}
+
+	private static void assertSorted(final Array<Record> array) {
+		for(long i = 1; i < array.size(); i++) {
+			long previous = array.get(i - 1).id();
+			assertTrue(previous <= array.get(i).id());
+		}
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.LONG),
+		@Field(name="value", type=Type.INT),
+		@Field(name="name", type=Type.BYTE) })
+	static interface Record {
+		long id();
+		void id(final long value);
+		int value();
+		void value(final int value);
+	}
+
+	@Struct({
+		@Field(name="key", type=Type.LONG) })
+	static interface Keyed extends Serializable {
+		long key();
+		void key(final long value);
+	}
+
+	@Struct({
+		@Field(name="keys", type=Type.STRUCT, struct=Keyed.class, len=10) })
+	static interface Batch {
+		Array<Keyed> keys();
+	}
+}
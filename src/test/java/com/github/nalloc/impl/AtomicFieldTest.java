@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.MmapAllocator.Mode;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Layout;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for atomic field accessors generated by {@link StructClassGenerator}.
+ *
+ * @author Antti Laisi
+ */
+public class AtomicFieldTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Counters.class);
+
+	@Test
+	public void shouldReadAndWriteVolatile() {
+		try(Pointer<Counters> ptr = allocator.malloc(Counters.class)) {
+			Counters counters = ptr.deref();
+			counters.countVolatile(5);
+			counters.totalLazy(7L);
+
+			assertEquals(5, counters.count());
+			assertEquals(5, counters.countVolatile());
+			assertEquals(7L, counters.totalVolatile());
+		}
+	}
+
+	@Test
+	public void shouldCompareAndSet() {
+		try(Pointer<Counters> ptr = allocator.malloc(Counters.class)) {
+			Counters counters = ptr.deref();
+			counters.count(1);
+			counters.total(1L);
+
+			assertTrue(counters.countCompareAndSet(1, 2));
+			assertFalse(counters.countCompareAndSet(1, 3));
+			assertTrue(counters.totalCompareAndSet(1L, Long.MAX_VALUE));
+			assertFalse(counters.totalCompareAndSet(1L, 3L));
+			assertEquals(2, counters.count());
+			assertEquals(Long.MAX_VALUE, counters.total());
+		}
+	}
+
+	@Test
+	public void shouldAddAtomicallyFromSeveralThreads() throws InterruptedException {
+		try(final Pointer<Counters> ptr = allocator.malloc(Counters.class)) {
+			ptr.deref().count(0);
+			ptr.deref().total(0L);
+			Thread[] threads = new Thread[4];
+			for(int t = 0; t < threads.length; t++) {
+				final Counters counters = ptr.clone().deref();
+				threads[t] = new Thread() {
+					@Override
+					public void run() {
+						for(int i = 0; i < 100000; i++) {
+							counters.countGetAndAdd(1);
+							counters.totalGetAndAdd(2L);
+						}
+					}
+				};
+				threads[t].start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+
+			assertEquals(400000, ptr.deref().countVolatile());
+			assertEquals(800000L, ptr.deref().totalVolatile());
+		}
+	}
+
+	@Test
+	public void shouldShareAtomicUpdatesThroughMappedFile() throws IOException {
+		MmapAllocator mmap = MmapAllocator.Factory.create(Counters.class);
+		File file = File.createTempFile(getClass().getSimpleName(), ".map");
+		try(Array<Counters> first = mmap.mmap(file, 2, Counters.class);
+				Array<Counters> second = mmap.mmap(file, 2, Counters.class)) {
+			assertEquals(0, first.get(1).countGetAndAdd(3));
+
+			assertTrue(second.get(1).countCompareAndSet(3, 4));
+			assertEquals(4, first.get(1).countVolatile());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected=ReadOnlyBufferException.class)
+	public void shouldRejectAtomicUpdateOfReadOnlyMapping() throws IOException {
+		MmapAllocator mmap = MmapAllocator.Factory.create(Counters.class);
+		File file = File.createTempFile(getClass().getSimpleName(), ".map");
+		try(Array<Counters> array = mmap.mmap(file, 1, Counters.class)) {
+			array.get(0).count(1);
+		}
+		try(Array<Counters> array = mmap.mmap(file, 1, Counters.class, Mode.READ_ONLY)) {
+			assertEquals(1, array.get(0).countVolatile());
+			array.get(0).countGetAndAdd(1);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectMisalignedAtomicField() {
+		NativeHeapAllocator.Factory.create(Misaligned.class);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectAtomicFieldMisalignedInArrays() {
+		NativeHeapAllocator.Factory.create(OddSize.class);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectNestedAtomicFieldAtMisalignedOffset() {
+		StructLayout.of(PackedOuter.class);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectNestedAtomicFieldMisalignedInArrays() {
+		StructLayout.of(PackedOddSize.class);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectAtomicFieldNestedTwoLevelsAtMisalignedOffset() {
+		StructLayout.of(PackedTwoLevels.class);
+	}
+
+	@Test
+	public void shouldAlignNestedAtomicFields() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(AlignedOuter.class);
+		try(Array<AlignedOuter> array = allocator.calloc(3, AlignedOuter.class)) {
+			assertEquals(8, StructLayout.of(AlignedOuter.class).offsetOf("in"));
+			assertTrue(array.get(2).in().totalCompareAndSet(0L, 5L));
+			assertEquals(5L, array.get(2).in().totalVolatile());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectAtomicByteField() {
+		NativeHeapAllocator.Factory.create(AtomicByte.class);
+	}
+
+	@Struct(pad=8, value={
+		@Field(name="count", type=Type.INT, atomic=true),
+		@Field(name="flags", type=Type.INT),
+		@Field(name="total", type=Type.LONG, atomic=true) })
+	static interface Counters {
+		int count();
+		void count(final int value);
+		int countVolatile();
+		void countVolatile(final int value);
+		boolean countCompareAndSet(final int expect, final int update);
+		int countGetAndAdd(final int delta);
+		long total();
+		void total(final long value);
+		long totalVolatile();
+		void totalLazy(final long value);
+		boolean totalCompareAndSet(final long expect, final long update);
+		long totalGetAndAdd(final long delta);
+	}
+
+	@Struct({
+		@Field(name="b", type=Type.BYTE),
+		@Field(name="count", type=Type.INT, atomic=true) })
+	static interface Misaligned {
+		int countVolatile();
+	}
+
+	@Struct({
+		@Field(name="total", type=Type.LONG, atomic=true),
+		@Field(name="flags", type=Type.INT) })
+	static interface OddSize {
+		long totalVolatile();
+	}
+
+	@Struct(@Field(name="total", type=Type.LONG, atomic=true))
+	static interface Inner {
+		long totalVolatile();
+		boolean totalCompareAndSet(final long expect, final long update);
+	}
+
+	@Struct(layout=Layout.PACKED, value={
+		@Field(name="b", type=Type.BYTE),
+		@Field(name="in", type=Type.STRUCT, struct=Inner.class) })
+	static interface PackedOuter {
+		Inner in();
+	}
+
+	@Struct(layout=Layout.PACKED, value={
+		@Field(name="in", type=Type.STRUCT, struct=Inner.class),
+		@Field(name="b", type=Type.BYTE) })
+	static interface PackedOddSize {
+		Inner in();
+	}
+
+	@Struct(layout=Layout.PACKED, value={
+		@Field(name="i", type=Type.INT),
+		@Field(name="outer", type=Type.STRUCT, struct=AlignedOuter.class) })
+	static interface PackedTwoLevels {
+		AlignedOuter outer();
+	}
+
+	@Struct(layout=Layout.ALIGNED, value={
+		@Field(name="b", type=Type.BYTE),
+		@Field(name="in", type=Type.STRUCT, struct=Inner.class) })
+	static interface AlignedOuter {
+		Inner in();
+	}
+
+	@Struct(@Field(name="b", type=Type.BYTE, atomic=true))
+	static interface AtomicByte {
+		byte b();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.MmapFlusher;
+
+/**
+ * Unit tests for {@link BackgroundFlusher} and {@link MmapAllocator#force(Array, long, long)}.
+ *
+ * @author Antti Laisi
+ */
+public class BackgroundFlusherTest {
+
+	final MmapAllocator allocator = MmapAllocator.Factory.create(Val.class);
+	File file;
+
+	@Test
+	public void shouldForceRange() throws IOException {
+		try(Array<Val> array = allocator.mmap(file(), 2048, Val.class)) {
+			array.get(2000).val(42);
+			allocator.force(array, 1990, 2010);
+
+			ByteBuffer bytes = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder());
+			try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				raf.getChannel().read(bytes, 2000 * 4);
+			}
+			assertEquals(42, bytes.getInt(0));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectForcingAnonymousMapping() throws IOException {
+		try(Array<Val> array = allocator.mmap(4, Val.class)) {
+			allocator.force(array, 0, 4);
+		}
+	}
+
+	@Test
+	public void shouldMergeRangesOnFlush() throws IOException {
+		try(Array<Val> array = allocator.mmap(file(), 100, Val.class);
+				BackgroundFlusher flusher = flusher(array, 60000, Long.MAX_VALUE)) {
+			flusher.dirty(0, 2);
+			flusher.dirty(50, 60);
+			flusher.dirty(1, 3);
+			flusher.dirty(55, 70);
+			flusher.dirty(10, 11);
+			flusher.flush();
+
+			assertEquals(3, flusher.forced());
+		}
+	}
+
+	@Test
+	public void shouldFlushWhenDirtyBytesExceedThreshold() throws Exception {
+		try(Array<Val> array = allocator.mmap(file(), 100, Val.class);
+				BackgroundFlusher flusher = flusher(array, 60000, 40)) {
+			flusher.dirty(0, 5);
+			flusher.dirty(20, 30);
+
+			awaitForced(flusher, 2);
+		}
+	}
+
+	@Test
+	public void shouldFlushAfterDelay() throws Exception {
+		try(Array<Val> array = allocator.mmap(file(), 100, Val.class);
+				BackgroundFlusher flusher = flusher(array, 10, Long.MAX_VALUE)) {
+			flusher.dirty(0, 1);
+
+			awaitForced(flusher, 1);
+		}
+	}
+
+	@Test
+	public void shouldFlushRemainingRangesOnClose() throws IOException {
+		BackgroundFlusher flusher;
+		try(Array<Val> array = allocator.mmap(file(), 100, Val.class)) {
+			flusher = flusher(array, 60000, Long.MAX_VALUE);
+			flusher.dirty(0, 1);
+			flusher.close();
+		}
+		assertEquals(1, flusher.forced());
+	}
+
+	@After
+	public void cleanup() {
+		if(file != null) {
+			file.delete();
+		}
+	}
+
+	File file() throws IOException {
+		return file = File.createTempFile(getClass().getSimpleName(), ".map");
+	}
+
+	private BackgroundFlusher flusher(final Array<Val> array, final long maxDelayMillis, final long maxDirtyBytes)
+			throws IOException {
+		MmapFlusher flusher = allocator.flusher(array, maxDelayMillis, maxDirtyBytes);
+		return (BackgroundFlusher) flusher;
+	}
+
+	private static void awaitForced(final BackgroundFlusher flusher, final long n) throws InterruptedException {
+		for(int i = 0; i < 500 && flusher.forced() < n; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(n, flusher.forced());
+	}
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for SHORT, FLOAT, DOUBLE, BOOLEAN and BITS fields.
+ *
+ * @author Antti Laisi
+ */
+public class CompactFieldTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Quote.class, Flags.class, Wide.class);
+
+	@Test
+	public void shouldLayoutCompactFields() {
+		// 2 + 4 + 8 + 1 + 2 * 2 + 2 * 4 + 2 * 8 + 2 * 1
+		assertEquals(45, StructLayout.of(Quote.class).size);
+		// 1 + 3 + 9 bits in a 2 byte word, 1 byte
+		assertEquals(3, StructLayout.of(Flags.class).size);
+		// 40 + 24 bits in 8 bytes, 33 bits in the next 8 bytes
+		assertEquals(16, StructLayout.of(Wide.class).size);
+		assertEquals(8, StructLayout.of(Wide.class).offsetOf("last"));
+	}
+
+	@Test
+	public void shouldReadAndWriteCompactFields() {
+		try(Pointer<Quote> ptr = allocator.malloc(Quote.class)) {
+			Quote quote = ptr.deref();
+			quote.size((short) -300);
+			quote.price(1.25f);
+			quote.total(-1e100);
+			quote.open(true);
+
+			assertEquals(-300, quote.size());
+			assertEquals(1.25f, quote.price(), 0f);
+			assertEquals(-1e100, quote.total(), 0d);
+			assertTrue(quote.open());
+			quote.open(false);
+			assertFalse(quote.open());
+		}
+	}
+
+	@Test
+	public void shouldReadAndWriteCompactArrays() {
+		try(Pointer<Quote> ptr = allocator.malloc(Quote.class)) {
+			Quote quote = ptr.deref();
+			quote.sizes(new short[] { 1, Short.MIN_VALUE });
+			quote.prices(new float[] { 0.5f, Float.NaN });
+			quote.totals(new double[] { Double.MAX_VALUE, -0.0 });
+			quote.opens(new boolean[] { false, true });
+
+			assertArrayEquals(new short[] { 1, Short.MIN_VALUE }, quote.sizes());
+			assertArrayEquals(new float[] { 0.5f, Float.NaN }, quote.prices(), 0f);
+			assertArrayEquals(new double[] { Double.MAX_VALUE, -0.0 }, quote.totals(), 0d);
+			assertTrue(Arrays.equals(new boolean[] { false, true }, quote.opens()));
+		}
+	}
+
+	@Test
+	public void shouldPackBitsWithoutOverwritingNeighbours() {
+		try(Array<Flags> array = allocator.calloc(2, Flags.class)) {
+			Flags flags = array.get(0);
+			flags.side(1);
+			flags.venue(5);
+			flags.lot(511);
+			flags.tail((byte) -1);
+			array.get(1).lot(1);
+
+			assertEquals(1, array.get(0).side());
+			assertEquals(5, array.get(0).venue());
+			assertEquals(511, array.get(0).lot());
+			assertEquals(-1, array.get(0).tail());
+
+			array.get(0).venue(9); // truncated to 3 bits
+			assertEquals(1, array.get(0).venue());
+			assertEquals(1, array.get(0).side());
+			assertEquals(511, array.get(0).lot());
+			assertEquals(1, array.get(1).lot());
+			assertEquals(0, array.get(1).side());
+		}
+	}
+
+	@Test
+	public void shouldPackWideBits() {
+		try(Pointer<Wide> ptr = allocator.malloc(Wide.class)) {
+			Wide wide = ptr.deref();
+			wide.first(0xFFFFFFFFFFL);
+			wide.second(0xABCDEF);
+			wide.last(0x1FFFFFFFFL);
+
+			assertEquals(0xFFFFFFFFFFL, wide.first());
+			assertEquals(0xABCDEF, wide.second());
+			assertEquals(0x1FFFFFFFFL, wide.last());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectBitsWithoutWidth() {
+		NativeHeapAllocator.Factory.create(Invalid.class);
+	}
+
+	@Struct({
+		@Field(name="size", type=Type.SHORT),
+		@Field(name="price", type=Type.FLOAT),
+		@Field(name="total", type=Type.DOUBLE),
+		@Field(name="open", type=Type.BOOLEAN),
+		@Field(name="sizes", type=Type.SHORT, len=2),
+		@Field(name="prices", type=Type.FLOAT, len=2),
+		@Field(name="totals", type=Type.DOUBLE, len=2),
+		@Field(name="opens", type=Type.BOOLEAN, len=2) })
+	static interface Quote {
+		short size();
+		void size(short value);
+		float price();
+		void price(float value);
+		double total();
+		void total(double value);
+		boolean open();
+		void open(boolean value);
+		short[] sizes();
+		void sizes(short[] value);
+		float[] prices();
+		void prices(float[] value);
+		double[] totals();
+		void totals(double[] value);
+		boolean[] opens();
+		void opens(boolean[] value);
+	}
+
+	@Struct({
+		@Field(name="side", type=Type.BITS, bits=1),
+		@Field(name="venue", type=Type.BITS, bits=3),
+		@Field(name="lot", type=Type.BITS, bits=9),
+		@Field(name="tail", type=Type.BYTE) })
+	static interface Flags {
+		int side();
+		void side(int value);
+		int venue();
+		void venue(int value);
+		int lot();
+		void lot(int value);
+		byte tail();
+		void tail(byte value);
+	}
+
+	@Struct({
+		@Field(name="first", type=Type.BITS, bits=40),
+		@Field(name="second", type=Type.BITS, bits=24),
+		@Field(name="last", type=Type.BITS, bits=33) })
+	static interface Wide {
+		long first();
+		void first(long value);
+		int second();
+		void second(int value);
+		long last();
+		void last(long value);
+	}
+
+	@Struct({
+		@Field(name="flag", type=Type.BITS) })
+	static interface Invalid {
+		int flag();
+	}
+}
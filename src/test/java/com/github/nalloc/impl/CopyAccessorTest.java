@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for accessors that copy fields into caller supplied objects.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class CopyAccessorTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Row.class, CRow.class);
+
+	@Test
+	public void shouldCopyArraysIntoCallerArrays() {
+		try(Pointer<Row> ptr = allocator.malloc(Row.class)) {
+			Row row = ptr.deref();
+			row.values(new int[] { 1, 2, 3, 4 });
+			row.prices(new double[] { 0.5, 1.5 });
+
+			int[] values = new int[3];
+			assertEquals(3, row.valuesInto(values));
+			assertArrayEquals(new int[] { 1, 2, 3 }, values);
+			double[] prices = new double[4];
+			assertEquals(2, row.pricesInto(prices));
+			assertArrayEquals(new double[] { 0.5, 1.5, 0, 0 }, prices, 0);
+		}
+	}
+
+	@Test
+	public void shouldReadStringsWithoutAllocating() {
+		try(Pointer<Row> ptr = allocator.malloc(Row.class)) {
+			Row row = ptr.deref();
+			setName(ptr, "abc");
+
+			char[] chars = new char[8];
+			assertEquals(3, row.nameInto(chars));
+			assertEquals("abc", new String(chars, 0, 3));
+			StringBuilder builder = new StringBuilder("x");
+			assertEquals(3, row.nameInto(builder));
+			assertEquals("xabc", builder.toString());
+			assertEquals("abc", row.nameView().toString());
+			assertEquals('b', row.nameView().charAt(1));
+			assertEquals(3, row.nameView().length());
+			assertTrue(row.nameEquals("abc"));
+			assertFalse(row.nameEquals("ab"));
+			assertFalse(row.nameEquals("abcd"));
+			assertFalse(row.nameEquals("abcdefghij"));
+
+			setName(ptr, "abcdefgh");
+			assertTrue(row.nameEquals("abcdefgh"));
+			assertEquals(8, row.nameView().length());
+		}
+	}
+
+	@Test
+	public void shouldEndStringAccessorsAtZeroWhileGetterKeepsPadding() {
+		try(Pointer<Row> ptr = allocator.malloc(Row.class)) {
+			Row row = ptr.deref();
+			row.name("abc");
+
+			assertEquals("abc\0\0\0\0\0", row.name());
+			assertFalse(row.name().equals("abc"));
+			assertTrue(row.nameEquals("abc"));
+			assertEquals("abc", row.nameView().toString());
+		}
+	}
+
+	@Test
+	public void shouldReadCStringsWithoutAllocating() {
+		try(Pointer<CRow> ptr = allocator.malloc(CRow.class)) {
+			CRow row = ptr.deref();
+			row.name("abcdefg");
+
+			char[] chars = new char[3];
+			assertEquals(3, row.nameInto(chars));
+			assertArrayEquals(new char[] { 'a', 'b', 'c' }, chars);
+			assertEquals("abcdefg", row.nameView().toString());
+			assertTrue(row.nameEquals("abcdefg"));
+			assertFalse(row.nameEquals("abcdef"));
+
+			row.name("ab");
+			assertTrue(row.nameEquals("ab"));
+			assertEquals(2, row.nameView().length());
+		}
+	}
+
+	@Test
+	public void shouldReadHighBitCharsOfCStringsUnsigned() {
+		try(Pointer<CRow> ptr = allocator.malloc(CRow.class)) {
+			CRow row = ptr.deref();
+			row.name("\u00e9t\u00e9");
+
+			assertEquals("\u00e9t\u00e9", row.name());
+			assertEquals("\u00e9t\u00e9", row.nameView().toString());
+			assertEquals('\u00e9', row.nameView().charAt(0));
+			assertTrue(row.nameEquals("\u00e9t\u00e9"));
+		}
+	}
+
+	@Test
+	public void shouldReuseViewWhenScanning() {
+		try(Array<Row> array = allocator.calloc(1000, Row.class)) {
+			for(int i = 0; i < array.size(); i++) {
+				array.get(i).values(new int[] { i, i, i, i });
+			}
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			long thread = Thread.currentThread().getId();
+			int[] values = new int[4];
+			StringBuilder builder = new StringBuilder(64);
+			CharSequence view = array.get(0).nameView();
+
+			long before = threads.getThreadAllocatedBytes(thread);
+			long sum = 0;
+			for(int n = 0; n < 100; n++) {
+				for(int i = 0; i < array.size(); i++) {
+					Row row = array.get(i);
+					row.valuesInto(values);
+					sum += values[3] + row.nameView().length();
+					builder.setLength(0);
+					row.nameInto(builder);
+					if(row.nameEquals("x")) {
+						sum++;
+					}
+				}
+			}
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			assertSame(view, array.get(1).nameView());
+			assertEquals(100 * 499500, sum);
+			// a few hundred bytes are allocated by the measurement itself, not by the accessors
+			assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+		}
+	}
+
+	private static void setName(final Pointer<Row> ptr, final String name) {
+		char[] chars = new char[8];
+		name.getChars(0, name.length(), chars, 0);
+		PointerArithmetics.INSTANCE.setChars(ptr.address() + Struct.Offsets.offsetOf(Row.class, "name"), chars, 8);
+	}
+
+	@Struct({
+		@Field(name="values", type=Type.INT, len=4),
+		@Field(name="prices", type=Type.DOUBLE, len=2),
+		@Field(name="name", type=Type.STRING, len=8) })
+	static interface Row {
+		String name();
+		void name(String name);
+		int[] values();
+		void values(int[] values);
+		int valuesInto(int[] dest);
+		double[] prices();
+		void prices(double[] prices);
+		int pricesInto(double[] dest);
+		int nameInto(char[] dest);
+		int nameInto(StringBuilder dest);
+		CharSequence nameView();
+		boolean nameEquals(String value);
+	}
+
+	@Struct(c=true, value={
+		@Field(name="name", type=Type.STRING, len=8) })
+	static interface CRow {
+		String name();
+		void name(String name);
+		int nameInto(char[] dest);
+		CharSequence nameView();
+		boolean nameEquals(String value);
+	}
+}
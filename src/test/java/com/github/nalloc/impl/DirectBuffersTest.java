@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link DirectBuffers}.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class DirectBuffersTest {
+
+	@Test
+	public void shouldReadAddressOfBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.put(3, (byte) 42);
+
+		assertEquals(42, UNSAFE.getByte(DirectBuffers.address(buffer) + 3));
+		DirectBuffers.free(buffer);
+	}
+
+	@Test
+	public void shouldReadAddressOfSlice() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+		buffer.position(8);
+		ByteBuffer slice = buffer.slice();
+
+		assertEquals(DirectBuffers.address(buffer) + 8, DirectBuffers.address(slice));
+		DirectBuffers.free(slice);
+	}
+
+}
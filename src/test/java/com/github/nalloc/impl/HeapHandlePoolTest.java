@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.github.nalloc.HandlePool;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+
+/**
+ * Unit tests for {@link HeapHandlePool}.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class HeapHandlePoolTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Val.class);
+
+	@Test
+	public void shouldReuseFreedHandle() {
+		HandlePool<Val> pool = allocator.handles(Val.class, 1);
+		Pointer<Val> p1 = pool.malloc();
+		p1.deref().val(1);
+		pool.free(p1);
+
+		Pointer<Val> p2 = pool.malloc();
+		p2.deref().val(2);
+		assertSame(p1, p2);
+		assertEquals(2, p2.deref().val());
+		pool.free(p2);
+	}
+
+	@Test
+	public void shouldLimitPooledHandles() {
+		HeapHandlePool<Val> pool = (HeapHandlePool<Val>) allocator.handles(Val.class, 1);
+		Pointer<Val> p1 = pool.malloc();
+		Pointer<Val> p2 = pool.malloc();
+		pool.free(p1);
+		pool.free(p2);
+
+		assertEquals(1, pool.pooled());
+	}
+
+	@Test
+	public void shouldMallocIntoHandle() {
+		Pointer<Val> handle = allocator.handle(Val.class);
+		assertEquals(0, handle.address());
+
+		try(Pointer<Val> ptr = allocator.malloc(handle)) {
+			assertSame(handle, ptr);
+			assertTrue(ptr.address() != 0);
+			ptr.deref().val(7);
+			assertEquals(7, ptr.deref().val());
+		}
+	}
+
+	@Test
+	public void shouldNotAllocateFromJavaHeapInSteadyState() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		HandlePool<Val> pool = allocator.handles(Val.class, 4);
+		cycle(pool, 1000);
+
+		long before = threads.getThreadAllocatedBytes(thread);
+		cycle(pool, 100000);
+		long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+		// a few hundred bytes are allocated by the measurement itself, not by the cycles
+		assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+	}
+
+	private static void cycle(final HandlePool<Val> pool, final int times) {
+		for(int i = 0; i < times; i++) {
+			Pointer<Val> ptr = pool.malloc();
+			ptr.deref().val(i);
+			pool.free(ptr);
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+
+/**
+ * Unit tests for {@link HugePages} and {@link MmapAllocator#mmapHuge(long, Class)}.
+ *
+ * @author Antti Laisi
+ */
+public class HugePagesTest {
+
+	final MmapAllocator allocator = MmapAllocator.Factory.create(Val.class);
+
+	@Test
+	public void shouldAlignMappingToHugePageSize() {
+		try(Array<Val> array = allocator.mmapHuge(1000, Val.class)) {
+			array.get(999).val(999);
+
+			assertEquals(0, array.address() & (HugePages.SIZE - 1));
+			assertEquals(999, array.get(999).val());
+		}
+	}
+
+	@Test
+	public void shouldSplitLargeHugeMappingToAlignedSegments() {
+		MmapAllocator segmented = new DirectBufferMmapAllocator(2 * HugePages.SIZE, Val.class);
+		long nmemb = (HugePages.SIZE + HugePages.SIZE / 2) / 4;
+		try(Array<Val> array = segmented.mmapHuge(nmemb, Val.class)) {
+			assertTrue(array instanceof SegmentedMmapArray);
+			array.get(nmemb - 1).val(1);
+			array.get(0).val(2);
+
+			for(ByteBuffer buffer : ((SegmentedMmapArray<Val>) array).buffers) {
+				assertEquals(0, DirectBuffers.address(buffer) & (HugePages.SIZE - 1));
+			}
+			assertEquals(1, array.get(nmemb - 1).val());
+			assertEquals(2, array.get(0).val());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectBufferWithoutRoomToAlign() {
+		HugePages.allocate(HugePages.MAX_LENGTH + 1);
+	}
+
+	@Test
+	public void shouldRoundSegmentsOfHugeTlbFilesToHugePages() {
+		int shift = Long.numberOfTrailingZeros(HugePages.SIZE);
+
+		assertEquals(HugePages.SIZE, DirectBufferMmapAllocator.segmentBytes(5, shift, 4, true));
+		assertEquals(20, DirectBufferMmapAllocator.segmentBytes(5, shift, 4, false));
+		assertEquals(7 * 24, DirectBufferMmapAllocator.segmentBytes(7, 4, 24, false));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectHugeTlbSegmentsNotMultipleOfHugePage() {
+		DirectBufferMmapAllocator.segmentBytes(7, 4, 24, true);
+	}
+
+	@Test
+	public void shouldRoundUpToHugePageSize() {
+		assertEquals(HugePages.SIZE, HugePages.roundUp(1));
+		assertEquals(HugePages.SIZE, HugePages.roundUp(HugePages.SIZE));
+		assertEquals(2 * HugePages.SIZE, HugePages.roundUp(HugePages.SIZE + 1));
+	}
+
+	@Test
+	public void shouldNotDetectTempFileAsHugeTlb() throws IOException {
+		File file = File.createTempFile(getClass().getSimpleName(), ".map");
+		assertFalse(HugePages.isHugeTlbFile(file));
+		file.delete();
+	}
+
+	@Test
+	public void shouldDetectHugePageSize() {
+		assertTrue(HugePages.SIZE > 4096);
+		assertEquals(0, HugePages.SIZE & (HugePages.SIZE - 1));
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.MmapAllocator.Mode;
+import com.github.nalloc.impl.StructTest.WithNestedStruct;
+
+/**
+ * Unit tests for {@link MmapAllocator#mmap(File, long, Class, Mode)}.
+ *
+ * @author Antti Laisi
+ */
+public class MmapModeTest {
+
+	final MmapAllocator allocator = MmapAllocator.Factory.create(Val.class, WithNestedStruct.class);
+	// 8 structs of 4 bytes per segment
+	final MmapAllocator segmented = new DirectBufferMmapAllocator(32, Val.class);
+	File file;
+
+	@Test
+	public void shouldReadFileWithReadOnlyMapping() throws IOException {
+		write(allocator, 4);
+
+		try(Array<Val> array = allocator.mmap(file, 4, Val.class, Mode.READ_ONLY)) {
+			assertValues(array);
+		}
+	}
+
+	@Test
+	public void shouldReadSegmentedFileWithReadOnlyMapping() throws IOException {
+		write(segmented, 20);
+
+		try(Array<Val> array = segmented.mmap(file, 20, Val.class, Mode.READ_ONLY)) {
+			assertValues(array);
+		}
+	}
+
+	@Test(expected=ReadOnlyBufferException.class)
+	public void shouldRejectSetterOfReadOnlyMapping() throws IOException {
+		write(allocator, 4);
+
+		try(Array<Val> array = allocator.mmap(file, 4, Val.class, Mode.READ_ONLY)) {
+			array.get(0).val(5);
+		}
+	}
+
+	@Test(expected=ReadOnlyBufferException.class)
+	public void shouldRejectClearOfReadOnlyMapping() throws IOException {
+		write(segmented, 20);
+
+		try(Array<Val> array = segmented.mmap(file, 20, Val.class, Mode.READ_ONLY)) {
+			array.clear(10);
+		}
+	}
+
+	@Test(expected=ReadOnlyBufferException.class)
+	public void shouldRejectNestedSetterOfReadOnlyMapping() throws IOException {
+		file();
+		try(Array<WithNestedStruct> array = allocator.mmap(file, 2, WithNestedStruct.class)) {
+			array.get(1).compatible().l(1L);
+		}
+
+		try(Array<WithNestedStruct> array = allocator.mmap(file, 2, WithNestedStruct.class, Mode.READ_ONLY)) {
+			assertEquals(1L, array.get(1).compatible().l());
+			array.get(1).compatible().l(2L);
+		}
+	}
+
+	@Test
+	public void shouldNotWritePrivateMappingToFile() throws IOException {
+		write(segmented, 20);
+
+		try(Array<Val> array = segmented.mmap(file, 20, Val.class, Mode.PRIVATE)) {
+			assertValues(array);
+			for(int i = 0; i < array.size(); i++) {
+				array.get(i).val(-1);
+			}
+			assertEquals(-1, array.get(19).val());
+		}
+
+		try(Array<Val> array = segmented.mmap(file, 20, Val.class)) {
+			assertValues(array);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectRemappingPrivateMapping() throws IOException {
+		write(allocator, 4);
+
+		try(Array<Val> array = allocator.mmap(file, 4, Val.class, Mode.PRIVATE)) {
+			allocator.remap(array, 8);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectFlushingReadOnlyMapping() throws IOException {
+		write(allocator, 4);
+
+		try(Array<Val> array = allocator.mmap(file, 4, Val.class, Mode.READ_ONLY)) {
+			allocator.force(array, 0, 4);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		if(file != null) {
+			file.delete();
+		}
+	}
+
+	File file() throws IOException {
+		return file = File.createTempFile(getClass().getSimpleName(), ".map");
+	}
+
+	private void write(final MmapAllocator allocator, final int nmemb) throws IOException {
+		file();
+		try(Array<Val> array = allocator.mmap(file, nmemb, Val.class)) {
+			for(int i = 0; i < nmemb; i++) {
+				array.get(i).val(i + 1);
+			}
+		}
+	}
+
+	private static void assertValues(final Array<Val> array) {
+		for(int i = 0; i < array.size(); i++) {
+			assertEquals(i + 1, array.get(i).val());
+		}
+	}
+}
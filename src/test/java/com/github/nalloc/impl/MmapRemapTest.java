@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+
+/**
+ * Unit tests for {@link MmapAllocator#remap(Array, long)} and {@link MmapAllocator#grow(Array, long)}.
+ *
+ * @author Antti Laisi
+ */
+public class MmapRemapTest {
+
+	final MmapAllocator allocator = MmapAllocator.Factory.create(Val.class);
+	// 8 structs of 4 bytes per segment
+	final MmapAllocator segmented = new DirectBufferMmapAllocator(32, Val.class);
+	File file;
+
+	@Test
+	public void shouldExtendFileOnRemap() throws IOException {
+		Array<Val> array = allocator.mmap(file(), 4, Val.class);
+		fill(array);
+
+		array = allocator.remap(array, 100);
+		array.get(99).val(99);
+
+		assertEquals(100, array.size());
+		assertEquals(400, file.length());
+		assertValues(array, 4);
+		assertEquals(99, array.get(99).val());
+		array.free();
+	}
+
+	@Test
+	public void shouldKeepFullSegmentsOnRemap() throws IOException {
+		Array<Val> array = segmented.mmap(file(), 12, Val.class);
+		fill(array);
+		ByteBuffer first = ((SegmentedMmapArray<Val>) array).buffers[0];
+
+		Array<Val> remapped = segmented.remap(array, 30);
+
+		assertSame(array, remapped);
+		assertSame(first, ((SegmentedMmapArray<Val>) remapped).buffers[0]);
+		assertEquals(4, ((SegmentedMmapArray<Val>) remapped).buffers.length);
+		assertValues(remapped, 12);
+		remapped.free();
+	}
+
+	@Test
+	public void shouldSwitchToSegmentsWhenGrowingPastSegmentLimit() throws IOException {
+		Array<Val> array = segmented.mmap(file(), 5, Val.class);
+		fill(array);
+
+		array = segmented.remap(array, 20);
+
+		assertTrue(array instanceof SegmentedMmapArray);
+		assertValues(array, 5);
+		assertEquals(80, file.length());
+		array.free();
+	}
+
+	@Test
+	public void shouldKeepStructsAndClonesMappedAfterRemap() throws IOException {
+		Array<Val> array = allocator.mmap(file(), 4, Val.class);
+		fill(array);
+		Array<Val> clone = array.clone();
+		Val struct = clone.get(2);
+
+		array = allocator.remap(array, 100);
+		array.get(2).val(30);
+		struct.val(struct.val() + 1);
+
+		assertEquals(31, array.get(2).val());
+		assertEquals(31, clone.get(2).val());
+		array.free();
+	}
+
+	@Test
+	public void shouldKeepReplacedSegmentMappedAfterRemap() throws IOException {
+		Array<Val> array = segmented.mmap(file(), 12, Val.class);
+		fill(array);
+		Val last = array.clone().get(11);
+
+		array = segmented.remap(array, 30);
+		last.val(120);
+
+		assertEquals(120, array.get(11).val());
+		array.free();
+	}
+
+	@Test
+	public void shouldKeepBufferMappedWhenSwitchingToSegments() throws IOException {
+		Array<Val> array = segmented.mmap(file(), 5, Val.class);
+		fill(array);
+		Val first = array.clone().get(0);
+
+		array = segmented.remap(array, 20);
+		first.val(10);
+
+		assertEquals(10, array.get(0).val());
+		array.free();
+	}
+
+	@Test
+	public void shouldShrinkWithoutTruncatingFile() throws IOException {
+		Array<Val> array = segmented.mmap(file(), 20, Val.class);
+		fill(array);
+
+		array = segmented.remap(array, 3);
+
+		assertEquals(3, array.size());
+		assertValues(array, 3);
+		assertEquals(80, file.length());
+		array.free();
+	}
+
+	@Test
+	public void shouldDoubleSizeOnGrow() throws IOException {
+		Array<Val> array = allocator.mmap(file(), 3, Val.class);
+		fill(array);
+
+		assertSame(array, allocator.grow(array, 2));
+		array = allocator.grow(array, 7);
+
+		assertEquals(12, array.size());
+		assertValues(array, 3);
+		array.free();
+	}
+
+	@Test
+	public void shouldGrowEmptyArray() throws IOException {
+		Array<Val> array = allocator.mmap(file(), 0, Val.class);
+
+		array = allocator.grow(array, 3);
+
+		assertEquals(4, array.size());
+		array.get(3).val(4);
+		assertEquals(4, array.get(3).val());
+		array.free();
+	}
+
+	@Test
+	public void shouldGrowToMinimumSizeWhenDoublingOverflows() {
+		assertEquals(Long.MAX_VALUE, DirectBufferMmapAllocator.grownSize(3, Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE - 1, DirectBufferMmapAllocator.grownSize(1L << 62, Long.MAX_VALUE - 1));
+		assertEquals(1L << 62, DirectBufferMmapAllocator.grownSize(1, 1L << 62));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectRemappingAnonymousMapping() throws IOException {
+		try(Array<Val> array = allocator.mmap(4, Val.class)) {
+			allocator.remap(array, 8);
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectReallocOfMmappedArray() throws IOException {
+		try(Array<Val> array = allocator.mmap(4, Val.class)) {
+			NativeHeapAllocator.Factory.create(Val.class).realloc(array, 8);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		if(file != null) {
+			file.delete();
+		}
+	}
+
+	File file() throws IOException {
+		return file = File.createTempFile(getClass().getSimpleName(), ".map");
+	}
+
+	private static void fill(final Array<Val> array) {
+		for(int i = 0; i < array.size(); i++) {
+			array.get(i).val(i + 1);
+		}
+	}
+
+	private static void assertValues(final Array<Val> array, final int n) {
+		for(int i = 0; i < n; i++) {
+			assertEquals(i + 1, array.get(i).val());
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.ArenaAllocator;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.NativeMemoryMXBean;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link NativeMemoryAccounting}.
+ *
+ * @author Antti Laisi
+ */
+public class NativeMemoryAccountingTest {
+
+	final NativeMemoryAccounting accounting = new NativeMemoryAccounting(false);
+	final NativeHeapAllocator allocator = new UnsafeNativeHeapAllocator(UnsafeMemory.INSTANCE, accounting, Rec.class);
+
+	@Test
+	public void shouldBeOffByDefault() {
+		assertNull(NativeMemoryAccounting.INSTANCE);
+		assertNull(NativeMemoryAccounting.load("none"));
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void shouldRejectUnknownLevel() {
+		NativeMemoryAccounting.load("all");
+	}
+
+	@Test
+	public void shouldCountLiveBytesAndOperations() {
+		Pointer<Rec> ptr = allocator.malloc(Rec.class);
+		Array<Rec> array = allocator.calloc(10, Rec.class);
+
+		assertEquals(16 + 160, accounting.getLiveBytes());
+		assertEquals(2, accounting.getLiveAllocations());
+		assertEquals(Long.valueOf(176), accounting.getLiveBytesByStruct().get(Rec.class.getName()));
+
+		array = allocator.realloc(array, 20);
+		ptr.free();
+		array.free();
+
+		Map<String, Long> counts = accounting.getOperationCounts();
+		assertEquals(Long.valueOf(1), counts.get("malloc"));
+		assertEquals(Long.valueOf(1), counts.get("calloc"));
+		assertEquals(Long.valueOf(1), counts.get("realloc"));
+		assertEquals(Long.valueOf(2), counts.get("free"));
+		assertEquals(0, accounting.getLiveBytes());
+		assertEquals(0, accounting.getLiveAllocations());
+		assertEquals(16 + 320, accounting.getPeakBytes());
+		assertEquals(Long.valueOf(336), accounting.getPeakBytesByStruct().get(Rec.class.getName()));
+	}
+
+	@Test
+	public void shouldResetPeakAndRates() {
+		allocator.calloc(100, Rec.class).free();
+		Map<String, Double> rates = accounting.getOperationRates();
+
+		assertTrue(rates.get("calloc") > 0);
+		assertEquals(0, accounting.getOperationRates().get("calloc"), 0);
+		accounting.resetPeak();
+		assertEquals(0, accounting.getPeakBytes());
+	}
+
+	@Test
+	public void shouldRecordSitesOfUnfreedAllocations() {
+		NativeMemoryAccounting leaks = new NativeMemoryAccounting(true);
+		NativeHeapAllocator allocator = new UnsafeNativeHeapAllocator(UnsafeMemory.INSTANCE, leaks, Rec.class);
+		Pointer<Rec> freed = allocator.malloc(Rec.class);
+		Array<Rec> leaked = allocator.calloc(4, Rec.class);
+		freed.free();
+		leaked = allocator.realloc(leaked, 8);
+
+		String[] unfreed = leaks.getUnfreedAllocations();
+		assertEquals(1, unfreed.length);
+		assertTrue(unfreed[0], unfreed[0].startsWith(Rec.class.getName() + " 128 bytes at " + leaked));
+		assertTrue(unfreed[0], unfreed[0].contains("shouldRecordSitesOfUnfreedAllocations"));
+
+		leaked.free();
+		assertEquals(0, leaks.getUnfreedAllocations().length);
+		assertEquals(0, accounting.getUnfreedAllocations().length);
+	}
+
+	@Test
+	public void shouldReleaseArenaAllocationsOnClose() {
+		NativeMemoryAccounting leaks = new NativeMemoryAccounting(true);
+		try(ArenaAllocator arena = new UnsafeArenaAllocator(1 << 16, leaks, Rec.class)) {
+			arena.malloc(Rec.class);
+			arena.calloc(10, Rec.class);
+			assertEquals(176, leaks.getLiveBytes());
+		}
+		assertEquals(0, leaks.getLiveBytes());
+		assertEquals(0, leaks.getLiveAllocations());
+		assertEquals(0, leaks.getUnfreedAllocations().length);
+	}
+
+	@Test
+	public void shouldCountMappings() throws IOException {
+		MmapAllocator mmap = new DirectBufferMmapAllocator(DirectBufferMmapAllocator.MAX_SEGMENT, accounting, Rec.class);
+		File file = File.createTempFile(getClass().getSimpleName(), ".map");
+		file.deleteOnExit();
+
+		Array<Rec> anonymous = mmap.mmap(100, Rec.class);
+		Array<Rec> mapped = mmap.mmap(file, 10, Rec.class);
+		assertEquals(1600 + 160, accounting.getLiveBytes());
+
+		mapped = mmap.remap(mapped, 20);
+		assertEquals(1600 + 320, accounting.getLiveBytes());
+		anonymous.free();
+		mapped.free();
+
+		Map<String, Long> counts = accounting.getOperationCounts();
+		assertEquals(Long.valueOf(2), counts.get("mmap"));
+		assertEquals(Long.valueOf(1), counts.get("remap"));
+		assertEquals(Long.valueOf(2), counts.get("unmap"));
+		assertEquals(0, accounting.getLiveBytes());
+	}
+
+	@Test
+	public void shouldExposeAttributesAsMXBean() throws Exception {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(NativeMemoryMXBean.OBJECT_NAME + ",name=test");
+		server.registerMBean(accounting, name);
+		try(Pointer<Rec> ptr = allocator.malloc(Rec.class)) {
+			assertEquals(16L, server.getAttribute(name, "LiveBytes"));
+			assertFalse((Boolean) server.getAttribute(name, "LeakDetection"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.LONG),
+		@Field(name="value", type=Type.DOUBLE) })
+	static interface Rec {
+		long id();
+		void id(final long value);
+	}
+}
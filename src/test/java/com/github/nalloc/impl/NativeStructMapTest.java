@@ -0,0 +1,300 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+import com.github.nalloc.StructMap;
+
+/**
+ * Unit tests for {@link NativeStructMap}.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class NativeStructMapTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Entry.class, CEntry.class);
+
+	@Test
+	public void shouldPutAndGetLongKeys() {
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 10)) {
+			map.put(5L).count(50);
+			map.put(-7L).count(70);
+
+			assertEquals(50, map.get(5L).count());
+			assertEquals(-7L, map.get(-7L).id());
+			assertEquals(70, map.get(-7L).count());
+			assertNull(map.get(6L));
+			assertEquals(2, map.size());
+		}
+	}
+
+	@Test
+	public void shouldReturnExistingEntryOnPut() {
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 10)) {
+			map.put(1L).count(10);
+
+			assertEquals(10, map.put(1L).count());
+			assertEquals(1, map.size());
+		}
+	}
+
+	@Test
+	public void shouldGrowPastCapacity() {
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 10)) {
+			for(int i = 0; i < 100000; i++) {
+				map.put(i).count(i * 2);
+			}
+
+			assertEquals(100000, map.size());
+			for(int i = 0; i < 100000; i++) {
+				assertEquals(i * 2, map.get(i).count());
+			}
+		}
+	}
+
+	@Test
+	public void shouldRemoveAndReuseEntries() {
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 10)) {
+			for(int i = 0; i < 1000; i++) {
+				map.put(i).count(i);
+			}
+			for(int i = 0; i < 1000; i += 2) {
+				assertTrue(map.remove(i));
+			}
+			assertFalse(map.remove(0));
+
+			assertEquals(500, map.size());
+			for(int i = 0; i < 1000; i++) {
+				assertEquals(i % 2 == 0, map.get(i) == null);
+			}
+			assertEquals(0, map.put(2).count());
+		}
+	}
+
+	@Test
+	public void shouldOverwriteKeysOfReusedEntries() {
+		try(StructMap<Entry> byName = allocator.map(Entry.class, "name", 10);
+				StructMap<CEntry> byCName = allocator.map(CEntry.class, "name", 10)) {
+			byName.put("four").count(4);
+			byName.remove("four");
+			byCName.put("abcdefg").count(7);
+			byCName.remove("abcdefg");
+
+			assertEquals(0, byName.put("fo").count());
+			assertEquals(0, byCName.put("ab").count());
+			assertNull(byName.get("four"));
+			assertNull(byCName.get("abcdefg"));
+			assertEquals("ab", byCName.get("ab").name());
+		}
+	}
+
+	@Test
+	public void shouldFindKeysWhileOtherEntriesAreReused() throws InterruptedException {
+		final StructMap<Entry> map = allocator.map(Entry.class, "name", 16);
+		for(int i = 0; i < 100; i++) {
+			map.put("k" + i).count(i);
+		}
+		final AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				for(int i = 0; running.get(); i = (i + 1) % 1000) {
+					map.put("r" + i);
+					map.remove("r" + i);
+				}
+			}
+		};
+		writer.start();
+		try {
+			for(int n = 0; n < 200000; n++) {
+				Entry entry = map.get("k" + n % 100);
+				assertEquals(n % 100, entry.count());
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+			map.free();
+		}
+	}
+
+	@Test
+	public void shouldUseIntAndStringKeys() {
+		try(StructMap<Entry> byCount = allocator.map(Entry.class, "count", 10);
+				StructMap<Entry> byName = allocator.map(Entry.class, "name", 10)) {
+			byCount.put(3).name("three");
+			byName.put("four").count(4);
+			byName.put("").count(0);
+
+			assertEquals("three", byCount.get(3).name());
+			assertEquals(4, byName.get("four").count());
+			assertNull(byName.get("fou"));
+			assertNull(byName.get("four4"));
+			assertEquals(0, byName.get("").count());
+		}
+	}
+
+	@Test
+	public void shouldUseCStringKeys() {
+		try(StructMap<CEntry> map = allocator.map(CEntry.class, "name", 10)) {
+			map.put("abc").count(1);
+			map.put("abcdefg").count(2);
+
+			assertEquals(1, map.get("abc").count());
+			assertEquals("abcdefg", map.get("abcdefg").name());
+			assertNull(map.get("ab"));
+		}
+	}
+
+	@Test
+	public void shouldMatchCStringKeysWithHighBitChars() {
+		try(StructMap<CEntry> map = allocator.map(CEntry.class, "name", 10)) {
+			map.put("\u00e9t\u00e9").count(1);
+			map.put("\u00e9t\u00e9").count(2);
+
+			assertEquals(1, map.size());
+			assertEquals(2, map.get("\u00e9t\u00e9").count());
+			assertTrue(map.remove("\u00e9t\u00e9"));
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectTooLongStringKey() {
+		try(StructMap<CEntry> map = allocator.map(CEntry.class, "name", 10)) {
+			map.put("abcdefgh");
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectWrongKeyType() {
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 10)) {
+			map.get("1");
+		}
+	}
+
+	@Test
+	public void shouldStoreEntriesInMmappedChunks() {
+		MmapAllocator mmap = MmapAllocator.Factory.create(Entry.class);
+		try(StructMap<Entry> map = mmap.map(Entry.class, "id", 1000)) {
+			for(int i = 0; i < 10000; i++) {
+				map.put(i).count(i);
+			}
+			for(int i = 0; i < 10000; i++) {
+				assertEquals(i, map.get(i).count());
+			}
+		}
+	}
+
+	@Test
+	public void shouldPutConcurrently() throws InterruptedException {
+		final StructMap<Entry> map = allocator.map(Entry.class, "id", 16);
+		final CountDownLatch start = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread[] threads = new Thread[4];
+		for(int t = 0; t < threads.length; t++) {
+			final int offset = t * 50000;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for(int i = 0; i < 50000; i++) {
+							map.put(offset + i).count(offset + i);
+							if(map.get(offset + i / 2).count() != offset + i / 2) {
+								throw new AssertionError("lost entry " + (offset + i / 2));
+							}
+						}
+					} catch(Throwable e) {
+						failure.set(e);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for(Thread thread : threads) {
+			thread.join();
+		}
+
+		assertNull(failure.get());
+		assertEquals(200000, map.size());
+		for(int i = 0; i < 200000; i++) {
+			assertEquals(i, map.get(i).count());
+		}
+		map.free();
+	}
+
+	@Test
+	public void shouldNotAllocateFromJavaHeapOnLookup() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		try(StructMap<Entry> map = allocator.map(Entry.class, "id", 1000)) {
+			for(int i = 0; i < 1000; i++) {
+				map.put(i).count(i);
+			}
+			Entry first = map.get(0);
+
+			long before = threads.getThreadAllocatedBytes(thread);
+			long sum = 0;
+			for(int i = 0; i < 100000; i++) {
+				sum += map.get(i % 1000).count();
+			}
+			long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+			assertSame(first, map.get(1));
+			assertEquals(49950000, sum);
+			// a few hundred bytes are allocated by the measurement itself, not by the lookups
+			assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+		}
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.LONG),
+		@Field(name="count", type=Type.INT),
+		@Field(name="name", type=Type.STRING, len=5) })
+	static interface Entry {
+		long id();
+		int count();
+		void count(final int value);
+		String name();
+		void name(final String value);
+	}
+
+	@Struct(c=true, value={
+		@Field(name="count", type=Type.INT),
+		@Field(name="name", type=Type.STRING, len=8) })
+	static interface CEntry {
+		int count();
+		void count(final int value);
+		String name();
+	}
+}
@@ -15,6 +15,8 @@
 package com.github.nalloc.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
@@ -48,6 +50,27 @@ public class NativeStructTest {
 		}
 	}
 
+	@Test
+	public void shouldNotShareNestedInstancesWithClone() {
+		try(Pointer<NestedStruct> ptr = allocator.malloc(NestedStruct.class)) {
+			Pointer<NestedStruct> clone = ptr.clone();
+
+			assertTrue(ptr.deref().nested() != clone.deref().nested());
+			assertTrue(ptr.deref().array() != clone.deref().array());
+			assertTrue(ptr.deref().array().get(0) != clone.deref().array().get(0));
+		}
+	}
+
+	@Test
+	public void shouldCreateInstancesWithGeneratedFactory() {
+		NativeStruct prototype = (NativeStruct) allocator.handle(NestedStruct.class).deref();
+		NativeStruct created = prototype.newInstance();
+
+		assertSame(prototype.getClass(), created.getClass());
+		assertEquals(0, created.address);
+		assertNotSame(prototype, NativeStruct.create(prototype.getClass()));
+	}
+
 	@Struct({
 		@Field(name="nested", type=Type.STRUCT, struct=Val.class),
 		@Field(name="array", type=Type.STRUCT, struct=Val.class, len=2) })
@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PointerArithmetics}.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class PointerArithmeticsTest {
+
+	final PointerArithmetics pointers = PointerArithmetics.INSTANCE;
+
+	@Test
+	public void shouldUseUnsafeBackendByDefault() {
+		assertTrue(pointers instanceof UnsafePointerArithmetics);
+		assertTrue(PointerArithmetics.load(null) instanceof UnsafePointerArithmetics);
+		assertTrue(PointerArithmetics.load(UnsafePointerArithmetics.class.getName()) instanceof UnsafePointerArithmetics);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void shouldRejectClassThatIsNotABackend() {
+		PointerArithmetics.load(String.class.getName());
+	}
+
+	@Test
+	public void shouldWriteStringLiteralsAndPadWithZeros() {
+		long address = UNSAFE.allocateMemory(17);
+		try {
+			UNSAFE.setMemory(address, 17, (byte) 'x');
+			pointers.setString(address, "literal", 8);
+
+			assertEquals("literal\0", pointers.getString(address, 8));
+			pointers.setString(address, "truncated", 8);
+			assertEquals("truncate", pointers.getString(address, 8));
+			assertEquals('x', (char) UNSAFE.getByte(address + 16));
+		} finally {
+			UNSAFE.freeMemory(address);
+		}
+	}
+
+	@Test
+	public void shouldCopyArrays() {
+		long address = UNSAFE.allocateMemory(32);
+		try {
+			pointers.setDoubles(address, new double[] { 1, 2, 3, 4 }, 4);
+			assertArrayEquals(new double[] { 1, 2, 3, 4 }, pointers.getDoubles(address, 4), 0);
+			short[] shorts = new short[2];
+			assertEquals(2, pointers.copyShorts(address, 16, shorts));
+		} finally {
+			UNSAFE.freeMemory(address);
+		}
+	}
+}
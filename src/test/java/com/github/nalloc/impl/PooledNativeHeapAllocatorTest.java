@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+
+/**
+ * Unit tests for {@link PooledNativeHeapAllocator}.
+ *
+ * @author Antti Laisi
+ */
+public class PooledNativeHeapAllocatorTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.createPooled(1, Val.class);
+
+	@Test
+	public void shouldReuseFreedBlock() {
+		Pointer<Val> p1 = allocator.malloc(Val.class);
+		long address = p1.address();
+		p1.free();
+
+		try(Pointer<Val> p2 = allocator.malloc(Val.class)) {
+			assertEquals(address, p2.address());
+		}
+	}
+
+	@Test
+	public void shouldPoolSingleElementArrays() {
+		Array<Val> array = allocator.calloc(1, Val.class);
+		long address = array.address();
+		array.free();
+
+		try(Pointer<Val> ptr = allocator.malloc(Val.class)) {
+			assertEquals(address, ptr.address());
+		}
+	}
+
+	@Test
+	public void shouldZeroPooledBlockOnCalloc() {
+		Pointer<Val> ptr = allocator.malloc(Val.class);
+		ptr.deref().val(42);
+		ptr.free();
+
+		try(Array<Val> array = allocator.calloc(1, Val.class)) {
+			assertEquals(0, array.get(0).val());
+		}
+	}
+
+	@Test
+	public void shouldLimitPooledBlocks() {
+		PooledMemory pool = new PooledMemory(1);
+		pool.addSizeClass(4);
+		long a1 = pool.allocate(4);
+		long a2 = pool.allocate(4);
+		pool.free(a1, 4);
+		pool.free(a2, 4);
+
+		assertEquals(1, pool.pooled(4));
+		assertEquals(0, pool.pooled(8));
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.impl.PointerArithmetics.UNSAFE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.MmapAllocator.Advice;
+
+/**
+ * Unit tests for {@link Prefaulter} and {@link MmapAllocator#advise(Array, Advice)}.
+ *
+ * @author Antti Laisi
+ */
+@SuppressWarnings("restriction")
+public class PrefaulterTest {
+
+	final MmapAllocator allocator = MmapAllocator.Factory.create(Val.class);
+	File file;
+
+	@Test
+	public void shouldTouchEveryPageFromSeveralThreads() throws IOException {
+		int pages = 1000;
+		try(Array<Val> array = allocator.mmap(file(), pages * UNSAFE.pageSize() / 4, Val.class)) {
+			ByteBuffer buffer = allocator.toBytes(array);
+			assertEquals(pages, new Prefaulter(buffer).prefault(4));
+		}
+	}
+
+	@Test
+	public void shouldTouchPagesOfAllSegments() {
+		MmapAllocator segmented = new DirectBufferMmapAllocator(UNSAFE.pageSize(), Val.class);
+		try(Array<Val> array = segmented.mmap(3 * UNSAFE.pageSize() / 4, Val.class)) {
+			ByteBuffer[] buffers = ((SegmentedMmapArray<Val>) array).buffers;
+			assertEquals(3, buffers.length);
+			assertTrue(new Prefaulter(buffers).prefault(2) >= 3);
+		}
+	}
+
+	@Test
+	public void shouldKeepContentOnPreload() throws IOException {
+		try(Array<Val> array = allocator.mmap(file(), 100000, Val.class)) {
+			array.get(99999).val(7);
+			allocator.preload(array, 3);
+
+			assertEquals(7, array.get(99999).val());
+		}
+	}
+
+	@Test
+	public void shouldAcceptAllAdvice() throws IOException {
+		try(Array<Val> array = allocator.mmap(file(), 1000, Val.class);
+				Array<Val> anonymous = allocator.mmap(1000, Val.class)) {
+			array.get(1).val(1);
+			for(Advice advice : Advice.values()) {
+				allocator.advise(array, advice);
+				allocator.advise(anonymous, advice);
+			}
+			assertEquals(1, array.get(1).val());
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectZeroThreads() {
+		try(Array<Val> array = allocator.mmap(10, Val.class)) {
+			allocator.preload(array, 0);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		if(file != null) {
+			file.delete();
+		}
+	}
+
+	File file() throws IOException {
+		return file = File.createTempFile(getClass().getSimpleName(), ".map");
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.MmapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link SegmentedMmapArray}.
+ *
+ * @author Antti Laisi
+ */
+public class SegmentedMmapArrayTest {
+
+	// 4 structs of 12 bytes per segment
+	final MmapAllocator allocator = new DirectBufferMmapAllocator(64, Entry.class);
+	File file;
+
+	@Test
+	public void shouldMapFileInSegments() throws IOException {
+		try(Array<Entry> array = allocator.mmap(file(), 10, Entry.class)) {
+			assertTrue(array instanceof SegmentedMmapArray);
+			assertEquals(3, ((SegmentedMmapArray<Entry>) array).buffers.length);
+			assertEquals(10, array.size());
+			for(int i = 0; i < 10; i++) {
+				array.get(i).id(i);
+				array.get(i).value(i * 100L);
+			}
+			for(int i = 0; i < 10; i++) {
+				assertEquals(i, array.get(i).id());
+				assertEquals(i * 100L, array.get(i).value());
+			}
+		}
+		assertEquals(120, file.length());
+	}
+
+	@Test
+	public void shouldKeepFileLayoutContiguous() throws IOException {
+		try(Array<Entry> array = allocator.mmap(file(), 10, Entry.class)) {
+			array.get(4).id(44);
+			array.get(9).value(99);
+		}
+		ByteBuffer bytes = ByteBuffer.allocate(120).order(ByteOrder.nativeOrder());
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.getChannel().read(bytes);
+		}
+		assertEquals(44, bytes.getInt(4 * 12));
+		assertEquals(99, bytes.getLong(9 * 12 + 4));
+	}
+
+	@Test
+	public void shouldMapAnonymousMemoryInSegments() {
+		try(Array<Entry> array = allocator.mmap(6, Entry.class)) {
+			assertTrue(array instanceof SegmentedMmapArray);
+			array.get(3).id(3);
+			array.get(4).id(4);
+			array.clear(3);
+
+			assertEquals(0, array.get(3).id());
+			assertEquals(4, array.get(4).id());
+		}
+	}
+
+	@Test
+	public void shouldCloneArray() {
+		try(Array<Entry> array = allocator.mmap(9, Entry.class)) {
+			Array<Entry> clone = array.clone();
+			array.get(8).id(8);
+
+			assertEquals(8, clone.get(8).id());
+			assertEquals(array.size(), clone.size());
+		}
+	}
+
+	@Test
+	public void shouldMapFileLargerThanSegmentLimit() throws IOException {
+		MmapAllocator allocator = MmapAllocator.Factory.create(Entry.class);
+		long nmemb = (DirectBufferMmapAllocator.MAX_SEGMENT / 12) + 10;
+		try(Array<Entry> array = allocator.mmap(file(), nmemb, Entry.class)) {
+			array.get(nmemb - 1).value(123);
+			array.get(0).value(1);
+
+			assertEquals(123, array.get(nmemb - 1).value());
+			assertEquals(1, array.get(0).value());
+		}
+		assertEquals(nmemb * 12, file.length());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void shouldRejectCastingSegmentedArrayToBuffer() {
+		try(Array<Entry> array = allocator.mmap(6, Entry.class)) {
+			allocator.toBytes(array);
+		}
+	}
+
+	@After
+	public void cleanup() {
+		if(file != null) {
+			file.delete();
+		}
+	}
+
+	File file() throws IOException {
+		return file = File.createTempFile(getClass().getSimpleName(), ".map");
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.INT),
+		@Field(name="value", type=Type.LONG) })
+	static interface Entry {
+		int id();
+		void id(final int id);
+		long value();
+		void value(final long value);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link StructClassGenerator}. The structs are private, so they are generated at runtime.
+ *
+ * @author Antti Laisi
+ */
+public class StructClassGeneratorTest {
+
+	@Test
+	public void shouldShareClassesBetweenAllocators() {
+		NativeHeapAllocator first = NativeHeapAllocator.Factory.create(Outer.class);
+		NativeHeapAllocator second = NativeHeapAllocator.Factory.create(Outer.class, Inner.class);
+
+		try(Pointer<Outer> a = first.malloc(Outer.class); Pointer<Outer> b = second.malloc(Outer.class)) {
+			assertSame(a.deref().getClass(), b.deref().getClass());
+			assertSame(a.deref().inner().getClass(), second.malloc(Inner.class).deref().getClass());
+		}
+	}
+
+	@Test
+	public void shouldGenerateRuntimeClassesOfNestedStructs() {
+		assertNull(StructClassGenerator.compiled(Outer.class, false));
+
+		try(Pointer<Outer> ptr = NativeHeapAllocator.Factory.create(Outer.class).malloc(Outer.class)) {
+			ptr.deref().inner().value(3);
+			ptr.deref().inners().get(1).value(4);
+
+			assertEquals(3, ptr.deref().inner().value());
+			assertEquals(4, ptr.deref().inners().get(1).value());
+		}
+		assertNotSame(StructClassGenerator.generate(Outer.class), StructClassGenerator.generate(Outer.class, true));
+		Outer readOnly = (Outer) NativeStruct.create(StructClassGenerator.generate(Outer.class, true));
+		assertSame(StructClassGenerator.generate(Inner.class, true), readOnly.inner().getClass());
+	}
+
+	@Test
+	public void shouldGenerateOnceWhenCalledConcurrently() throws Exception {
+		ExecutorService threads = Executors.newFixedThreadPool(8);
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			Future<?>[] results = new Future<?>[16];
+			for(int i = 0; i < results.length; i++) {
+				final boolean readOnly = i % 2 == 0;
+				results[i] = threads.submit(new Callable<Class<?>>() {
+					@Override
+					public Class<?> call() throws Exception {
+						start.await();
+						return StructClassGenerator.generate(Concurrent.class, readOnly);
+					}
+				});
+			}
+			start.countDown();
+			for(int i = 2; i < results.length; i++) {
+				assertSame(results[i % 2].get(), results[i].get());
+			}
+		} finally {
+			threads.shutdown();
+		}
+	}
+
+	@Struct({
+		@Field(name="value", type=Type.LONG) })
+	private static interface Inner {
+		long value();
+		void value(final long value);
+	}
+
+	@Struct({
+		@Field(name="inner", type=Type.STRUCT, struct=Inner.class),
+		@Field(name="inners", type=Type.STRUCT, struct=Inner.class, len=2) })
+	private static interface Outer {
+		Inner inner();
+		Array<Inner> inners();
+	}
+
+	@Struct({
+		@Field(name="id", type=Type.INT),
+		@Field(name="name", type=Type.STRING, len=4) })
+	private static interface Concurrent {
+		int id();
+		String name();
+	}
+}
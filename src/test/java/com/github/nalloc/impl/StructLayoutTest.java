@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static com.github.nalloc.Struct.Offsets.alignmentOf;
+import static com.github.nalloc.Struct.Offsets.offsetOf;
+import static com.github.nalloc.Struct.Offsets.sizeOf;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Layout;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for {@link StructLayout}.
+ *
+ * @author Antti Laisi
+ */
+public class StructLayoutTest {
+
+	@Test
+	public void shouldPackFields() {
+		assertEquals(0, offsetOf(Packed.class, "flag"));
+		assertEquals(1, offsetOf(Packed.class, "id"));
+		assertEquals(9, offsetOf(Packed.class, "code"));
+		assertEquals(11, offsetOf(Packed.class, "count"));
+		assertEquals(15, sizeOf(Packed.class));
+		assertEquals(1, alignmentOf(Packed.class));
+	}
+
+	@Test
+	public void shouldAlignFieldsInDeclarationOrder() {
+		assertEquals(0, offsetOf(Aligned.class, "flag"));
+		assertEquals(8, offsetOf(Aligned.class, "id"));
+		assertEquals(16, offsetOf(Aligned.class, "code"));
+		assertEquals(20, offsetOf(Aligned.class, "count"));
+		assertEquals(24, sizeOf(Aligned.class));
+		assertEquals(8, alignmentOf(Aligned.class));
+	}
+
+	@Test
+	public void shouldReorderFieldsByAlignment() {
+		assertEquals(0, offsetOf(Optimized.class, "id"));
+		assertEquals(8, offsetOf(Optimized.class, "count"));
+		assertEquals(12, offsetOf(Optimized.class, "code"));
+		assertEquals(14, offsetOf(Optimized.class, "flag"));
+		assertEquals(16, sizeOf(Optimized.class));
+	}
+
+	@Test
+	public void shouldAlignNestedStructsAndBits() {
+		// flag, 4 bit word, short array aligned to 2, nested aligned struct at 8
+		assertEquals(0, offsetOf(Outer.class, "flag"));
+		assertEquals(1, offsetOf(Outer.class, "low"));
+		assertEquals(1, offsetOf(Outer.class, "high"));
+		assertEquals(2, offsetOf(Outer.class, "codes"));
+		assertEquals(8, offsetOf(Outer.class, "inner"));
+		assertEquals(32, offsetOf(Outer.class, "tail"));
+		assertEquals(40, sizeOf(Outer.class));
+	}
+
+	@Test
+	public void shouldRoundAlignedSizeToPad() {
+		assertEquals(32, sizeOf(AlignedPadded.class));
+	}
+
+	@Test
+	public void shouldAccessReorderedFields() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Optimized.class);
+		try(Array<Optimized> array = allocator.calloc(3, Optimized.class)) {
+			for(int i = 0; i < 3; i++) {
+				Optimized struct = array.get(i);
+				struct.flag(true);
+				struct.id(i * 100L);
+				struct.code((short) i);
+				struct.count(-i);
+			}
+			for(int i = 0; i < 3; i++) {
+				Optimized struct = array.get(i);
+				assertEquals(true, struct.flag());
+				assertEquals(i * 100L, struct.id());
+				assertEquals(i, struct.code());
+				assertEquals(-i, struct.count());
+			}
+		}
+	}
+
+	@Struct({
+		@Field(name="flag", type=Type.BOOLEAN),
+		@Field(name="id", type=Type.LONG),
+		@Field(name="code", type=Type.SHORT),
+		@Field(name="count", type=Type.INT) })
+	static interface Packed {
+	}
+
+	@Struct(layout=Layout.ALIGNED, value={
+		@Field(name="flag", type=Type.BOOLEAN),
+		@Field(name="id", type=Type.LONG),
+		@Field(name="code", type=Type.SHORT),
+		@Field(name="count", type=Type.INT) })
+	static interface Aligned {
+	}
+
+	@Struct(layout=Layout.ALIGNED, pad=32, value={
+		@Field(name="flag", type=Type.BOOLEAN),
+		@Field(name="id", type=Type.LONG) })
+	static interface AlignedPadded {
+	}
+
+	@Struct(layout=Layout.OPTIMIZED, value={
+		@Field(name="flag", type=Type.BOOLEAN),
+		@Field(name="id", type=Type.LONG),
+		@Field(name="code", type=Type.SHORT),
+		@Field(name="count", type=Type.INT) })
+	static interface Optimized {
+		boolean flag();
+		void flag(boolean value);
+		long id();
+		void id(long value);
+		short code();
+		void code(short value);
+		int count();
+		void count(int value);
+	}
+
+	@Struct(layout=Layout.ALIGNED, value={
+		@Field(name="flag", type=Type.BYTE),
+		@Field(name="low", type=Type.BITS, bits=4),
+		@Field(name="high", type=Type.BITS, bits=4),
+		@Field(name="codes", type=Type.SHORT, len=2),
+		@Field(name="inner", type=Type.STRUCT, struct=Aligned.class),
+		@Field(name="tail", type=Type.BYTE) })
+	static interface Outer {
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+import com.github.nalloc.Struct;
+import com.github.nalloc.Struct.Field;
+import com.github.nalloc.Struct.Type;
+
+/**
+ * Unit tests for classes generated by {@link StructProcessor} when the tests are compiled.
+ *
+ * @author Antti Laisi
+ */
+public class StructProcessorTest {
+
+	final NativeHeapAllocator allocator = NativeHeapAllocator.Factory.create(Line.class, Hidden.class, Partial.class);
+
+	@Test
+	public void shouldUseClassesGeneratedAtBuildTime() {
+		try(Pointer<Line> ptr = allocator.malloc(Line.class)) {
+			assertSame(NativeStruct_StructProcessorTest_Line.class, ptr.deref().getClass());
+			assertSame(NativeStruct_StructProcessorTest_Point.class, ptr.deref().from().getClass());
+			assertSame(NativeStruct_StructProcessorTest_Point.class, ptr.deref().points().get(0).getClass());
+		}
+	}
+
+	@Test
+	public void shouldFindReadOnlyClasses() {
+		assertSame(NativeStruct_StructProcessorTest_Line_ReadOnly.class, StructClassGenerator.compiled(Line.class, true));
+		assertTrue(NativeStruct.create(NativeStruct_StructProcessorTest_Point_ReadOnly.class).isReadOnly());
+	}
+
+	@Test
+	public void shouldAccessFieldsOfGeneratedClasses() {
+		try(Pointer<Line> ptr = allocator.malloc(Line.class)) {
+			Line line = ptr.deref();
+			line.from().x(1);
+			line.points().get(2).y(-3);
+			line.flags(5);
+			line.label("abc");
+			line.count(7);
+
+			assertEquals(1, line.from().x());
+			assertEquals(-3, line.points().get(2).y());
+			assertEquals(5, line.flags());
+			assertTrue(line.label().startsWith("abc"));
+			assertTrue(line.labelEquals("abc"));
+			assertTrue(line.countCompareAndSet(7, 8));
+			assertEquals(8, line.count());
+			assertEquals(StructLayout.of(Line.class).size(), ((NativeStruct) line).getSize());
+		}
+	}
+
+	@Test
+	public void shouldGenerateSkippedStructsAtRuntime() {
+		assertNull(StructClassGenerator.compiled(Hidden.class, false));
+		assertNull(StructClassGenerator.compiled(Partial.class, false));
+
+		try(Pointer<Hidden> hidden = allocator.malloc(Hidden.class);
+				Pointer<Partial> partial = allocator.malloc(Partial.class)) {
+			hidden.deref().x(4);
+
+			assertEquals(4, hidden.deref().x());
+			assertFalse(hidden.deref().getClass().getSimpleName().startsWith("NativeStruct_"));
+			assertFalse(partial.deref().getClass().getSimpleName().startsWith("NativeStruct_"));
+		}
+	}
+
+	@Struct({
+		@Field(name="x", type=Type.INT),
+		@Field(name="y", type=Type.INT) })
+	static interface Point {
+		int x();
+		void x(final int value);
+		int y();
+		void y(final int value);
+	}
+
+	@Struct(layout=Struct.Layout.ALIGNED, value={
+		@Field(name="from", type=Type.STRUCT, struct=Point.class),
+		@Field(name="points", type=Type.STRUCT, struct=Point.class, len=4),
+		@Field(name="flags", type=Type.BITS, bits=3),
+		@Field(name="label", type=Type.STRING, len=8),
+		@Field(name="count", type=Type.INT, atomic=true) })
+	static interface Line {
+		Point from();
+		Array<Point> points();
+		int flags();
+		void flags(final int value);
+		String label();
+		void label(final String value);
+		boolean labelEquals(final String value);
+		int count();
+		void count(final int value);
+		boolean countCompareAndSet(final int expect, final int update);
+	}
+
+	@Struct(@Field(name="x", type=Type.INT))
+	private static interface Hidden {
+		int x();
+		void x(final int value);
+	}
+
+	@Struct(@Field(name="x", type=Type.INT))
+	static interface Partial {
+		int x();
+		long y();
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+
+/**
+ * Unit tests for {@link ThreadCachedMemory}.
+ *
+ * @author Antti Laisi
+ */
+public class ThreadCachedMemoryTest {
+
+	final PooledMemory shared = new PooledMemory(8);
+	final ThreadCachedMemory memory = new ThreadCachedMemory(shared, 2);
+	final ExecutorService thread = Executors.newSingleThreadExecutor();
+
+	{
+		shared.addSizeClass(4);
+	}
+
+	@Test
+	public void shouldCacheBlockFreedByOtherThread() throws Exception {
+		final long address = memory.allocate(4);
+		thread.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				memory.free(address, 4);
+				return null;
+			}
+		}).get();
+
+		assertEquals(0, memory.cached(4));
+		assertEquals(address, (long) thread.submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return memory.allocate(4);
+			}
+		}).get());
+	}
+
+	@Test
+	public void shouldDrainFullCacheToSharedPool() {
+		long[] blocks = new long[5];
+		for(int i = 0; i < blocks.length; i++) {
+			blocks[i] = memory.allocate(4);
+		}
+		for(long block : blocks) {
+			memory.free(block, 4);
+		}
+
+		assertEquals(3, memory.cached(4));
+		assertEquals(2, shared.pooled(4));
+	}
+
+	@Test
+	public void shouldRefillEmptyCacheFromSharedPool() throws Exception {
+		final long address = memory.allocate(4);
+		shared.free(address, 4);
+
+		assertEquals(address, (long) thread.submit(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return memory.allocate(4);
+			}
+		}).get());
+		assertEquals(0, shared.pooled(4));
+	}
+
+	@Test
+	public void shouldReclaimCacheOfTerminatedThread() throws Exception {
+		Thread worker = new Thread() {
+			@Override
+			public void run() {
+				long first = memory.allocate(4);
+				long second = memory.allocate(4);
+				memory.free(first, 4);
+				memory.free(second, 4);
+			}
+		};
+		worker.start();
+		worker.join();
+		assertEquals(0, shared.pooled(4));
+
+		memory.cached(4);
+
+		assertEquals(2, shared.pooled(4));
+	}
+
+	@Test
+	public void shouldKeepCacheOfLiveThread() {
+		memory.free(memory.allocate(4), 4);
+
+		memory.reclaim();
+
+		assertEquals(1, memory.cached(4));
+		assertEquals(0, shared.pooled(4));
+	}
+
+	@Test
+	public void shouldAllocateWithThreadCachedAllocator() {
+		NativeHeapAllocator allocator = NativeHeapAllocator.Factory.createThreadCached(4, 16, Val.class);
+		Pointer<Val> p1 = allocator.malloc(Val.class);
+		long address = p1.address();
+		p1.free();
+
+		try(Pointer<Val> p2 = allocator.malloc(Val.class)) {
+			assertEquals(address, p2.address());
+		}
+	}
+
+	@After
+	public void shutdown() {
+		thread.shutdown();
+	}
+
+}
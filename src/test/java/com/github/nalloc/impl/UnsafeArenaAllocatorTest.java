@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.nalloc.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.github.nalloc.Array;
+import com.github.nalloc.ArenaAllocator;
+import com.github.nalloc.NativeHeapAllocator;
+import com.github.nalloc.Pointer;
+
+/**
+ * Unit tests for {@link UnsafeArenaAllocator}.
+ *
+ * @author Antti Laisi
+ */
+public class UnsafeArenaAllocatorTest {
+
+	final ArenaAllocator allocator = NativeHeapAllocator.Factory.createArena(64, Val.class);
+
+	@Test
+	public void shouldBumpAllocateFromChunk() {
+		Pointer<Val> p1 = allocator.malloc(Val.class);
+		Pointer<Val> p2 = allocator.malloc(Val.class);
+		p1.deref().val(1);
+		p2.deref().val(2);
+
+		assertEquals(8, p2.address() - p1.address());
+		assertEquals(1, p1.deref().val());
+		assertEquals(2, p2.deref().val());
+	}
+
+	@Test
+	public void shouldReuseMostRecentBlockOnFree() {
+		Pointer<Val> p1 = allocator.malloc(Val.class);
+		p1.free();
+		Pointer<Val> p2 = allocator.malloc(Val.class);
+
+		assertEquals(p1.address(), p2.address());
+	}
+
+	@Test
+	public void shouldAllocateOversizedArray() {
+		Array<Val> array = allocator.calloc(100, Val.class);
+		array.get(99).val(99);
+
+		assertEquals(0, array.get(98).val());
+		assertEquals(99, array.get(99).val());
+	}
+
+	@Test
+	public void shouldPreserveContentOnRealloc() {
+		Array<Val> array = allocator.calloc(2, Val.class);
+		allocator.malloc(Val.class);
+		array.get(1).val(7);
+		long address = array.address();
+
+		allocator.realloc(array, 20);
+
+		assertTrue(address != array.address());
+		assertEquals(20, array.size());
+		assertEquals(7, array.get(1).val());
+	}
+
+	@Test
+	public void shouldGrowMostRecentArrayInPlace() {
+		Array<Val> array = allocator.calloc(2, Val.class);
+		long address = array.address();
+
+		allocator.realloc(array, 4);
+
+		assertEquals(address, array.address());
+	}
+
+	@After
+	public void close() {
+		allocator.close();
+	}
+}